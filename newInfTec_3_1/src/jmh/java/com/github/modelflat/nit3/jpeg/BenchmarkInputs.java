@@ -0,0 +1,54 @@
+package com.github.modelflat.nit3.jpeg;
+
+import java.util.Random;
+
+/*
+Inputs shared by the benchmarks: the Samples matrices plus generated noise and gradient content. Generation is
+seeded, so every run sees the same data.
+ */
+final class BenchmarkInputs {
+
+    private BenchmarkInputs() {
+    }
+
+    static float[][] block(String kind) {
+        switch (kind) {
+            case "test1":
+                return Samples.test1;
+            case "test2":
+                return Samples.test2;
+            case "test3":
+                return Samples.test3;
+            default:
+                return image(kind, 8, 8);
+        }
+    }
+
+    /*
+    "noise" is uniform 8-bit noise, "gradient" a diagonal ramp with slight noise, "samples" the Samples
+    matrices tiled over the image
+     */
+    static float[][] image(String kind, int width, int height) {
+        Random random = new Random(42);
+        float[][] pixels = new float[height][width];
+        float[][][] samples = {Samples.test1, Samples.test2, Samples.test3};
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                switch (kind) {
+                    case "noise":
+                        pixels[y][x] = random.nextInt(256);
+                        break;
+                    case "gradient":
+                        pixels[y][x] = Math.min(255, 255f * (x + y) / (width + height) + random.nextInt(4));
+                        break;
+                    case "samples":
+                        pixels[y][x] = samples[(x / 8 + y / 8) % samples.length][y % 8][x % 8];
+                        break;
+                    default:
+                        throw new RuntimeException("Unknown input: " + kind);
+                }
+            }
+        }
+        return pixels;
+    }
+}
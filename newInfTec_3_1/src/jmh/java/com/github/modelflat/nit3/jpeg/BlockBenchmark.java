@@ -0,0 +1,127 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.huffman.Huffman;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCode;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanDecoder;
+import com.github.modelflat.nit3.jpeg.io.BitReader;
+import com.github.modelflat.nit3.jpeg.io.BitWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/*
+Per-stage costs of the block pipeline. Every benchmark first restores its input with copyTo (a 64-float
+copy, measured on its own by `copy`), since all stages work in place.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class BlockBenchmark {
+
+    @Param({"test1", "test2", "test3", "noise", "gradient"})
+    private String input;
+
+    @Param({"0", "2", "4", "6"})
+    private int q;
+
+    private Block work;
+    private Block source;
+    private Block normalized;
+    private Block transformed;
+    private Block quantized;
+    private Block dequantized;
+
+    private HuffmanCode code;
+    private HuffmanDecoder decoder;
+    private ByteBuffer output;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setUp() {
+        work = new Block();
+        source = new Block(BenchmarkInputs.block(input), q);
+        normalized = source.copy().normalize();
+        transformed = normalized.copy().fdct();
+        quantized = transformed.copy().quantize();
+        dequantized = quantized.copy().dequantize();
+
+        code = quantized.buildHuffmanCode();
+        decoder = new HuffmanDecoder(code);
+        output = ByteBuffer.allocate(64 * HuffmanCode.MAX_LENGTH);
+        encoded = ByteBuffer.allocate(64 * HuffmanCode.MAX_LENGTH);
+        BitWriter writer = new BitWriter(encoded);
+        quantized.writeHuffman(code, writer);
+        writer.flush();
+        encoded.flip();
+    }
+
+    @Benchmark
+    public Block copy() {
+        return source.copyTo(work);
+    }
+
+    @Benchmark
+    public Block normalize() {
+        return source.copyTo(work).normalize();
+    }
+
+    @Benchmark
+    public Block fdct() {
+        return normalized.copyTo(work).fdct();
+    }
+
+    @Benchmark
+    public Block quantize() {
+        return transformed.copyTo(work).quantize();
+    }
+
+    @Benchmark
+    public int zigzagRLE() {
+        return quantized.copyTo(work).encodeRLE();
+    }
+
+    @Benchmark
+    public HuffmanCode huffmanBuild() {
+        return quantized.copyTo(work).buildHuffmanCode();
+    }
+
+    @Benchmark
+    public Huffman huffmanBuildTree() {
+        return quantized.copyTo(work).encodeHuffman();
+    }
+
+    @Benchmark
+    public ByteBuffer entropyEncode() {
+        output.clear();
+        BitWriter writer = new BitWriter(output);
+        quantized.copyTo(work).writeHuffman(code, writer);
+        return writer.flush();
+    }
+
+    @Benchmark
+    public Block entropyDecode() {
+        encoded.rewind();
+        return work.readHuffman(decoder, new BitReader(encoded));
+    }
+
+    @Benchmark
+    public Block dequantize() {
+        return quantized.copyTo(work).dequantize();
+    }
+
+    @Benchmark
+    public Block idct() {
+        return dequantized.copyTo(work).idct();
+    }
+
+    @Benchmark
+    public Block compress() {
+        return source.copyTo(work).compress();
+    }
+
+    @Benchmark
+    public Block decompress() {
+        return quantized.copyTo(work).decompress();
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.dct.DCT;
+import com.github.modelflat.nit3.jpeg.dct.DCTType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class DCTBenchmark {
+
+    @Param({"REFERENCE", "SEPARABLE", "AAN"})
+    private DCTType type;
+
+    private DCT dct;
+    private final float[] samples = new float[64];
+    private final float[] coefficients = new float[64];
+    private final float[] output = new float[64];
+
+    @Setup
+    public void setUp() {
+        dct = type.get();
+        float[][] block = BenchmarkInputs.block("test3");
+        for (int i = 0; i < 64; i++) {
+            samples[i] = block[i / 8][i % 8] - 128;
+        }
+        dct.forward(samples, coefficients);
+    }
+
+    @Benchmark
+    public float[] forward() {
+        dct.forward(samples, output);
+        return output;
+    }
+
+    @Benchmark
+    public float[] inverse() {
+        dct.inverse(coefficients, output);
+        return output;
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.entropy.ArithmeticCoder;
+import com.github.modelflat.nit3.jpeg.entropy.EntropyCoder;
+import com.github.modelflat.nit3.jpeg.entropy.EntropyCoderType;
+import com.github.modelflat.nit3.jpeg.entropy.HuffmanCoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/*
+Entropy coding of all blocks of an already compressed frame, one stream per invocation, with each
+EntropyCoderType (Huffman with a code fitted to the frame beforehand). Each result also reports the time
+per run-length symbol (`symbols`) and per byte of the stream (`bytes`), see Sizes; the score divided by the
+latter is the size of the stream, so bytes saved are the difference of that between coders.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class EntropyBenchmark {
+
+    @Param({"noise", "gradient", "samples"})
+    private String input;
+
+    @Param({"0", "2", "6"})
+    private int q;
+
+    @Param({"HUFFMAN", "ARITHMETIC"})
+    private EntropyCoderType coder;
+
+    private Frame compressed;
+    private Frame decoded;
+    private EntropyCoder entropyCoder;
+    private ByteBuffer buffer;
+    private ByteBuffer encoded;
+    private long symbols;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        compressed = new Frame(BenchmarkInputs.image(input, 512, 512), q).compress();
+        decoded = compressed.copy();
+        entropyCoder = coder == EntropyCoderType.HUFFMAN ? new HuffmanCoder(compressed.buildHuffmanCode()) :
+                new ArithmeticCoder();
+        buffer = ByteBuffer.allocate(entropyCoder.maxSize(compressed.getBlockCount()));
+        ByteBuffer stream = encodeStream();
+        stream.flip();
+        encoded = stream.asReadOnlyBuffer();
+        symbols = 0;
+        for (int i = 0; i < compressed.getBlockCount(); i++) {
+            symbols += block(compressed, i).encodeRLE();
+        }
+    }
+
+    /*
+    Symbols and bytes coded, counted like operations: in average time mode JMH reports the time per symbol
+    and per byte. Events would be summed over the iterations in JMH 1.18 rather than reported per invocation.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Sizes {
+        public long symbols;
+        public long bytes;
+    }
+
+    @Benchmark
+    public ByteBuffer encode(Sizes sizes) {
+        sizes.symbols += symbols;
+        sizes.bytes += encoded.remaining();
+        return encodeStream();
+    }
+
+    private ByteBuffer encodeStream() {
+        buffer.clear();
+        EntropyCoder.Encoder encoder = entropyCoder.newEncoder(buffer);
+        for (int i = 0; i < compressed.getBlockCount(); i++) {
+            encoder.encode(block(compressed, i));
+        }
+        return encoder.flush();
+    }
+
+    @Benchmark
+    public Frame decode(Sizes sizes) {
+        sizes.symbols += symbols;
+        sizes.bytes += encoded.remaining();
+        EntropyCoder.Decoder decoder = entropyCoder.newDecoder(encoded.duplicate());
+        for (int i = 0; i < decoded.getBlockCount(); i++) {
+            decoder.decode(block(decoded, i));
+        }
+        return decoded;
+    }
+
+    private static Block block(Frame frame, int index) {
+        return frame.getBlock(index % frame.getBlocksX(), index / frame.getBlocksX());
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.modelflat.nit3.jpeg;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+End-to-end cost of a whole image on the common fork-join pool. Blocks are restored from the source (or
+compressed) frame before every invocation, outside the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class FrameBenchmark {
+
+    @Param({"noise", "gradient", "samples"})
+    private String input;
+
+    @Param({"512x512", "1920x1080", "3840x2160"})
+    private String size;
+
+    @Param({"0", "2", "6"})
+    private int q;
+
+    private Frame source;
+    private Frame compressed;
+    private Frame work;
+    private Frame decodeWork;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] dimensions = size.split("x");
+        float[][] pixels = BenchmarkInputs.image(input, Integer.parseInt(dimensions[0]),
+                Integer.parseInt(dimensions[1]));
+        source = new Frame(pixels, q);
+        compressed = source.copy().compress();
+        work = source.copy();
+        decodeWork = compressed.copy();
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        source.copyTo(work);
+        compressed.copyTo(decodeWork);
+    }
+
+    @Benchmark
+    public Frame encode() {
+        return work.compress();
+    }
+
+    @Benchmark
+    public int encodeWithEntropySize() {
+        return work.compress().computeHuffmanSize();
+    }
+
+    @Benchmark
+    public Frame decode() {
+        return decodeWork.decompress();
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/*
+JFIF encoding and decoding of an already compressed frame (entropy coding and markers only), into and from a
+direct buffer. MB/s of source samples is width * height / time. With restart intervals (in blocks), decode()
+runs segments in parallel and decodeRegion() decodes only the central quarter of the frame. encodeOptimized()
+includes the first pass and table construction of two-pass Huffman coding, encodeCached() only the first pass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class JFIFBenchmark {
+
+    @Param({"noise", "gradient", "samples"})
+    private String input;
+
+    @Param({"512x512", "1920x1080"})
+    private String size;
+
+    @Param({"0", "2", "6"})
+    private int q;
+
+    @Param({"0", "64"})
+    private int restartInterval;
+
+    private Frame compressed;
+    private ByteBuffer buffer;
+    private ByteBuffer encoded;
+    private Rectangle region;
+    private HuffmanCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] dimensions = size.split("x");
+        float[][] pixels = BenchmarkInputs.image(input, Integer.parseInt(dimensions[0]),
+                Integer.parseInt(dimensions[1]));
+        compressed = new Frame(pixels, q).compress();
+        buffer = ByteBuffer.allocateDirect(JFIFWriter.maxSize(compressed));
+        encoded = JFIFWriter.write(compressed, ByteBuffer.allocateDirect(buffer.capacity()), restartInterval);
+        encoded.flip();
+        region = new Rectangle(compressed.getWidth() / 4, compressed.getHeight() / 4,
+                compressed.getWidth() / 2, compressed.getHeight() / 2);
+        cache = new HuffmanCache(4);
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        buffer.clear();
+        return JFIFWriter.write(compressed, buffer, restartInterval);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeOptimized() {
+        buffer.clear();
+        return JFIFWriter.writeOptimized(compressed, buffer, restartInterval, null);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeCached() {
+        buffer.clear();
+        return JFIFWriter.writeOptimized(compressed, buffer, restartInterval, cache);
+    }
+
+    @Benchmark
+    public Frame decode() {
+        return new JFIFReader(encoded.duplicate()).getFrame();
+    }
+
+    @Benchmark
+    public Frame decodeRegion() {
+        return new JFIFReader(encoded.duplicate(), region, ForkJoinPool.commonPool()).getFrame();
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.modelflat.nit3.kernels;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+"selected" is whatever Kernels.get() picked in the benchmark JVM, i.e. the vector kernels when the build ran
+on JDK 16+ (see build.gradle)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class KernelsBenchmark {
+
+    @Param({"scalar", "selected"})
+    private String kernels;
+
+    private Kernels k;
+    private final float[] samples = new float[64];
+    private final float[] matrix = new float[64];
+    private final float[] output = new float[64];
+    private final float[][] current = new float[32][32];
+    private final float[][] reference = new float[32][32];
+
+    @Setup
+    public void setUp() {
+        k = "scalar".equals(kernels) ? new ScalarKernels() : Kernels.get();
+        Random random = new Random(42);
+        for (int i = 0; i < 64; i++) {
+            samples[i] = random.nextInt(2048) - 1024;
+            matrix[i] = 1 + random.nextInt(32);
+        }
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 32; x++) {
+                current[y][x] = random.nextInt(256);
+                reference[y][x] = random.nextInt(256);
+            }
+        }
+    }
+
+    @Benchmark
+    public float[] quantize() {
+        k.quantize(samples, matrix, output);
+        return output;
+    }
+
+    @Benchmark
+    public float[] dequantize() {
+        k.multiply(samples, matrix, output);
+        return output;
+    }
+
+    @Benchmark
+    public float[] restore() {
+        k.restore(samples, output);
+        return output;
+    }
+
+    @Benchmark
+    public float[] subtract() {
+        k.subtract(samples, matrix, output);
+        return output;
+    }
+
+    @Benchmark
+    public float[] forwardDCT() {
+        k.getDCT().forward(samples, output);
+        return output;
+    }
+
+    @Benchmark
+    public float[] inverseDCT() {
+        k.getDCT().inverse(samples, output);
+        return output;
+    }
+
+    @Benchmark
+    public float sad() {
+        return k.sad(current, reference, 8, 8, 3, -2, Float.MAX_VALUE);
+    }
+}
@@ -0,0 +1,305 @@
+package com.github.modelflat.nit3;
+
+import com.github.modelflat.nit3.jpeg.BlockCache;
+import com.github.modelflat.nit3.jpeg.ColorFrame;
+import com.github.modelflat.nit3.jpeg.Frame;
+import com.github.modelflat.nit3.jpeg.JFIFWriter;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCache;
+import com.github.modelflat.nit3.stats.Quality;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/*
+Batch mode: codes every image in a directory, or matching a glob such as images/*.png, to JFIF with the
+image test's settings (q, --color, --fixedPoint, --restartInterval, --optimizeHuffman) into the output
+directory as <source name>.jpg (a.png as a.png.jpg), and prints one line per file plus a throughput summary.
+
+Files are handled concurrently by `ioThreads` platform threads (Java 8 has no virtual threads): a file's
+thread reads the source file's bytes, then waits while the shared compute pool of `computeThreads` workers
+decodes the image, converts its colours, runs the block work, entropy codes the JFIF and measures its
+quality, then writes the JFIF. CPU-bound work therefore never takes more than the compute pool's threads,
+however many files wait on I/O.
+
+A permit out of `maxInFlight` is taken before a file is submitted and given back when it is done, so the
+listing waits for the workers instead of loading the whole directory into memory. Results are printed by the
+calling thread only, in input order: finished files wait in line behind the first one still running.
+ */
+class BatchProcessor {
+
+    private final Settings settings;
+    private final HuffmanCache huffmanCache;
+    private final BlockCache blockCache;
+    private final String outputDirectory;
+    private final int ioThreads;
+    private final int maxInFlight;
+    private final ForkJoinPool computePool;
+
+    BatchProcessor(Settings settings, HuffmanCache huffmanCache, BlockCache blockCache, String outputDirectory) {
+        this.settings = settings;
+        this.huffmanCache = huffmanCache;
+        this.blockCache = blockCache;
+        this.outputDirectory = outputDirectory;
+        this.ioThreads = settings.getIOThreads();
+        this.maxInFlight = settings.getMaxInFlight() > 0 ? settings.getMaxInFlight() : 2 * ioThreads;
+        this.computePool = new ForkJoinPool(settings.getComputeThreads() > 0 ?
+                settings.getComputeThreads() : Runtime.getRuntime().availableProcessors());
+    }
+
+    /*
+    Files a directory holds that ImageIO can read, or the files matching a glob in its last path element;
+    sorted by name
+     */
+    static List<Path> list(String pattern) {
+        Path path = Paths.get(pattern);
+        List<Path> files = new ArrayList<>();
+        try {
+            if (Files.isDirectory(path)) {
+                List<String> suffixes = Arrays.asList(ImageIO.getReaderFileSuffixes());
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                    for (Path file : stream) {
+                        String name = file.getFileName().toString();
+                        String suffix = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+                        if (Files.isRegularFile(file) && suffixes.contains(suffix)) {
+                            files.add(file);
+                        }
+                    }
+                }
+            } else {
+                Path directory = path.getParent() == null ? Paths.get(".") : path.getParent();
+                PathMatcher matcher = directory.getFileSystem()
+                        .getPathMatcher("glob:" + path.getFileName().toString());
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                    for (Path file : stream) {
+                        if (Files.isRegularFile(file) && matcher.matches(file.getFileName())) {
+                            files.add(file);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    void run(List<Path> files, PrintStream out) {
+        ExecutorService io = Executors.newFixedThreadPool(ioThreads);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        Deque<Future<Result>> pending = new ArrayDeque<>();
+        Summary summary = new Summary();
+        long start = System.nanoTime();
+        try {
+            for (Path file : files) {
+                inFlight.acquireUninterruptibly();
+                pending.add(io.submit(() -> {
+                    try {
+                        return process(file);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+                while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+                    summary.add(print(pending.pollFirst(), out));
+                }
+            }
+            while (!pending.isEmpty()) {
+                summary.add(print(pending.pollFirst(), out));
+            }
+        } finally {
+            io.shutdown();
+            computePool.shutdown();
+        }
+        summary.print(out, System.nanoTime() - start);
+    }
+
+    private Result process(Path file) throws IOException {
+        long start = System.nanoTime();
+        byte[] bytes = Files.readAllBytes(file);
+        Coded coded;
+        try {
+            coded = CompletableFuture.supplyAsync(() -> code(file, bytes), computePool).join();
+        } catch (CompletionException e) {
+            // reported as is, as if code() ran on this thread; anything checked is wrapped
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        int size = coded.jfif.remaining();
+        // the whole source name, so that a.png and a.bmp do not both become a.jpg
+        JFIFWriter.save(coded.jfif, Paths.get(outputDirectory, file.getFileName() + ".jpg").toString());
+        return new Result(file, bytes.length, coded.width, coded.height, size, coded.psnr,
+                System.nanoTime() - start);
+    }
+
+    /*
+    Everything between reading and writing the file; runs in the compute pool
+     */
+    private Coded code(Path file, byte[] bytes) {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new ByteArrayInputStream(bytes));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (image == null) {
+            throw new RuntimeException("Unsupported image format: " + file);
+        }
+        int q = settings.getQ();
+        int restartInterval = settings.getRestartInterval();
+        Frame source;
+        Frame restored;
+        ByteBuffer jfif;
+        if (settings.isColor()) {
+            ColorFrame frame = ColorFrame.fromImage(image, settings.getSubsampling()).setPool(computePool)
+                    .setQ(q, settings.getChromaQ() < 0 ? q : settings.getChromaQ());
+            source = frame.getLuma().copy();
+            if (settings.isFixedPoint()) {
+                frame.compressFixed();
+            } else if (blockCache == null) {
+                frame.compress();
+            } else {
+                frame.compress(blockCache);
+            }
+            jfif = ByteBuffer.allocate(JFIFWriter.maxSize(frame));
+            if (huffmanCache == null) {
+                JFIFWriter.write(frame, jfif, restartInterval);
+            } else {
+                JFIFWriter.writeOptimized(frame, jfif, restartInterval, huffmanCache);
+            }
+            restored = (settings.isFixedPoint() ? frame.decompressFixed() : frame.decompress()).getLuma();
+        } else {
+            Frame frame = Frame.fromImage(image).setPool(computePool).setQ(q);
+            source = frame.copy();
+            if (settings.isFixedPoint()) {
+                frame.compressFixed();
+            } else if (blockCache == null) {
+                frame.compress();
+            } else {
+                frame.compress(blockCache);
+            }
+            jfif = ByteBuffer.allocate(JFIFWriter.maxSize(frame));
+            if (huffmanCache == null) {
+                JFIFWriter.write(frame, jfif, restartInterval);
+            } else {
+                JFIFWriter.writeOptimized(frame, jfif, restartInterval, huffmanCache);
+            }
+            restored = settings.isFixedPoint() ? frame.decompressFixed() : frame.decompress();
+        }
+        jfif.flip();
+        double psnr = Quality.psnr(source.toPixels(), restored.toPixels(), computePool);
+        return new Coded(jfif, image.getWidth(), image.getHeight(), psnr);
+    }
+
+    /*
+    Waits for the result; a failed file is reported and counted, the batch goes on
+     */
+    private static Result print(Future<Result> future, PrintStream out) {
+        try {
+            Result result = future.get();
+            out.printf("%s: %dx%d, %d -> %d байт (JFIF), PSNR (Y) %.2f дБ, %.1f мс\n", result.file.getFileName(),
+                    result.width, result.height, result.inputSize, result.outputSize, result.psnr,
+                    result.time / 1e6);
+            return result;
+        } catch (ExecutionException e) {
+            out.println("Ошибка: " + e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class Coded {
+        final ByteBuffer jfif;
+        final int width;
+        final int height;
+        final double psnr;
+
+        Coded(ByteBuffer jfif, int width, int height, double psnr) {
+            this.jfif = jfif;
+            this.width = width;
+            this.height = height;
+            this.psnr = psnr;
+        }
+    }
+
+    private static final class Result {
+        final Path file;
+        final long inputSize;
+        final int width;
+        final int height;
+        final int outputSize;
+        final double psnr;
+        final long time;
+
+        Result(Path file, long inputSize, int width, int height, int outputSize, double psnr, long time) {
+            this.file = file;
+            this.inputSize = inputSize;
+            this.width = width;
+            this.height = height;
+            this.outputSize = outputSize;
+            this.psnr = psnr;
+            this.time = time;
+        }
+    }
+
+    private static final class Summary {
+        int done;
+        int failed;
+        long pixels;
+        long inputBytes;
+        long outputBytes;
+        long busyTime;
+
+        void add(Result result) {
+            if (result == null) {
+                failed++;
+                return;
+            }
+            done++;
+            pixels += (long) result.width * result.height;
+            inputBytes += result.inputSize;
+            outputBytes += result.outputSize;
+            busyTime += result.time;
+        }
+
+        void print(PrintStream out, long elapsed) {
+            double seconds = elapsed / 1e9;
+            out.printf("Пакет: %d файлов (%d с ошибками) за %.2f с: %.1f файлов/с, %.1f Мпикс/с, " +
+                            "%d -> %d байт; среднее время файла %.1f мс\n",
+                    done + failed, failed, seconds, done / seconds, pixels / 1e6 / seconds,
+                    inputBytes, outputBytes, done == 0 ? 0 : busyTime / 1e6 / done);
+        }
+    }
+}
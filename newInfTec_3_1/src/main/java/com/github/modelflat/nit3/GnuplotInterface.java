@@ -2,6 +2,7 @@ package com.github.modelflat.nit3;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -37,6 +38,10 @@ public class GnuplotInterface {
         return this;
     }
 
+    public List<String> getWorkspaceCommands() {
+        return Collections.unmodifiableList(workspaceCommands);
+    }
+
     public void invoke() throws IOException {
 
         if (prevHash != workspaceCommands.hashCode()) {
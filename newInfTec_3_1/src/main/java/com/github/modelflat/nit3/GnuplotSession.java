@@ -0,0 +1,135 @@
+package com.github.modelflat.nit3;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+One long-lived gnuplot process fed through its stdin, as opposed to GnuplotInterface's process per invoke().
+The workspace is sent once, at start; plot data goes inline as datablocks (gnuplot 5+) instead of files.
+
+submit() only queues a script: a writer thread sends whatever has been queued in batches of up to MAX_BATCH
+scripts with one flush each, so the caller goes on while gnuplot plots. flush() waits until everything
+submitted so far has been written, close() until gnuplot has exited.
+ */
+public class GnuplotSession implements AutoCloseable {
+
+    private static final String BASE = "gnuplot";
+    private static final int MAX_BATCH = 16;
+    // compared by identity, so no script can be mistaken for it
+    private static final String END = new String("exit\n");
+
+    private final Process process;
+    private final Writer stdin;
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private long submitted;
+    private long written;
+    private volatile IOException failure;
+
+    public GnuplotSession(List<String> workspaceCommands, boolean interactive) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(BASE);
+        if (interactive) {
+            command.add("-p");
+        }
+        process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        writer = new Thread(this::writeLoop, "gnuplot-session");
+        writer.setDaemon(true);
+        writer.start();
+        submit(String.join("\n", workspaceCommands));
+    }
+
+    public GnuplotSession submit(String script) {
+        if (failure != null) {
+            throw new RuntimeException("Gnuplot session failed", failure);
+        }
+        synchronized (this) {
+            submitted++;
+        }
+        queue.add(script.endsWith("\n") ? script : script + "\n");
+        return this;
+    }
+
+    /*
+    Surface plot of a whitespace-separated matrix (rows on lines) into `output`
+     */
+    public GnuplotSession splotMatrix(String output, String matrix) {
+        return submit("$matrix << EOD\n" + matrix + (matrix.endsWith("\n") ? "" : "\n") + "EOD\n" +
+                "set style data pm3d\n" +
+                String.format("set output '%s'\n", output) +
+                "set pm3d\n" +
+                "splot $matrix matrix\n" +
+                "unset output");
+    }
+
+    public synchronized void flush() {
+        while (written < submitted && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        queue.add(END);
+        try {
+            writer.join();
+            int ret = process.waitFor();
+            if (ret != 0) {
+                throw new RuntimeException(String.format("Gnuplot error code: %d", ret));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        boolean end = false;
+        while (!end) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (String script : batch) {
+                    if (script == END) {
+                        end = true;
+                    }
+                    stdin.write(script);
+                }
+                stdin.flush();
+                if (end) {
+                    stdin.close();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                failure = e;
+                end = true;
+            }
+            synchronized (this) {
+                written += batch.size();
+                notifyAll();
+            }
+            batch.clear();
+        }
+    }
+}
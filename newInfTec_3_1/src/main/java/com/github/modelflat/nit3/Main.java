@@ -1,25 +1,72 @@
 package com.github.modelflat.nit3;
 
 import com.github.modelflat.nit3.jpeg.Block;
+import com.github.modelflat.nit3.jpeg.BlockCache;
+import com.github.modelflat.nit3.jpeg.ColorFrame;
+import com.github.modelflat.nit3.jpeg.Frame;
+import com.github.modelflat.nit3.jpeg.JFIFReader;
+import com.github.modelflat.nit3.jpeg.JFIFWriter;
+import com.github.modelflat.nit3.jpeg.Plane;
+import com.github.modelflat.nit3.jpeg.QuantizationSweep;
+import com.github.modelflat.nit3.jpeg.Subsampling;
+import com.github.modelflat.nit3.jpeg.dct.DCT;
+import com.github.modelflat.nit3.jpeg.entropy.ArithmeticCoder;
+import com.github.modelflat.nit3.jpeg.entropy.EntropyCoder;
+import com.github.modelflat.nit3.jpeg.entropy.EntropyCoderType;
+import com.github.modelflat.nit3.jpeg.entropy.HuffmanCoder;
 import com.github.modelflat.nit3.jpeg.huffman.Huffman;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCache;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCode;
+import com.github.modelflat.nit3.mpeg.MotionEstimator;
+import com.github.modelflat.nit3.mpeg.MotionField;
+import com.github.modelflat.nit3.mpeg.ResidualCoder;
+import com.github.modelflat.nit3.mpeg.SearchType;
+import com.github.modelflat.nit3.mpeg.StreamEncoder;
+import com.github.modelflat.nit3.mpeg.VideoReader;
+import com.github.modelflat.nit3.jpeg.io.BitWriter;
+import com.github.modelflat.nit3.kernels.Kernels;
+import com.github.modelflat.nit3.stats.GCMonitor;
+import com.github.modelflat.nit3.stats.Instrumentation;
+import com.github.modelflat.nit3.stats.LatencyHistogram;
+import com.github.modelflat.nit3.stats.Quality;
+import com.github.modelflat.nit3.stats.Stage;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 
+import java.awt.Rectangle;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Main {
 
     private static GnuplotInterface gnuplot = new GnuplotInterface()
             .addWorkspaceCommand("unset key");
 
+    // non-null in --gnuplotSession mode
+    private static GnuplotSession session;
+    private static final Map<String, ByteArrayOutputStream> plotData = new HashMap<>();
+    // non-null in --optimizeHuffman mode, shared by all JFIF files written
+    private static HuffmanCache huffmanCache;
+    // non-null in --blockCache mode, shared by all frames compressed
+    private static BlockCache blockCache;
+
     private static int[] qSet = {0, 2, 4, 6};
+    // upper bound of q for the rate/quality searches
+    private static final int MAX_SEARCH_Q = 64;
 
     private static final String BASE_OUTPUT_DIR = "./output/";
     private static final String GNUPLOT_OUTPUT_DIR = BASE_OUTPUT_DIR + "3D/";
     private static final String MATRIX_OUTPUT_DIR = BASE_OUTPUT_DIR + "gnu/";
     private static final String MPEG_TEST_IMAGES_OUTPUT_DIR = BASE_OUTPUT_DIR + "mpeg/";
     private static final String JPEG_TEST_IMAGES_OUTPUT_DIR = BASE_OUTPUT_DIR + "jpeg/";
+    private static final String BATCH_OUTPUT_DIR = BASE_OUTPUT_DIR + "batch/";
 
     public static void main(String[] args) {
 
@@ -34,6 +81,13 @@ public class Main {
             parser.printUsage(System.out);
             return;
         }
+        if (settings.getBatch() != null && settings.getVideoFile() != null) {
+            usageError(parser, "Параметры --batch и --video нельзя задавать вместе");
+        }
+        if (settings.getBatch() == null && settings.getVideoFile() == null
+                && (settings.getInputFile1() == null || settings.getInputFile2() == null)) {
+            usageError(parser, "Параметры -f1 и -f2 обязательны, если не задан --batch или --video");
+        }
 
         if (settings.getFilename() != null) {
             try {
@@ -50,8 +104,47 @@ public class Main {
             gnuplot.addWorkspaceCommand("set term png");
         }
 
-        Block block1 = readData(settings.getInputFile1(), settings.getQ());
-        Block block2 = readData(settings.getInputFile2(), settings.getQ());
+        if (settings.getStatsFile() != null) {
+            Instrumentation.setEnabled(true);
+        }
+        if (settings.hasOptimizedHuffman()) {
+            huffmanCache = new HuffmanCache(64);
+        }
+        if (settings.getBlockCacheMegabytes() > 0) {
+            blockCache = new BlockCache(settings.getBlockCacheMegabytes() * (1L << 20));
+        }
+
+        if (settings.getBatch() != null || settings.getVideoFile() != null) {
+            if (settings.getBatch() != null) {
+                System.out.println("====== JPEG (пакет) ======");
+                new BatchProcessor(settings, huffmanCache, blockCache, BATCH_OUTPUT_DIR)
+                        .run(BatchProcessor.list(settings.getBatch()), System.out);
+            } else {
+                System.out.println("====== MPEG (видео) ======");
+                videoTest(settings);
+            }
+            if (blockCache != null) {
+                printBlockCache();
+            }
+            if (settings.getStatsFile() != null) {
+                printStats();
+                Instrumentation.export(settings.getStatsFile());
+            }
+            return;
+        }
+
+        if (settings.hasGnuplotSession()) {
+            try {
+                session = new GnuplotSession(gnuplot.getWorkspaceCommands(), settings.isInteractive());
+            } catch (IOException e) {
+                // plots are then done one process at a time, as without the option
+                e.printStackTrace();
+            }
+        }
+
+        DCT dct = settings.getDCT() == null ? Kernels.get().getDCT() : settings.getDCT().verify().get();
+        Block block1 = readData(settings.getInputFile1(), settings.getQ()).setDCT(dct);
+        Block block2 = readData(settings.getInputFile2(), settings.getQ()).setDCT(dct);
 
         block1.saveImage(JPEG_TEST_IMAGES_OUTPUT_DIR + "source1");
         block2.saveImage(MPEG_TEST_IMAGES_OUTPUT_DIR + "source2");
@@ -71,7 +164,51 @@ public class Main {
             jpegTest(block1.copy());
         }
         System.out.println("====== MPEG ======");
-        mpegTest(block1.copy(), block2.copy());
+        mpegTest(block1.copy(), block2.copy(), settings.getSkipThreshold());
+
+        if (settings.getImageFile() != null) {
+            System.out.println("====== JPEG (изображение) ======");
+            Frame frame = Frame.read(settings.getImageFile()).setDCT(dct);
+            frameTest(frame, settings.isFixedPoint(), settings.getRestartInterval());
+            frameSweepTest(frame, settings.getTargetSize(), settings.getTargetPSNR());
+            if (settings.isColor()) {
+                System.out.println("====== JPEG (цветное изображение) ======");
+                colorFrameTest(ColorFrame.read(settings.getImageFile(), settings.getSubsampling()).setDCT(dct),
+                        settings.getChromaQ(), settings.isFixedPoint(), settings.getRestartInterval());
+            }
+            if (settings.getOffHeapMegapixels() > 0) {
+                System.out.println("====== JPEG (большое изображение) ======");
+                planeTest(frame, settings.getOffHeapMegapixels(), settings.getQ());
+            }
+            if (blockCache != null) {
+                System.out.println("====== JPEG (кэш блоков) ======");
+                blockCacheTest(frame);
+                printBlockCache();
+            }
+            if (huffmanCache != null) {
+                System.out.printf("Кэш таблиц Хаффмана: %d попаданий, %d промахов\n",
+                        huffmanCache.getHits(), huffmanCache.getMisses());
+            }
+            if (settings.getReferenceImageFile() != null) {
+                System.out.println("====== MPEG (изображение) ======");
+                frameMpegTest(Frame.read(settings.getImageFile()).setDCT(dct),
+                        Frame.read(settings.getReferenceImageFile()).setDCT(dct), settings.getSearchRange(),
+                        new ResidualCoder(settings.getSkipThreshold()));
+            }
+        }
+
+        if (settings.getStatsFile() != null) {
+            printStats();
+            Instrumentation.export(settings.getStatsFile());
+        }
+
+        if (session != null) {
+            try {
+                session.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     private static void jpegTest(Block block) {
@@ -122,15 +259,24 @@ public class Main {
         h.printSizes();
         System.out.printf("Сжатие (Huffman): %.3f%%\n",
                 compressionPercentage(block.computeHuffmanSize(h), 64));
+
+        ByteBuffer stream = ByteBuffer.allocate(64 * HuffmanCode.MAX_LENGTH / 8);
+        BitWriter writer = new BitWriter(stream);
+        block.writeHuffman(h.getCode(), writer);
+        writer.flush();
+        System.out.printf("Сжатие (Huffman, битовый поток): %.3f%%\n",
+                compressionPercentage(stream.position(), 64));
     }
 
-    private static void mpegTest(Block block1, Block block2) {
+    private static void mpegTest(Block block1, Block block2, float skipThreshold) {
 
         block2.saveImage(MPEG_TEST_IMAGES_OUTPUT_DIR + "mpeg_P");
 
         Block diff = block1.diff(block2);
         diff.print("Матрица яркости P-кадра")
                 .saveImage(MPEG_TEST_IMAGES_OUTPUT_DIR + "mpeg_diff");
+        System.out.printf("Пропуск блока P-кадра (средний модуль разности не более %.1f): %s\n", skipThreshold,
+                diff.isStatic(skipThreshold * 64) ? "да" : "нет");
 
         for (int q : qSet) {
             Block copyDiff = diff.copy().setQ(q);
@@ -138,6 +284,9 @@ public class Main {
             System.out.printf("Сжатие P-кадра при q = %d: %.3f%% (RLE), %.3f%% (Huffman)\n", q,
                     compressionPercentage(copyDiff.computeRLESize(), 64),
                     compressionPercentage(copyDiff.computeHuffmanSize(h), 64));
+            if (diff.copy().setQ(q).fdct().quantize().isZero()) {
+                System.out.printf("Разность при q = %d квантуется в нули: блок пропускается\n", q);
+            }
             Block restored = copyDiff.decompress().sum(block2);
             try (PrintStream e = open("mpeg_decoded" + q)) {
                 restored.print(e);
@@ -147,6 +296,465 @@ public class Main {
         }
     }
 
+    private static void frameTest(Frame frame, boolean fixedPoint, int restartInterval) {
+        frame.saveImage(JPEG_TEST_IMAGES_OUTPUT_DIR + "frame_source");
+        int sourceSize = frame.getWidth() * frame.getHeight();
+        ByteBuffer jfif = ByteBuffer.allocateDirect(JFIFWriter.maxSize(frame));
+        for (int q : qSet) {
+            Frame copy = frame.copy().setQ(q);
+            long start = System.nanoTime();
+            if (fixedPoint) {
+                copy.compressFixed();
+            } else {
+                copy.compress();
+            }
+            long compressed = System.nanoTime();
+            System.out.printf("Сжатие изображения %dx%d при q = %d: %.3f%% (RLE), %.3f%% (Huffman), " +
+                            "%.3f%% (Huffman, одна таблица)\n",
+                    frame.getWidth(), frame.getHeight(), q,
+                    compressionPercentage(copy.computeRLESize(), sourceSize),
+                    compressionPercentage(copy.computeHuffmanSize(), sourceSize),
+                    compressionPercentage(copy.computeHuffmanSize(copy.buildHuffmanCode()), sourceSize));
+            entropyTest(copy, sourceSize);
+            jfif.clear();
+            long encodeStart = System.nanoTime();
+            writeJFIF(copy, jfif, restartInterval).flip();
+            long encoded = System.nanoTime();
+            String jpegName = JPEG_TEST_IMAGES_OUTPUT_DIR + "frame" + q + ".jpg";
+            JFIFWriter.save(jfif, jpegName);
+            long decodeStart = System.nanoTime();
+            JFIFReader.read(jpegName).getFrame();
+            long decoded = System.nanoTime();
+            printJFIF(jfif.limit(), sourceSize, encoded - encodeStart, decoded - decodeStart);
+            if (restartInterval > 0) {
+                regionTest(jpegName, frame.getWidth(), frame.getHeight());
+            }
+            if (!fixedPoint) {
+                scaledDecodeTest(copy, "frame_scaled" + q + "_");
+            }
+            long restoreStart = System.nanoTime();
+            if (fixedPoint) {
+                copy.decompressFixed();
+            } else {
+                copy.decompress();
+            }
+            long restored = System.nanoTime();
+            System.out.printf("Время сжатия: %.1f мс, восстановления: %.1f мс (%d блоков)\n",
+                    (compressed - start) / 1e6, (restored - restoreStart) / 1e6, frame.getBlockCount());
+            printQuality("frame" + q, frame, copy);
+            copy.saveImage(JPEG_TEST_IMAGES_OUTPUT_DIR + "frame_restored" + q);
+        }
+    }
+
+    /*
+    Thumbnails at 1/8, 1/4 and 1/2 decoded straight from the coefficients, against a full decode averaged down
+    to the same size: time, and PSNR between the two
+     */
+    private static void scaledDecodeTest(Frame compressed, String name) {
+        for (int size = 1; size <= 4; size *= 2) {
+            long start = System.nanoTime();
+            float[][] scaled = compressed.decompressScaled(size);
+            long time = System.nanoTime() - start;
+            Frame full = compressed.copy();
+            start = System.nanoTime();
+            float[][] reference = downscale(full.decompress().toPixels(), 8 / size);
+            long fullTime = System.nanoTime() - start;
+            System.out.printf("Уменьшение 1/%d (%dx%d): %.2f мс, полное восстановление с усреднением %.2f мс, " +
+                            "PSNR %.2f дБ\n", 8 / size, scaled[0].length, scaled.length, time / 1e6, fullTime / 1e6,
+                    Quality.psnr(reference, scaled, compressed.getPool()));
+            new Frame(scaled).saveImage(JPEG_TEST_IMAGES_OUTPUT_DIR + name + (8 / size));
+        }
+    }
+
+    /*
+    Means of `factor` x `factor` squares, the last row and column of them clipped to the image
+     */
+    private static float[][] downscale(float[][] pixels, int factor) {
+        int height = (pixels.length + factor - 1) / factor;
+        int width = (pixels[0].length + factor - 1) / factor;
+        float[][] result = new float[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float sum = 0;
+                int count = 0;
+                for (int i = y * factor; i < Math.min(pixels.length, (y + 1) * factor); i++) {
+                    for (int j = x * factor; j < Math.min(pixels[i].length, (x + 1) * factor); j++) {
+                        sum += pixels[i][j];
+                        count++;
+                    }
+                }
+                result[y][x] = sum / count;
+            }
+        }
+        return result;
+    }
+
+    private static void colorFrameTest(ColorFrame frame, int chromaQ, boolean fixedPoint, int restartInterval) {
+        frame.saveImage(JPEG_TEST_IMAGES_OUTPUT_DIR + "color_source");
+        int sourceSize = 3 * frame.getWidth() * frame.getHeight();
+        ByteBuffer jfif = ByteBuffer.allocateDirect(JFIFWriter.maxSize(frame));
+        Subsampling subsampling = frame.getSubsampling();
+        System.out.printf("Прореживание %s: %d отсчётов на входе ДКП (%.2f на пиксель, RGB: 3)\n", subsampling,
+                frame.getSampleCount(), frame.getSampleCount() / (float) (frame.getWidth() * frame.getHeight()));
+        for (int q : qSet) {
+            ColorFrame copy = frame.copy().setQ(q, chromaQ < 0 ? q : chromaQ);
+            long start = System.nanoTime();
+            if (fixedPoint) {
+                copy.compressFixed();
+            } else {
+                copy.compress();
+            }
+            long compressed = System.nanoTime();
+            System.out.printf("Сжатие цветного изображения %dx%d при q = %d: %.3f%% (RLE), %.3f%% (Huffman)\n",
+                    frame.getWidth(), frame.getHeight(), q,
+                    compressionPercentage(copy.computeRLESize(), sourceSize),
+                    compressionPercentage(copy.computeHuffmanSize(), sourceSize));
+            jfif.clear();
+            long encodeStart = System.nanoTime();
+            writeJFIF(copy, jfif, restartInterval).flip();
+            long encoded = System.nanoTime();
+            String jpegName = JPEG_TEST_IMAGES_OUTPUT_DIR + "color" + q + ".jpg";
+            JFIFWriter.save(jfif, jpegName);
+            long decodeStart = System.nanoTime();
+            JFIFReader.read(jpegName).getColorFrame();
+            long decoded = System.nanoTime();
+            printJFIF(jfif.limit(), sourceSize, encoded - encodeStart, decoded - decodeStart);
+            if (restartInterval > 0) {
+                regionTest(jpegName, frame.getWidth(), frame.getHeight());
+            }
+            long restoreStart = System.nanoTime();
+            if (fixedPoint) {
+                copy.decompressFixed();
+            } else {
+                copy.decompress();
+            }
+            long restored = System.nanoTime();
+            copy.toImage();
+            long converted = System.nanoTime();
+            System.out.printf("Время сжатия: %.1f мс, восстановления: %.1f мс, перевода в RGB: %.1f мс\n",
+                    (compressed - start) / 1e6, (restored - restoreStart) / 1e6, (converted - restored) / 1e6);
+            printQuality("color" + q + " (Y)", frame.getLuma(), copy.getLuma());
+            copy.saveImage(JPEG_TEST_IMAGES_OUTPUT_DIR + "color_restored" + q);
+        }
+    }
+
+    /*
+    Bytes and time per run-length symbol of every entropy coder over the blocks of a compressed frame, decoded
+    into a copy of it (Huffman with one code fitted to the frame, not counted in the size)
+     */
+    private static void entropyTest(Frame frame, int sourceSize) {
+        int blocksX = frame.getBlocksX();
+        int blocks = frame.getBlockCount();
+        long symbols = 0;
+        for (int i = 0; i < blocks; i++) {
+            symbols += frame.getBlock(i % blocksX, i / blocksX).encodeRLE();
+        }
+        Frame decoded = frame.copy();
+        for (EntropyCoderType type : EntropyCoderType.values()) {
+            EntropyCoder coder = type == EntropyCoderType.HUFFMAN ? new HuffmanCoder(frame.buildHuffmanCode()) :
+                    new ArithmeticCoder();
+            ByteBuffer buffer = ByteBuffer.allocate(coder.maxSize(blocks));
+            long start = System.nanoTime();
+            EntropyCoder.Encoder encoder = coder.newEncoder(buffer);
+            for (int i = 0; i < blocks; i++) {
+                encoder.encode(frame.getBlock(i % blocksX, i / blocksX));
+            }
+            encoder.flush().flip();
+            long encoded = System.nanoTime();
+            EntropyCoder.Decoder decoder = coder.newDecoder(buffer);
+            for (int i = 0; i < blocks; i++) {
+                decoder.decode(decoded.getBlock(i % blocksX, i / blocksX));
+            }
+            long end = System.nanoTime();
+            System.out.printf("%s: %d байт (%.3f%%), кодирование %.1f нс/символ, декодирование %.1f нс/символ\n",
+                    type, buffer.limit(), compressionPercentage(buffer.limit(), sourceSize),
+                    (encoded - start) / (double) symbols, (end - encoded) / (double) symbols);
+        }
+    }
+
+    /*
+    The image tiled to about `megapixels` MP and coded block by block (compress, Huffman size, decompress) off
+    the heap as a Plane (mapped from a temporary file when larger than the heap could hold), then on it as a
+    Frame, with the garbage collections each one caused (in this order, so that the Plane's numbers are not
+    those of collecting the Frame)
+     */
+    private static void planeTest(Frame frame, int megapixels, int q) {
+        float[][] tile = frame.toPixels();
+        int tiles = (int) Math.ceil(Math.sqrt(megapixels * 1e6 / ((double) frame.getWidth() * frame.getHeight())));
+        int width = frame.getWidth() * tiles;
+        int height = frame.getHeight() * tiles;
+        float[] row = new float[width];
+        Path file = null;
+        try (GCMonitor gc = new GCMonitor()) {
+            long start = System.nanoTime();
+            long bytes = (long) (width + 7) / 8 * ((height + 7) / 8) * 64 * Float.BYTES;
+            if (bytes > Runtime.getRuntime().maxMemory()) {
+                file = Files.createTempFile("plane", ".f32");
+            }
+            try (Plane plane = file == null ? Plane.allocate(width, height) : Plane.map(file, width, height)) {
+                for (int y = 0; y < height; y++) {
+                    plane.setRow(y, tiledRow(tile, y, row));
+                }
+                long size = plane.setQ(q).sum(block -> {
+                    int blockSize = block.compress().computeHuffmanSize();
+                    block.decompress();
+                    return blockSize;
+                });
+                printPlane(file == null ? "Вне кучи" : "Вне кучи (файл)", width, height, size,
+                        System.nanoTime() - start, gc);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (file != null) {
+                file.toFile().delete();
+            }
+        }
+        try (GCMonitor gc = new GCMonitor()) {
+            long start = System.nanoTime();
+            float[][] pixels = new float[height][];
+            for (int y = 0; y < height; y++) {
+                pixels[y] = tiledRow(tile, y, new float[width]);
+            }
+            Frame large = new Frame(pixels, q);
+            // only the blocks are needed from here on
+            pixels = null;
+            LongAdder size = new LongAdder();
+            large.forEach(block -> {
+                size.add(block.compress().computeHuffmanSize());
+                block.decompress();
+            });
+            printPlane("Куча", width, height, size.sum(), System.nanoTime() - start, gc);
+        } catch (OutOfMemoryError e) {
+            System.out.printf("Куча: %dx%d не помещается в память\n", width, height);
+        }
+    }
+
+    /*
+    Compression and Huffman size of every block, without the cache and then through it twice: the first pass
+    hits on blocks repeated within the frame, the second one on all of them (unless evicted). Sizes must match.
+     */
+    private static void blockCacheTest(Frame frame) {
+        for (int q : qSet) {
+            Frame copy = frame.copy().setQ(q);
+            long start = System.nanoTime();
+            int size = copy.compress().computeHuffmanSize();
+            long time = System.nanoTime() - start;
+            System.out.printf("q = %d: без кэша %.1f мс, %d байт (Huffman)", q, time / 1e6, size);
+            for (int pass = 0; pass < 2; pass++) {
+                copy = frame.copy().setQ(q);
+                long hits = blockCache.getHits();
+                long lookups = hits + blockCache.getMisses();
+                start = System.nanoTime();
+                int cachedSize = copy.compressAndSize(blockCache);
+                time = System.nanoTime() - start;
+                if (cachedSize != size) {
+                    throw new RuntimeException("Block cache changed the size: " + cachedSize + " != " + size);
+                }
+                hits = blockCache.getHits() - hits;
+                lookups = blockCache.getHits() + blockCache.getMisses() - lookups;
+                System.out.printf(", %s проход %.1f мс (%.1f%% попаданий)", pass == 0 ? "первый" : "второй",
+                        time / 1e6, hits * 100.0 / lookups);
+            }
+            System.out.println();
+        }
+    }
+
+    private static void printBlockCache() {
+        System.out.printf("Кэш блоков: %.1f%% попаданий (%d из %d), %d блоков, %d КБ, вытеснено %d\n",
+                blockCache.getHitRate() * 100, blockCache.getHits(), blockCache.getHits() + blockCache.getMisses(),
+                blockCache.getSize(), blockCache.getBytes() >> 10, blockCache.getEvictions());
+    }
+
+    private static float[] tiledRow(float[][] tile, int y, float[] row) {
+        float[] source = tile[y % tile.length];
+        for (int x = 0; x < row.length; x += source.length) {
+            System.arraycopy(source, 0, row, x, Math.min(source.length, row.length - x));
+        }
+        return row;
+    }
+
+    private static void printPlane(String label, int width, int height, long size, long time, GCMonitor gc) {
+        System.out.printf("%s: %dx%d (%.0f Мпикс), %d байт (Huffman), %.1f с, сборок мусора: %d, " +
+                        "паузы %d мс (макс. %d мс), куча после сборки до %d МБ\n",
+                label, width, height, (double) width * height / 1e6, size, time / 1e9, gc.getCount(),
+                gc.getTotalTime(), gc.getMaxTime(), gc.getMaxHeapAfter() >> 20);
+    }
+
+    /*
+    Speeds are in MB of source samples per second, entropy coding and file format only
+     */
+    private static void printJFIF(int size, int sourceSize, long encodeTime, long decodeTime) {
+        System.out.printf("JFIF: %d байт (%.3f%%), запись %.1f МБ/с, чтение %.1f МБ/с\n", size,
+                compressionPercentage(size, sourceSize),
+                sourceSize / (encodeTime / 1e3), sourceSize / (decodeTime / 1e3));
+    }
+
+    /*
+    Quality of the restored frame against the source, also recorded for --stats
+     */
+    private static void printQuality(String label, Frame source, Frame restored) {
+        float[][] reference = source.toPixels();
+        float[][] pixels = restored.toPixels();
+        double psnr = Quality.psnr(reference, pixels, source.getPool());
+        double ssim = Quality.ssim(reference, pixels, source.getPool());
+        Instrumentation.recordQuality(label, psnr, ssim);
+        System.out.printf("PSNR: %.2f дБ, SSIM: %.4f\n", psnr, ssim);
+    }
+
+    private static void printStats() {
+        System.out.println("====== Статистика ======");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = Instrumentation.getHistogram(stage);
+            if (histogram.getCount() > 0) {
+                System.out.printf("%s: %d раз, среднее %.0f нс, p50 %d нс, p99 %d нс, макс. %d нс, %.0f в секунду\n",
+                        stage, histogram.getCount(), histogram.getMean(), histogram.getValueAtPercentile(50),
+                        histogram.getValueAtPercentile(99), histogram.getMax(),
+                        histogram.getCount() * 1e9 / histogram.getTotal());
+            }
+        }
+        System.out.printf("Записано JFIF: %d байт, выделено памяти: %d байт\n",
+                Instrumentation.getBytesOut(), Instrumentation.getAllocatedBytes());
+    }
+
+    private static ByteBuffer writeJFIF(Frame frame, ByteBuffer buffer, int restartInterval) {
+        return huffmanCache == null ? JFIFWriter.write(frame, buffer, restartInterval) :
+                JFIFWriter.writeOptimized(frame, buffer, restartInterval, huffmanCache);
+    }
+
+    private static ByteBuffer writeJFIF(ColorFrame frame, ByteBuffer buffer, int restartInterval) {
+        return huffmanCache == null ? JFIFWriter.write(frame, buffer, restartInterval) :
+                JFIFWriter.writeOptimized(frame, buffer, restartInterval, huffmanCache);
+    }
+
+    /*
+    Decodes the central quarter of the image, which restart intervals let the reader do without the rest
+     */
+    private static void regionTest(String jpegName, int width, int height) {
+        long start = System.nanoTime();
+        JFIFReader reader = JFIFReader.read(jpegName, new Rectangle(width / 4, height / 4, width / 2, height / 2));
+        long decoded = System.nanoTime();
+        System.out.printf("Чтение области %dx%d+%d+%d: %.1f мс\n", reader.getRegionWidth(), reader.getRegionHeight(),
+                reader.getRegionX(), reader.getRegionY(), (decoded - start) / 1e6);
+    }
+
+    private static void frameSweepTest(Frame frame, int targetSize, double targetPSNR) {
+        int sourceSize = frame.getWidth() * frame.getHeight();
+        long start = System.nanoTime();
+        QuantizationSweep sweep = new QuantizationSweep(frame);
+        long transformed = System.nanoTime();
+        QuantizationSweep.Result[] results = sweep.evaluate(qSet);
+        long evaluated = System.nanoTime();
+        for (QuantizationSweep.Result result : results) {
+            System.out.printf("Перебор q: q = %d: %.3f%% (Huffman), PSNR %.2f дБ\n", result.getQ(),
+                    compressionPercentage(result.getSize(), sourceSize), result.getPSNR());
+        }
+        System.out.printf("Время перебора: ДКП %.1f мс, %d значений q: %.1f мс\n",
+                (transformed - start) / 1e6, qSet.length, (evaluated - transformed) / 1e6);
+        if (targetSize > 0) {
+            QuantizationSweep.Result result = sweep.searchSize(targetSize, MAX_SEARCH_Q);
+            System.out.printf("Наименьшее q с размером не более %d байт: q = %d, %d байт, PSNR %.2f дБ\n",
+                    targetSize, result.getQ(), result.getSize(), result.getPSNR());
+        }
+        if (targetPSNR > 0) {
+            QuantizationSweep.Result result = sweep.searchPSNR(targetPSNR, MAX_SEARCH_Q);
+            System.out.printf("Наибольшее q с PSNR не менее %.2f дБ: q = %d, %d байт, PSNR %.2f дБ\n",
+                    targetPSNR, result.getQ(), result.getSize(), result.getPSNR());
+        }
+    }
+
+    private static void frameMpegTest(Frame current, Frame reference, int range, ResidualCoder coder) {
+        int sourceSize = current.getWidth() * current.getHeight();
+        MotionField zero = MotionField.zero(current);
+        int[] zeroSizes = new int[qSet.length];
+        for (int i = 0; i < qSet.length; i++) {
+            zeroSizes[i] = zero.residual(current, reference, qSet[i]).compress().computeHuffmanSize();
+            System.out.printf("Сжатие P-кадра при q = %d без компенсации движения: %.3f%% (Huffman)\n", qSet[i],
+                    compressionPercentage(zeroSizes[i], sourceSize));
+        }
+        skipTest("без компенсации движения", zero, current, reference, coder);
+        for (SearchType type : SearchType.values()) {
+            MotionEstimator estimator = new MotionEstimator(type, range);
+            long start = System.nanoTime();
+            MotionField field = estimator.estimate(current, reference);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("Поиск движения (%s, ±%d): %.0f векторов/с\n",
+                    type, range, field.getVectorCount() / (elapsed / 1e9));
+            for (int i = 0; i < qSet.length; i++) {
+                int size = field.residual(current, reference, qSet[i]).compress().computeHuffmanSize() +
+                        field.computeSize();
+                System.out.printf("Сжатие P-кадра при q = %d: %.3f%% (Huffman + векторы), %.3f от размера без компенсации\n",
+                        qSet[i], compressionPercentage(size, sourceSize), (float) size / zeroSizes[i]);
+            }
+            skipTest(type.toString(), field, current, reference, coder);
+        }
+    }
+
+    /*
+    P-frame residual coded with and without skipped blocks: the plain path transforms, quantizes and Huffman codes
+    every block
+     */
+    private static void skipTest(String label, MotionField field, Frame current, Frame reference,
+                                 ResidualCoder coder) {
+        float[][] source = current.toPixels();
+        for (int q : qSet) {
+            Frame plain = field.residual(current, reference, q);
+            long start = System.nanoTime();
+            int plainSize = plain.forEach(block -> block.fdct().quantize()).computeHuffmanSize();
+            long plainTime = System.nanoTime() - start;
+            Frame residual = field.residual(current, reference, q);
+            start = System.nanoTime();
+            ResidualCoder.Result result = coder.code(residual);
+            long time = System.nanoTime() - start;
+            Frame restored = ResidualCoder.reconstruct(residual, result, field.predict(reference));
+            System.out.printf("Пропуск блоков P-кадра (%s) при q = %d: %.1f%% блоков (%d до преобразования, " +
+                            "%d после квантования), %d байт против %d, %.2f мс против %.2f мс (в %.1f раза), " +
+                            "PSNR %.2f дБ\n",
+                    label, q, result.getSkipRatio() * 100, result.getStaticCount(), result.getZeroCount(),
+                    result.getSize(), plainSize, time / 1e6, plainTime / 1e6, (double) plainTime / time,
+                    Quality.psnr(source, restored.toPixels(), current.getPool()));
+        }
+    }
+
+    private static void videoTest(Settings settings) {
+        int width = 0;
+        int height = 0;
+        if (settings.getVideoSize() != null) {
+            String[] size = settings.getVideoSize().split("x");
+            width = Integer.parseInt(size[0]);
+            height = Integer.parseInt(size[1]);
+        }
+        String name = new File(settings.getVideoFile()).getName();
+        String outputName = MPEG_TEST_IMAGES_OUTPUT_DIR + name.substring(0, Math.max(0, name.lastIndexOf('.'))) +
+                ".nit3v";
+        StreamEncoder encoder = new StreamEncoder(settings.getQ(), settings.getGOP(), settings.getBFrames(),
+                new MotionEstimator(settings.getSearchType(), settings.getSearchRange()),
+                new ResidualCoder(settings.getSkipThreshold(), settings.getEntropyCoder()),
+                settings.getQueueCapacity()).setBlockCache(blockCache);
+        StreamEncoder.Summary summary;
+        try (VideoReader reader = VideoReader.open(Paths.get(settings.getVideoFile()), width, height);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(outputName))) {
+            width = reader.getWidth();
+            height = reader.getHeight();
+            summary = encoder.encode(reader, out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        double seconds = summary.getElapsed() / 1e9;
+        System.out.printf("Видео %dx%d: %d кадров (%d I, %d B), %d байт (%.3f бит/пиксель), " +
+                        "PSNR %.2f дБ, %.2f с, %.1f кадров/с\n",
+                width, height, summary.getFrames(), summary.getIntraFrames(), summary.getBidirectionalFrames(),
+                summary.getBytes(),
+                summary.getBytes() * 8.0 / ((double) width * height * Math.max(1, summary.getFrames())),
+                summary.getMeanPSNR(), seconds, summary.getFrames() / seconds);
+        for (int stage = 0; stage < StreamEncoder.Summary.getStageCount(); stage++) {
+            System.out.printf("Стадия %s: %.2f мс/кадр, занята %.0f%% времени\n",
+                    StreamEncoder.Summary.getStageName(stage),
+                    summary.getBusyTime(stage) / 1e6 / Math.max(1, summary.getFrames()),
+                    summary.getBusyTime(stage) * 100.0 / summary.getElapsed());
+        }
+    }
+
     private static float compressionPercentage(float compressedSize, float sourceSize) {
         return (1 - compressedSize / sourceSize) * 100;
     }
@@ -170,6 +778,10 @@ public class Main {
     }
 
     private static void splot(String source) {
+        if (session != null) {
+            session.splotMatrix(GNUPLOT_OUTPUT_DIR + source + ".png", plotData.remove(source).toString());
+            return;
+        }
         try {
             gnuplot.addCommand("set style data pm3d")
                     .addCommand(String.format("set output '%s.png'", GNUPLOT_OUTPUT_DIR + source))
@@ -181,7 +793,15 @@ public class Main {
         }
     }
 
+    /*
+    With a gnuplot session the matrix is kept in memory until splot() sends it inline
+     */
     private static PrintStream open(String filename) {
+        if (session != null) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            plotData.put(filename, data);
+            return new PrintStream(data);
+        }
         try {
             return new PrintStream(MATRIX_OUTPUT_DIR + filename);
         } catch (FileNotFoundException e) {
@@ -189,13 +809,23 @@ public class Main {
         }
     }
 
+    /*
+    Reports a bad combination of options and exits with status 1
+     */
+    private static void usageError(CmdLineParser parser, String message) {
+        System.err.println(message);
+        parser.printUsage(System.err);
+        System.exit(1);
+    }
+
     private static void mkdirs() {
         for (String dir : new String[] {
                 BASE_OUTPUT_DIR,
                 GNUPLOT_OUTPUT_DIR,
                 MATRIX_OUTPUT_DIR,
                 MPEG_TEST_IMAGES_OUTPUT_DIR,
-                JPEG_TEST_IMAGES_OUTPUT_DIR
+                JPEG_TEST_IMAGES_OUTPUT_DIR,
+                BATCH_OUTPUT_DIR
         }) {
             new File(dir).mkdir();
         }
@@ -1,21 +1,82 @@
 package com.github.modelflat.nit3;
 
+import com.github.modelflat.nit3.jpeg.Subsampling;
+import com.github.modelflat.nit3.jpeg.dct.DCTType;
+import com.github.modelflat.nit3.jpeg.entropy.EntropyCoderType;
+import com.github.modelflat.nit3.mpeg.SearchType;
 import org.kohsuke.args4j.Option;
 
 class Settings {
 
     @Option(name = "--interactive", aliases = {"-i"}, usage = "enables interactive mode")
     private boolean interactive;
-    @Option(name = "-f1", required = true)
+    // required unless --batch or --video is given
+    @Option(name = "-f1")
     private String inputFileName;
-    @Option(name = "-f2", required = true)
+    @Option(name = "-f2")
     private String inputFileName2;
     @Option(name = "-q")
     private int q;
     @Option(name = "--autoQ")
     private  boolean autoJPEGQ;
+    @Option(name = "--gnuplotSession", usage = "plots through one gnuplot process, asynchronously, with inline data")
+    private boolean gnuplotSession;
     @Option(name = "--redirectOutput", aliases = {"-o"})
     private String filename;
+    @Option(name = "--dct", usage = "DCT engine: REFERENCE, SEPARABLE or AAN (default: the one of the selected kernels)")
+    private DCTType dct;
+    @Option(name = "--fixedPoint", usage = "for --image: compresses with the integer (bit-exact) DCT and quantizer")
+    private boolean fixedPoint;
+    @Option(name = "--image", usage = "additionally runs the block codec over a whole grayscale image")
+    private String imageFileName;
+    @Option(name = "--color", usage = "for --image: also codes the image in colour, as YCbCr planes")
+    private boolean color;
+    @Option(name = "--subsampling", usage = "chroma subsampling for --color: CHROMA_444, CHROMA_422 or CHROMA_420")
+    private Subsampling subsampling = Subsampling.CHROMA_420;
+    @Option(name = "--chromaQ", usage = "q of the chroma quantization table for --color (default: the luma q)")
+    private int chromaQ = -1;
+    @Option(name = "--restartInterval", usage = "for --image: JFIF restart interval in MCUs (0: none)")
+    private int restartInterval;
+    @Option(name = "--optimizeHuffman", usage = "for --image: JFIF with Huffman tables fitted to the image (two passes)")
+    private boolean optimizeHuffman;
+    @Option(name = "--stats", usage = "collects stage timings and counters, exports them to this .json or .csv file")
+    private String statsFileName;
+    @Option(name = "--batch", usage = "codes every image in this directory or matching this glob, like --image")
+    private String batch;
+    @Option(name = "--ioThreads", usage = "for --batch: files handled at a time")
+    private int ioThreads = 4;
+    @Option(name = "--maxInFlight", usage = "for --batch: files submitted ahead of results (default: 2 * ioThreads)")
+    private int maxInFlight;
+    @Option(name = "--computeThreads", usage = "for --batch: block workers (default: number of processors)")
+    private int computeThreads;
+    @Option(name = "--offHeap", usage = "for --image: codes it tiled to this many megapixels, on and off the heap")
+    private int offHeapMegapixels;
+    @Option(name = "--blockCache", usage = "reuses compressed blocks with equal samples from a cache of this many MB")
+    private int blockCacheMegabytes;
+    @Option(name = "--image2", usage = "reference frame for --image: runs motion-compensated P-frame coding")
+    private String referenceImageFileName;
+    @Option(name = "--searchRange", usage = "motion search range in pixels")
+    private int searchRange = 16;
+    @Option(name = "--skipThreshold", usage = "P-frame blocks with a mean absolute residual up to this are skipped")
+    private float skipThreshold = 1;
+    @Option(name = "--video", usage = "encodes this .y4m or raw 4:2:0 .yuv clip as I- and P-frames, streaming")
+    private String videoFileName;
+    @Option(name = "--videoSize", usage = "for --video: frame size of a raw clip, as WIDTHxHEIGHT")
+    private String videoSize;
+    @Option(name = "--gop", usage = "for --video: an I-frame every this many frames")
+    private int gop = 12;
+    @Option(name = "--bFrames", usage = "for --video: B-frames between two anchor (I or P) frames")
+    private int bFrames;
+    @Option(name = "--entropyCoder", usage = "for --video: entropy coder of residuals, HUFFMAN or ARITHMETIC")
+    private EntropyCoderType entropyCoder = EntropyCoderType.HUFFMAN;
+    @Option(name = "--searchType", usage = "for --video: motion search, FULL, DIAMOND or HIERARCHICAL")
+    private SearchType searchType = SearchType.DIAMOND;
+    @Option(name = "--queueCapacity", usage = "for --video: frames each pipeline stage may hold ready for the next")
+    private int queueCapacity = 2;
+    @Option(name = "--targetSize", usage = "for --image: searches for the best q whose output fits into this many bytes")
+    private int targetSize;
+    @Option(name = "--targetPSNR", usage = "for --image: searches for the smallest output with at least this PSNR (dB)")
+    private double targetPSNR;
 
     boolean isInteractive() {
         return interactive;
@@ -37,7 +98,128 @@ class Settings {
         return autoJPEGQ;
     }
 
+    boolean hasGnuplotSession() {
+        return gnuplotSession;
+    }
+
     String getFilename() {
         return filename;
     }
+
+    // null unless set explicitly
+    DCTType getDCT() {
+        return dct;
+    }
+
+    boolean isFixedPoint() {
+        return fixedPoint;
+    }
+
+    String getImageFile() {
+        return imageFileName;
+    }
+
+    boolean isColor() {
+        return color;
+    }
+
+    Subsampling getSubsampling() {
+        return subsampling;
+    }
+
+    // negative unless set explicitly
+    int getChromaQ() {
+        return chromaQ;
+    }
+
+    int getRestartInterval() {
+        return restartInterval;
+    }
+
+    boolean hasOptimizedHuffman() {
+        return optimizeHuffman;
+    }
+
+    // null unless set
+    String getStatsFile() {
+        return statsFileName;
+    }
+
+    // null unless set
+    String getBatch() {
+        return batch;
+    }
+
+    int getIOThreads() {
+        return ioThreads;
+    }
+
+    // 0 unless set
+    int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    // 0 unless set
+    int getComputeThreads() {
+        return computeThreads;
+    }
+
+    // 0 unless set
+    int getOffHeapMegapixels() {
+        return offHeapMegapixels;
+    }
+
+    int getBlockCacheMegabytes() {
+        return blockCacheMegabytes;
+    }
+
+    String getReferenceImageFile() {
+        return referenceImageFileName;
+    }
+
+    int getSearchRange() {
+        return searchRange;
+    }
+
+    float getSkipThreshold() {
+        return skipThreshold;
+    }
+
+    // null unless set
+    String getVideoFile() {
+        return videoFileName;
+    }
+
+    // null unless set
+    String getVideoSize() {
+        return videoSize;
+    }
+
+    int getGOP() {
+        return gop;
+    }
+
+    int getBFrames() {
+        return bFrames;
+    }
+
+    EntropyCoderType getEntropyCoder() {
+        return entropyCoder;
+    }
+
+    SearchType getSearchType() {
+        return searchType;
+    }
+
+    int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    int getTargetSize() {
+        return targetSize;
+    }
+
+    double getTargetPSNR() {
+        return targetPSNR;
+    }
 }
@@ -1,6 +1,17 @@
 package com.github.modelflat.nit3.jpeg;
 
+import com.github.modelflat.nit3.jpeg.dct.DCT;
+import com.github.modelflat.nit3.jpeg.dct.IntegerDCT;
+import com.github.modelflat.nit3.jpeg.dct.ScaledIDCT;
 import com.github.modelflat.nit3.jpeg.huffman.Huffman;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanBuilder;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCode;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanDecoder;
+import com.github.modelflat.nit3.jpeg.io.BitReader;
+import com.github.modelflat.nit3.jpeg.io.BitWriter;
+import com.github.modelflat.nit3.kernels.Kernels;
+import com.github.modelflat.nit3.stats.Instrumentation;
+import com.github.modelflat.nit3.stats.Stage;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
@@ -10,17 +21,29 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.function.BiFunction;
 
 public class Block {
 
-    private float[][] core = new float[8][8];
-    private float[][] quantizationMatrix;
-    private int q;
+    private static final Kernels KERNELS = Kernels.get();
 
-    private static final double cInner = Math.PI / 16;
+    /*
+    Row-major 8x8 samples/coefficients: core[i * 8 + j] is row i, column j. `scratch` is the second buffer
+    the transforms write into, so that no stage allocates.
+     */
+    private float[] core = new float[64];
+    private float[] scratch = new float[64];
+    private QuantizationTable quantization;
+    private final int[] rle = new int[RunLength.MAX_ENTRIES];
+    // work buffer of the fixed-point path, allocated on first use
+    private int[] integers;
+    private int rleLength;
+    private DCT dct = KERNELS.getDCT();
+
+    public Block() {
+        setQ(0);
+    }
 
     public Block(float[][] raw) {
         this(raw, 0);
@@ -30,60 +53,56 @@ public class Block {
         if (raw.length != 8 || raw[0].length != 8) {
             throw new RuntimeException("Invalid block size!");
         }
-        core = raw;
+        for (int i = 0; i < 8; i++) {
+            System.arraycopy(raw[i], 0, core, i * 8, 8);
+        }
         setQ(q);
     }
 
-    public Block copy() {
-        float[][] newArray = new float[8][];
-        for (int i = 0; i < 8; i++) {
-            newArray[i] = Arrays.copyOf(core[i], core[i].length);
+    public Block(float[] raw, int q) {
+        if (raw.length != 64) {
+            throw new RuntimeException("Invalid block size!");
         }
-        return new Block(newArray, q);
+        System.arraycopy(raw, 0, core, 0, 64);
+        setQ(q);
+    }
+
+    public Block copy() {
+        return copyTo(new Block());
+    }
+
+    public Block copyTo(Block target) {
+        System.arraycopy(core, 0, target.core, 0, 64);
+        target.quantization = quantization;
+        target.dct = dct;
+        return target;
     }
 
     public Block diff(Block other) {
-        float[][] result = new float[8][8];
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                result[i][j] = core[i][j] - other.core[i][j];
-            }
-        }
-        return new Block(result);
+        return diff(other, new Block().setDCT(dct));
+    }
+
+    public Block diff(Block other, Block result) {
+        KERNELS.subtract(core, other.core, result.core);
+        return result;
     }
 
     public Block sum(Block other) {
-        float[][] result = new float[8][8];
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                result[i][j] = core[i][j] + other.core[i][j];
-            }
-        }
-        return new Block(result);
+        return sum(other, new Block().setDCT(dct));
+    }
+
+    public Block sum(Block other, Block result) {
+        KERNELS.add(core, other.core, result.core);
+        return result;
     }
 
     public Block normalize() {
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                core[i][j] -= 128;
-            }
-        }
+        KERNELS.shift(core, -128, core);
         return this;
     }
 
     public Block restore() {
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                core[i][j] += 128;
-                int value = round(core[i][j]);
-                if (value < 0) {
-                    core[i][j] = 0;
-                }
-                if (value > 255) {
-                    core[i][j] = 255;
-                }
-            }
-        }
+        KERNELS.restore(core, core);
         return this;
     }
 
@@ -91,111 +110,285 @@ public class Block {
     Forward DCT
      */
     public Block fdct() {
-        float[][] result = new float[8][8];
-        for (int u = 0; u < 8; u++) {
-            for (int v = 0; v < 8; v++) {
-                float sum = 0;
-                for (int x = 0; x < 8; x++) {
-                    for (int y = 0; y < 8; y++) {
-                        sum +=  core[x][y] *
-                                Math.cos((2 * x + 1) * u * cInner) *
-                                Math.cos((2 * y + 1) * v * cInner);
-                    }
-                }
-                result[u][v] = (float) (sum * c(u, v) / 4);
-            }
-        }
-        core = result;
+        dct.forward(core, scratch);
+        swap();
         return this;
     }
 
     public Block quantize() {
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                core[i][j] = round(core[i][j] / quantizationMatrix[i][j]);
-            }
-        }
+        KERNELS.quantize(core, quantization.getMatrix(), core);
+        return this;
+    }
+
+    /*
+    Run-length codes the block (see RunLength) into the block's entry buffer, returns the entry count
+     */
+    public int encodeRLE() {
+        return rleLength = RunLength.encode(core, rle);
+    }
+
+    public Block decodeRLE(int[] entries, int count) {
+        RunLength.decode(entries, count, core);
         return this;
     }
 
+    /*
+    One byte per run/size symbol plus the amplitude bits, i.e. the stream before entropy coding
+     */
     public int computeRLESize() {
-        Iterable<Float> i = new SerpentIterator(core);
-        @SuppressWarnings("unchecked") int prev = ((Iterator<Float>) i).next().intValue();
-        int total = 2;
-        for (Float v : i) {
-            int current = v.intValue();
-            if (prev != current) {
-                total += 2;
-                prev = current;
+        int count = encodeRLE();
+        int bits = 0;
+        for (int i = 0; i < count; i++) {
+            bits += 8 + RunLength.size(rle[i]);
+        }
+        return (bits + 7) / 8;
+    }
+
+    /*
+    Whether the block, taken as a residual, has a sum of absolute values of at most `maxSAD`; gives up as soon
+    as a row takes the sum above it
+     */
+    public boolean isStatic(float maxSAD) {
+        float sum = 0;
+        for (int row = 0; row < 64; row += 8) {
+            for (int i = row; i < row + 8; i++) {
+                sum += Math.abs(core[i]);
+            }
+            if (sum > maxSAD) {
+                return false;
             }
         }
-        return total;
+        return true;
     }
 
-    public Block dequantize() {
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                core[i][j] *= quantizationMatrix[i][j];
+    /*
+    Whether all 64 values are zero, e.g. a residual quantized away
+     */
+    public boolean isZero() {
+        for (int i = 0; i < 64; i++) {
+            if (core[i] != 0) {
+                return false;
             }
         }
+        return true;
+    }
+
+    public Block clear() {
+        Arrays.fill(core, 0);
+        rleLength = 0;
+        return this;
+    }
+
+    public Block dequantize() {
+        KERNELS.multiply(core, quantization.getMatrix(), core);
         return this;
     }
 
+    /*
+    Same as normalize().fdct().quantize(), but level shift is done while filling the transform input
+     */
     public Block compress() {
-        this.normalize();
-        this.fdct();
-        this.quantize();
+        long start = Instrumentation.start();
+        KERNELS.shift(core, -128, scratch);
+        dct.forward(scratch, core);
+        KERNELS.quantize(core, quantization.getMatrix(), core);
+        Instrumentation.stop(Stage.COMPRESS, start);
         return this;
     }
 
+    /*
+    compress() followed by encodeRLE(), taken from `cache` when it holds a block with the same samples, q and
+    DCT engine, and added to it otherwise
+     */
+    public Block compress(BlockCache cache) {
+        compressCached(cache);
+        return this;
+    }
+
+    /*
+    compress(cache), then computeHuffmanSize(), which the cache also keeps
+     */
+    public int compressAndSize(BlockCache cache) {
+        return compressCached(cache).getHuffmanSize(this);
+    }
+
+    private BlockCache.Entry compressCached(BlockCache cache) {
+        BlockCache.Entry entry = cache.get(this, core);
+        if (entry != null) {
+            System.arraycopy(entry.getCoefficients(), 0, core, 0, 64);
+            int[] entries = entry.getEntries();
+            System.arraycopy(entries, 0, rle, 0, entries.length);
+            rleLength = entries.length;
+            return entry;
+        }
+        float[] samples = core.clone();
+        compress();
+        entry = new BlockCache.Entry(core, rle, encodeRLE());
+        cache.put(this, samples, entry);
+        return entry;
+    }
+
+    /*
+    Fixed-point counterpart of compress(): IntegerDCT and integer quantization, with samples rounded to
+    integers first. Only integer arithmetic is involved, so the result is the same on every JVM.
+     */
+    public Block compressFixed() {
+        long start = Instrumentation.start();
+        int[] samples = integers();
+        for (int i = 0; i < 64; i++) {
+            samples[i] = round(core[i]) - 128;
+        }
+        IntegerDCT.forward(samples, samples);
+        quantization.quantize(samples, core);
+        Instrumentation.stop(Stage.COMPRESS, start);
+        return this;
+    }
+
+    /*
+    Fixed-point counterpart of decompress(), for blocks holding integer coefficients
+     */
+    public Block decompressFixed() {
+        long start = Instrumentation.start();
+        int[] coefficients = integers();
+        int[] matrix = quantization.getIntegerMatrix();
+        for (int i = 0; i < 64; i++) {
+            coefficients[i] = (int) core[i] * matrix[i];
+        }
+        IntegerDCT.inverse(coefficients, coefficients);
+        for (int i = 0; i < 64; i++) {
+            core[i] = coefficients[i];
+        }
+        Instrumentation.stop(Stage.DECOMPRESS, start);
+        return this;
+    }
+
+    /*
+    Level-shifted forward DCT of the block into `coefficients`, leaving the block itself as is
+     */
+    void transform(float[] coefficients) {
+        KERNELS.shift(core, -128, scratch);
+        dct.forward(scratch, coefficients);
+    }
+
+    /*
+    Sets the block to `coefficients` quantized with `table` (and takes its q), i.e. what compress() would have
+    produced from the samples `coefficients` were transformed from
+     */
+    Block quantize(float[] coefficients, QuantizationTable table) {
+        quantization = table;
+        table.quantize(coefficients, core);
+        return this;
+    }
+
+    /*
+    Same as dequantize().idct().restore(), with dequantization done while filling the transform input
+     */
     public Block decompress() {
-        this.dequantize();
-        this.idct();
-        this.restore();
+        long start = Instrumentation.start();
+        KERNELS.multiply(core, quantization.getMatrix(), scratch);
+        dct.inverse(scratch, core);
+        KERNELS.truncate(core, core);
+        KERNELS.restore(core, core);
+        Instrumentation.stop(Stage.DECOMPRESS, start);
         return this;
     }
 
+    /*
+    Decodes the block scaled down to size x size samples (size = 1, 2 or 4, see ScaledIDCT) into
+    pixels[y..][x..], clipped to the array: only those lowest frequencies are dequantized and transformed, and
+    for size = 1 the DC coefficient alone. The coefficients are kept, so other sizes can be decoded after.
+     */
+    public Block decompressScaled(int size, float[][] pixels, int x, int y) {
+        float[] matrix = quantization.getMatrix();
+        for (int u = 0; u < size; u++) {
+            for (int v = 0; v < size; v++) {
+                scratch[u * 8 + v] = core[u * 8 + v] * matrix[u * 8 + v];
+            }
+        }
+        ScaledIDCT.inverse(scratch, size, scratch);
+        int rows = Math.min(size, pixels.length - y);
+        for (int i = 0; i < rows; i++) {
+            float[] row = pixels[y + i];
+            int columns = Math.min(size, row.length - x);
+            for (int j = 0; j < columns; j++) {
+                // truncate() and restore() of decompress()
+                int value = (int) scratch[i * 8 + j] + 128;
+                row[x + j] = value < 0 ? 0 : value > 255 ? 255 : value;
+            }
+        }
+        return this;
+    }
 
     /*
     Inverse DCT
      */
     public Block idct() {
-        float[][] result = new float[8][8];
-        for (int x = 0; x < 8; x++) {
-            for (int y = 0; y < 8; y++) {
-                float sum = 0;
-                for (int u = 0; u < 8; u++) {
-                    for (int v = 0; v < 8; v++) {
-                        sum +=  c(u, v) *
-                                core[u][v]*
-                                Math.cos((2*x + 1) * u * cInner) *
-                                Math.cos((2*y + 1) * v * cInner);
-                    }
-                }
-                result[x][y] = (int) (sum / 4);
-            }
-        }
-        core = result;
+        dct.inverse(core, scratch);
+        swap();
+        KERNELS.truncate(core, core);
         return this;
     }
 
+    /*
+    Huffman alphabet is the run/size symbols of the block's RLE entries; amplitude bits are sent as is
+     */
     public Huffman encodeHuffman() {
+        int count = encodeRLE();
         Map<Integer, Integer> freq = new HashMap<>();
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                int symbol = round(core[i][j]);
-                freq.compute(symbol, (integer, integer2) -> (integer2 == null) ? 1 : integer2 + 1);
-            }
+        for (int i = 0; i < count; i++) {
+            freq.compute(RunLength.symbol(rle[i]), (integer, integer2) -> (integer2 == null) ? 1 : integer2 + 1);
         }
         return new Huffman(freq);
     }
 
+    /*
+    Same alphabet as encodeHuffman(), but built from a primitive histogram and limited to JPEG's 16-bit codes
+     */
+    public HuffmanCode buildHuffmanCode() {
+        int[] histogram = new int[256];
+        countSymbols(histogram);
+        return HuffmanBuilder.build(histogram, 0, HuffmanBuilder.JPEG_MAX_LENGTH);
+    }
+
+    /*
+    Adds the run/size symbols of the block's RLE entries to `histogram` (256 entries)
+     */
+    public Block countSymbols(int[] histogram) {
+        int count = encodeRLE();
+        for (int i = 0; i < count; i++) {
+            histogram[RunLength.symbol(rle[i])]++;
+        }
+        return this;
+    }
+
+    /*
+    Same as computeHuffmanSize(buildHuffmanCode()), without building the code itself
+     */
+    public int computeHuffmanSize() {
+        int[] histogram = new int[256];
+        int count = countSymbols(histogram).rleLength;
+        int[] lengths = HuffmanBuilder.computeLengths(histogram, HuffmanBuilder.JPEG_MAX_LENGTH);
+        int sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += lengths[RunLength.symbol(rle[i])] + RunLength.size(rle[i]);
+        }
+        return (sum + 7) / 8;
+    }
+
+    public int computeHuffmanSize(HuffmanCode code) {
+        int count = encodeRLE();
+        int sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += code.getLength(RunLength.symbol(rle[i])) + RunLength.size(rle[i]);
+        }
+        return (sum + 7) / 8;
+    }
+
     public int computeHuffmanSize(Huffman encoder) {
+        int count = encodeRLE();
         int sum = 0;
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                sum += encoder.getSizeFor(round(core[i][j]));
-            }
+        for (int i = 0; i < count; i++) {
+            sum += encoder.getSizeFor(RunLength.symbol(rle[i])) + RunLength.size(rle[i]);
         }
         if (sum % 8 != 0) {
             sum += 8 - sum % 8;
@@ -203,11 +396,39 @@ public class Block {
         return sum / 8;
     }
 
+    /*
+    Writes the RLE entries: Huffman code of each symbol followed by its amplitude bits
+     */
+    public Block writeHuffman(HuffmanCode code, BitWriter writer) {
+        int count = encodeRLE();
+        for (int i = 0; i < count; i++) {
+            code.encode(RunLength.symbol(rle[i]), writer);
+            writer.write(RunLength.amplitude(rle[i]), RunLength.size(rle[i]));
+        }
+        return this;
+    }
+
+    public Block readHuffman(HuffmanDecoder decoder, BitReader reader) {
+        int count = 0;
+        int coefficients = 0;
+        while (coefficients < 64) {
+            int symbol = decoder.decode(reader);
+            int size = symbol & 0x0F;
+            rle[count++] = RunLength.entry(symbol, reader.read(size), size);
+            if (count > 1 && symbol == RunLength.EOB) {
+                break;
+            }
+            coefficients += count == 1 ? 1 : (symbol >>> 4) + 1;
+        }
+        rleLength = count;
+        return decodeRLE(rle, count);
+    }
+
     public Block saveImage(String name) {
         BufferedImage result = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
         for (int y = 0; y < 8; y++) {
             for (int x = 0; x < 8; x++) {
-                int value = 0xFF & (int) core[y][x];
+                int value = 0xFF & (int) core[y * 8 + x];
                 result.setRGB(x, y, (value << 16) | (value << 8) | value);
             }
         }
@@ -237,62 +458,74 @@ public class Block {
     }
 
     public Block printQuantizationMatrix(String header, PrintStream stream) {
-        printMatrix(header, stream, quantizationMatrix);
+        printMatrix(header, stream, quantization.getMatrix());
         return this;
     }
 
-    private void printMatrix(String header, PrintStream stream, float[][] matrix) {
+    private void printMatrix(String header, PrintStream stream, float[] matrix) {
         StringBuilder sb = new StringBuilder();
         if (header != null) {
             sb.append("=== ").append(header).append(":\n");
         }
-        for (float[] row : matrix) {
-            for (int i = 0; i < row.length; i++) {
-                sb.append(Math.rint(row[i]) == row[i] ?
-                        String.format("%4d", (int)(row[i])) : String.format("%6.1f", row[i]))
-                        .append(i == row.length - 1 ? "" : "\t");
+        for (int row = 0; row < 64; row += 8) {
+            for (int i = 0; i < 8; i++) {
+                float value = matrix[row + i];
+                sb.append(Math.rint(value) == value ?
+                        String.format("%4d", (int)(value)) : String.format("%6.1f", value))
+                        .append(i == 7 ? "" : "\t");
             }
             sb.append("\n");
         }
         stream.print(sb.toString());
     }
 
-    private float[][] computeQuantizationMatrix(int q) {
-        float[][] quantizationMatrix = new float[8][8];
-
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                quantizationMatrix[i][j] = 1 + (i + j + 1) * q;
-            }
-        }
-
-        return quantizationMatrix;
-    }
-
-    private int round(float x) {
+    static int round(float x) {
         if (x < 0) {
             return -Math.round(-x);
         }
         return Math.round(x);
     }
 
-    private static double c(int u, int v) {
-        if (u == 0 && v == 0) {
-            return .5;
-        }
-        if (u == 0 || v == 0) {
-            return 1d / Math.sqrt(2);
+    private int[] integers() {
+        if (integers == null) {
+            integers = new int[64];
         }
-        return 1;
+        return integers;
+    }
+
+    private void swap() {
+        float[] tmp = core;
+        core = scratch;
+        scratch = tmp;
+    }
+
+    public int[] getRLE() {
+        return rle;
+    }
+
+    public int getRLELength() {
+        return rleLength;
+    }
+
+    float[] getData() {
+        return core;
     }
 
     public int getQ() {
-        return q;
+        return quantization.getQ();
+    }
+
+    public DCT getDCT() {
+        return dct;
+    }
+
+    public Block setDCT(DCT dct) {
+        this.dct = dct;
+        return this;
     }
 
     public Block setQ(int q) {
-        this.q = q;
-        quantizationMatrix = computeQuantizationMatrix(q);
+        quantization = QuantizationTable.of(q);
         return this;
     }
 }
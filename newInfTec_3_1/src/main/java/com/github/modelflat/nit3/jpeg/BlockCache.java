@@ -0,0 +1,226 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.dct.DCT;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Compressed blocks looked up by their content: the 64 input samples, q and the DCT engine. Screen content
+repeats blocks all the time (flat backgrounds, the same glyph over and over), and a hit hands back the
+quantized coefficients and run-length entries (and, once asked for, the block's Huffman size) without the
+transform, quantization, RLE or Huffman code construction. Samples are compared exactly, so a hit is always
+what compress() would have produced.
+
+Entries are spread over STRIPES independently locked stripes by their hash, so parallel workers rarely wait
+for each other; each stripe evicts its least recently used entries beyond its share of `capacity` bytes.
+ */
+public class BlockCache {
+
+    private static final int STRIPES = 16;
+    // per entry: samples, coefficients, object headers, map node; plus 4 bytes per run-length entry
+    private static final int ENTRY_BYTES = 2 * 64 * Float.BYTES + 160;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BlockCache(long capacity) {
+        if (capacity < STRIPES * (long) (ENTRY_BYTES + RunLength.MAX_ENTRIES * Integer.BYTES)) {
+            throw new RuntimeException("Block cache capacity too small: " + capacity);
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(capacity / STRIPES);
+        }
+    }
+
+    /*
+    Entry for the current samples of `block`, or null (the block is not changed)
+     */
+    Entry get(Block block, float[] samples) {
+        Key key = new Key(samples, block.getQ(), block.getDCT());
+        Entry entry = stripe(key).get(key);
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /*
+    Caches `entry` for `samples` (kept, not copied), as they were before compression with the q and DCT engine
+    of `block`
+     */
+    void put(Block block, float[] samples, Entry entry) {
+        Key key = new Key(samples, block.getQ(), block.getDCT());
+        evictions.add(stripe(key).put(key, entry));
+    }
+
+    private Stripe stripe(Key key) {
+        return stripes[(int) (key.hash >>> 60)];
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /*
+    Share of lookups that hit, 0 before the first one
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /*
+    Estimated bytes held
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.bytes();
+        }
+        return bytes;
+    }
+
+    /*
+    Result of compressing a block: quantized coefficients, run-length entries and the Huffman size, which is
+    computed on first use (racing threads compute the same value)
+     */
+    static final class Entry {
+
+        private final float[] coefficients;
+        private final int[] entries;
+        private volatile int huffmanSize = -1;
+
+        Entry(float[] coefficients, int[] entries, int count) {
+            this.coefficients = coefficients.clone();
+            this.entries = new int[count];
+            System.arraycopy(entries, 0, this.entries, 0, count);
+        }
+
+        float[] getCoefficients() {
+            return coefficients;
+        }
+
+        int[] getEntries() {
+            return entries;
+        }
+
+        /*
+        `block` holds this entry's coefficients
+         */
+        int getHuffmanSize(Block block) {
+            int size = huffmanSize;
+            if (size < 0) {
+                huffmanSize = size = block.computeHuffmanSize();
+            }
+            return size;
+        }
+
+        int bytes() {
+            return ENTRY_BYTES + entries.length * Integer.BYTES;
+        }
+    }
+
+    private static final class Key {
+
+        private final float[] samples;
+        private final int q;
+        private final DCT dct;
+        private final long hash;
+
+        Key(float[] samples, int q, DCT dct) {
+            this.samples = samples;
+            this.q = q;
+            this.dct = dct;
+            long h = q * 0x9E3779B97F4A7C15L;
+            for (int i = 0; i < 64; i++) {
+                h = (h ^ Float.floatToRawIntBits(samples[i])) * 0xC2B2AE3D27D4EB4FL;
+            }
+            this.hash = h ^ h >>> 29;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            if (hash != other.hash || q != other.q || dct != other.dct) {
+                return false;
+            }
+            for (int i = 0; i < 64; i++) {
+                if (Float.floatToRawIntBits(samples[i]) != Float.floatToRawIntBits(other.samples[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) hash;
+        }
+    }
+
+    private static final class Stripe {
+
+        private final long capacity;
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+        private long bytes;
+
+        Stripe(long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized Entry get(Key key) {
+            return entries.get(key);
+        }
+
+        /*
+        Returns the number of entries evicted
+         */
+        synchronized int put(Key key, Entry entry) {
+            Entry previous = entries.put(key, entry);
+            bytes += entry.bytes() - (previous == null ? 0 : previous.bytes());
+            int evicted = 0;
+            Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > capacity) {
+                bytes -= eldest.next().getValue().bytes();
+                eldest.remove();
+                evicted++;
+            }
+            return evicted;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.dct.DCT;
+import com.github.modelflat.nit3.stats.Instrumentation;
+import com.github.modelflat.nit3.stats.Stage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/*
+Colour image as three Frames: full resolution luma (Y) and chroma (Cb, Cr) subsampled as `subsampling` says.
+Each plane goes through the block codec on its own; luma and chroma have separate quantization tables.
+
+Conversion to YCbCr and chroma downsampling are one pass over the RGB rows (see YCbCr), and so are upsampling
+and conversion back: the chroma terms of a Cb/Cr sample are looked up once and added to each luma sample it
+covers (libjpeg's "merged" upsampling, i.e. sample replication).
+ */
+public class ColorFrame {
+
+    private final int width;
+    private final int height;
+    private final Subsampling subsampling;
+    private final Frame luma;
+    private final Frame cb;
+    private final Frame cr;
+
+    private ColorFrame(int width, int height, Subsampling subsampling, Frame luma, Frame cb, Frame cr) {
+        this.width = width;
+        this.height = height;
+        this.subsampling = subsampling;
+        this.luma = luma;
+        this.cb = cb;
+        this.cr = cr;
+    }
+
+    /*
+    Planes as is: luma of width x height, chroma of that size divided by the subsampling factors (rounded up)
+     */
+    public static ColorFrame fromPlanes(int width, int height, Subsampling subsampling,
+                                        Frame luma, Frame cb, Frame cr) {
+        int chromaWidth = (width + subsampling.getHorizontal() - 1) / subsampling.getHorizontal();
+        int chromaHeight = (height + subsampling.getVertical() - 1) / subsampling.getVertical();
+        if (luma.getWidth() != width || luma.getHeight() != height ||
+                cb.getWidth() != chromaWidth || cb.getHeight() != chromaHeight ||
+                cr.getWidth() != chromaWidth || cr.getHeight() != chromaHeight) {
+            throw new RuntimeException("Plane sizes do not match the frame size and subsampling");
+        }
+        return new ColorFrame(width, height, subsampling, luma, cb, cr);
+    }
+
+    public static ColorFrame read(String fileName, Subsampling subsampling) {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new File(fileName));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (image == null) {
+            throw new RuntimeException("Unsupported image format: " + fileName);
+        }
+        return fromImage(image, subsampling);
+    }
+
+    public static ColorFrame fromImage(BufferedImage image, Subsampling subsampling) {
+        long start = Instrumentation.start();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int h = subsampling.getHorizontal();
+        int v = subsampling.getVertical();
+        int shift = YCbCr.SCALE_BITS + Integer.numberOfTrailingZeros(h * v);
+        boolean direct = isDirectRGB(image);
+        int bands = direct ? image.getRaster().getNumBands() : 3;
+        float[][] y = new float[height][width];
+        float[][] cb = new float[(height + v - 1) / v][(width + h - 1) / h];
+        float[][] cr = new float[cb.length][cb[0].length];
+        int[][] rows = new int[v][bands * width];
+        for (int cy = 0; cy < cb.length; cy++) {
+            // a group that sticks out of the image repeats its last row/column
+            for (int k = 0; k < v; k++) {
+                readRow(image, direct, Math.min(cy * v + k, height - 1), rows[k]);
+            }
+            for (int cx = 0; cx < cb[cy].length; cx++) {
+                int cbSum = 0;
+                int crSum = 0;
+                for (int k = 0; k < v; k++) {
+                    for (int m = 0; m < h; m++) {
+                        int x = Math.min(cx * h + m, width - 1);
+                        int red = rows[k][x * bands];
+                        int green = rows[k][x * bands + 1];
+                        int blue = rows[k][x * bands + 2];
+                        cbSum += YCbCr.cb(red, green, blue);
+                        crSum += YCbCr.cr(red, green, blue);
+                        if (cy * v + k < height) {
+                            y[cy * v + k][x] = YCbCr.luma(red, green, blue);
+                        }
+                    }
+                }
+                cb[cy][cx] = cbSum >> shift;
+                cr[cy][cx] = crSum >> shift;
+            }
+        }
+        ColorFrame frame = new ColorFrame(width, height, subsampling, new Frame(y), new Frame(cb), new Frame(cr));
+        Instrumentation.stop(Stage.COLOR_CONVERT, start);
+        return frame;
+    }
+
+    /*
+    Images whose raster bands are R, G, B (and maybe alpha) in sRGB can be read with Raster.getPixels(), which is
+    an order of magnitude faster than getRGB()'s per-pixel colour model conversion
+     */
+    private static boolean isDirectRGB(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /*
+    Row y as `bands` samples per pixel, red first
+     */
+    private static void readRow(BufferedImage image, boolean direct, int y, int[] row) {
+        int width = image.getWidth();
+        if (direct) {
+            image.getRaster().getPixels(0, y, width, 1, row);
+            return;
+        }
+        image.getRGB(0, y, width, 1, row, 0, width);
+        // unpack in place, from the end, so that no pixel is overwritten before it is read
+        for (int x = width - 1; x >= 0; x--) {
+            int rgb = row[x];
+            row[3 * x] = (rgb >> 16) & 0xFF;
+            row[3 * x + 1] = (rgb >> 8) & 0xFF;
+            row[3 * x + 2] = rgb & 0xFF;
+        }
+    }
+
+    public ColorFrame copy() {
+        return new ColorFrame(width, height, subsampling, luma.copy(), cb.copy(), cr.copy());
+    }
+
+    public ColorFrame compress() {
+        return forEachPlane(Frame::compress);
+    }
+
+    /*
+    One cache serves all planes, as q is part of the key
+     */
+    public ColorFrame compress(BlockCache cache) {
+        return forEachPlane(plane -> plane.compress(cache));
+    }
+
+    public ColorFrame decompress() {
+        return forEachPlane(Frame::decompress);
+    }
+
+    public ColorFrame compressFixed() {
+        return forEachPlane(Frame::compressFixed);
+    }
+
+    public ColorFrame decompressFixed() {
+        return forEachPlane(Frame::decompressFixed);
+    }
+
+    private ColorFrame forEachPlane(Consumer<Frame> action) {
+        action.accept(luma);
+        action.accept(cb);
+        action.accept(cr);
+        return this;
+    }
+
+    public int computeRLESize() {
+        return luma.computeRLESize() + cb.computeRLESize() + cr.computeRLESize();
+    }
+
+    public int computeHuffmanSize() {
+        return luma.computeHuffmanSize() + cb.computeHuffmanSize() + cr.computeHuffmanSize();
+    }
+
+    /*
+    Samples that go into the transform (including block padding), against 3 * width * height for RGB
+     */
+    public int getSampleCount() {
+        return 64 * (luma.getBlockCount() + cb.getBlockCount() + cr.getBlockCount());
+    }
+
+    public BufferedImage toImage() {
+        long start = Instrumentation.start();
+        BufferedImage result = toImage(luma.toPixels(), cb.toPixels(), cr.toPixels(), width, height);
+        Instrumentation.stop(Stage.COLOR_RESTORE, start);
+        return result;
+    }
+
+    /*
+    Thumbnail decoded from the coefficients with Frame.decompressScaled(size): every plane is scaled the same
+    way, so the chroma keeps its subsampling relative to the luma
+     */
+    public BufferedImage toScaledImage(int size) {
+        return toImage(luma.decompressScaled(size), cb.decompressScaled(size), cr.decompressScaled(size),
+                (width * size + 7) / 8, (height * size + 7) / 8);
+    }
+
+    private BufferedImage toImage(float[][] y, float[][] cb, float[][] cr, int width, int height) {
+        int h = subsampling.getHorizontal();
+        int v = subsampling.getVertical();
+        int[] range = YCbCr.RANGE;
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[][] rows = new int[v][width];
+        for (int cy = 0; cy < cb.length; cy++) {
+            int rowCount = Math.min(v, height - cy * v);
+            for (int cx = 0; cx < cb[cy].length; cx++) {
+                int cbValue = 0xFF & (int) cb[cy][cx];
+                int crValue = 0xFF & (int) cr[cy][cx];
+                int red = YCbCr.CR_R[crValue] + YCbCr.RANGE_OFFSET;
+                int green = ((YCbCr.CB_G[cbValue] + YCbCr.CR_G[crValue]) >> YCbCr.SCALE_BITS) + YCbCr.RANGE_OFFSET;
+                int blue = YCbCr.CB_B[cbValue] + YCbCr.RANGE_OFFSET;
+                int columns = Math.min(h, width - cx * h);
+                for (int k = 0; k < rowCount; k++) {
+                    float[] lumaRow = y[cy * v + k];
+                    for (int m = 0; m < columns; m++) {
+                        int x = cx * h + m;
+                        int value = 0xFF & (int) lumaRow[x];
+                        rows[k][x] = (range[value + red] << 16) | (range[value + green] << 8) | range[value + blue];
+                    }
+                }
+            }
+            for (int k = 0; k < rowCount; k++) {
+                // TYPE_INT_RGB stores exactly these ints, no need for setRGB()'s colour model
+                result.getRaster().setDataElements(0, cy * v + k, width, 1, rows[k]);
+            }
+        }
+        return result;
+    }
+
+    public ColorFrame saveImage(String name) {
+        Frame.saveBMP(toImage(), name);
+        return this;
+    }
+
+    public ColorFrame setQ(int lumaQ, int chromaQ) {
+        luma.setQ(lumaQ);
+        cb.setQ(chromaQ);
+        cr.setQ(chromaQ);
+        return this;
+    }
+
+    public ColorFrame setDCT(DCT dct) {
+        return forEachPlane(plane -> plane.setDCT(dct));
+    }
+
+    public ColorFrame setPool(ForkJoinPool pool) {
+        return forEachPlane(plane -> plane.setPool(pool));
+    }
+
+    public Frame getLuma() {
+        return luma;
+    }
+
+    public Frame getCb() {
+        return cb;
+    }
+
+    public Frame getCr() {
+        return cr;
+    }
+
+    public Subsampling getSubsampling() {
+        return subsampling;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,300 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.dct.DCT;
+import com.github.modelflat.nit3.jpeg.dct.ScaledIDCT;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanBuilder;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCode;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+/*
+Grayscale image of arbitrary size, split into 8x8 Blocks. Images whose sides are not multiples of 8 are
+padded by replicating the last row/column; the padding is cropped away again by toPixels().
+
+Per-block stages (compress, decompress, ...) run as a parallel stream inside `pool`, so the degree of
+parallelism is that of the pool (common pool by default).
+ */
+public class Frame {
+
+    private final int width;
+    private final int height;
+    private final int blocksX;
+    private final int blocksY;
+    private final Block[] blocks;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private Frame(int width, int height, Block[] blocks) {
+        this.width = width;
+        this.height = height;
+        this.blocksX = (width + 7) / 8;
+        this.blocksY = (height + 7) / 8;
+        this.blocks = blocks;
+    }
+
+    /*
+    blocks are taken as is (row by row, (width + 7) / 8 per row)
+     */
+    public static Frame fromBlocks(int width, int height, Block[] blocks) {
+        if (blocks.length != ((width + 7) / 8) * ((height + 7) / 8)) {
+            throw new RuntimeException("Block count does not match frame size");
+        }
+        return new Frame(width, height, blocks);
+    }
+
+    public Frame(float[][] pixels) {
+        this(pixels, 0);
+    }
+
+    public Frame(float[][] pixels, int q) {
+        this(pixels[0].length, pixels.length, new Block[((pixels[0].length + 7) / 8) * ((pixels.length + 7) / 8)]);
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                float[] raw = new float[64];
+                for (int i = 0; i < 8; i++) {
+                    float[] row = pixels[Math.min(by * 8 + i, height - 1)];
+                    for (int j = 0; j < 8; j++) {
+                        raw[i * 8 + j] = row[Math.min(bx * 8 + j, width - 1)];
+                    }
+                }
+                blocks[by * blocksX + bx] = new Block(raw, q);
+            }
+        }
+    }
+
+    public static Frame read(String fileName) {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new File(fileName));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (image == null) {
+            throw new RuntimeException("Unsupported image format: " + fileName);
+        }
+        return fromImage(image);
+    }
+
+    /*
+    Luma of the image, rounded to integers
+     */
+    public static Frame fromImage(BufferedImage image) {
+        float[][] pixels = new float[image.getHeight()][image.getWidth()];
+        for (int y = 0; y < pixels.length; y++) {
+            for (int x = 0; x < pixels[y].length; x++) {
+                int rgb = image.getRGB(x, y);
+                pixels[y][x] = Math.round(
+                        0.299f * ((rgb >> 16) & 0xFF) + 0.587f * ((rgb >> 8) & 0xFF) + 0.114f * (rgb & 0xFF));
+            }
+        }
+        return new Frame(pixels);
+    }
+
+    public Frame copy() {
+        Block[] newBlocks = new Block[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            newBlocks[i] = blocks[i].copy();
+        }
+        return new Frame(width, height, newBlocks).setPool(pool);
+    }
+
+    /*
+    Copies pixel/coefficient data and settings into a frame of the same size, reusing its blocks
+     */
+    public Frame copyTo(Frame target) {
+        if (target.width != width || target.height != height) {
+            throw new RuntimeException("Frame size mismatch");
+        }
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i].copyTo(target.blocks[i]);
+        }
+        return target;
+    }
+
+    public Frame compress() {
+        return forEach(Block::compress);
+    }
+
+    /*
+    Also run-length codes the blocks; see Block.compress(BlockCache)
+     */
+    public Frame compress(BlockCache cache) {
+        return forEach(block -> block.compress(cache));
+    }
+
+    /*
+    compress(cache).computeHuffmanSize(), with block sizes kept in the cache too
+     */
+    public int compressAndSize(BlockCache cache) {
+        return sum(block -> block.compressAndSize(cache));
+    }
+
+    public Frame decompress() {
+        return forEach(Block::decompress);
+    }
+
+    public Frame compressFixed() {
+        return forEach(Block::compressFixed);
+    }
+
+    public Frame decompressFixed() {
+        return forEach(Block::decompressFixed);
+    }
+
+    public Frame forEach(Consumer<Block> action) {
+        pool.submit(() -> Arrays.stream(blocks).parallel().forEach(action)).join();
+        return this;
+    }
+
+    public int computeRLESize() {
+        return sum(Block::computeRLESize);
+    }
+
+    public int computeHuffmanSize() {
+        return sum(Block::computeHuffmanSize);
+    }
+
+    /*
+    One code for the symbols of all blocks, instead of one per block: blocks are counted as a parallel stream,
+    each worker into its own histogram, and the histograms are summed at the end
+     */
+    public HuffmanCode buildHuffmanCode() {
+        int[] histogram = pool.submit(() -> Arrays.stream(blocks).parallel()
+                .collect(() -> new int[256], (counts, block) -> block.countSymbols(counts), Frame::add)).join();
+        return HuffmanBuilder.build(histogram, 0, HuffmanBuilder.JPEG_MAX_LENGTH);
+    }
+
+    public int computeHuffmanSize(HuffmanCode code) {
+        return sum(block -> block.computeHuffmanSize(code));
+    }
+
+    private static void add(int[] counts, int[] other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other[i];
+        }
+    }
+
+    private int sum(ToIntFunction<Block> size) {
+        return pool.submit(() -> Arrays.stream(blocks).parallel().mapToInt(size).sum()).join();
+    }
+
+    /*
+    Pixels including the edge padding, blocksY * 8 rows of blocksX * 8
+     */
+    public float[][] toPaddedPixels() {
+        float[][] pixels = new float[blocksY * 8][blocksX * 8];
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                float[] data = blocks[by * blocksX + bx].getData();
+                for (int i = 0; i < 8; i++) {
+                    System.arraycopy(data, i * 8, pixels[by * 8 + i], bx * 8, 8);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    public float[][] toPixels() {
+        float[][] pixels = new float[height][width];
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                float[] data = blocks[by * blocksX + bx].getData();
+                for (int i = 0; i < 8 && by * 8 + i < height; i++) {
+                    int columns = Math.min(8, width - bx * 8);
+                    System.arraycopy(data, i * 8, pixels[by * 8 + i], bx * 8, columns);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /*
+    Pixels of the frame scaled down 8 / size times (size = 1, 2 or 4: 1/8, 1/4 or 1/2 of each side, rounded
+    up), decoded straight from the coefficients with Block.decompressScaled(); block rows run in parallel
+    inside `pool`. The blocks keep their coefficients.
+     */
+    public float[][] decompressScaled(int size) {
+        if (!ScaledIDCT.isSupported(size)) {
+            throw new RuntimeException("Unsupported scaled size: " + size);
+        }
+        float[][] pixels = new float[(height * size + 7) / 8][(width * size + 7) / 8];
+        pool.submit(() -> IntStream.range(0, blocksY).parallel().forEach(by -> {
+            for (int bx = 0; bx < blocksX; bx++) {
+                blocks[by * blocksX + bx].decompressScaled(size, pixels, bx * size, by * size);
+            }
+        })).join();
+        return pixels;
+    }
+
+    public Frame saveImage(String name) {
+        float[][] pixels = toPixels();
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = 0xFF & (int) pixels[y][x];
+                result.setRGB(x, y, (value << 16) | (value << 8) | value);
+            }
+        }
+        saveBMP(result, name);
+        return this;
+    }
+
+    /*
+    Writes `image` to name + ".bmp"
+     */
+    static void saveBMP(BufferedImage image, String name) {
+        try {
+            ImageIO.write(image, "bmp", new File(name + ".bmp"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Frame setQ(int q) {
+        return forEach(block -> block.setQ(q));
+    }
+
+    public Frame setDCT(DCT dct) {
+        return forEach(block -> block.setDCT(dct));
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public Frame setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public Block getBlock(int bx, int by) {
+        return blocks[by * blocksX + bx];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBlocksX() {
+        return blocksX;
+    }
+
+    public int getBlocksY() {
+        return blocksY;
+    }
+
+    public int getBlockCount() {
+        return blocks.length;
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanBuilder;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCache;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCode;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/*
+DC and AC Huffman codes of a JFIF scan, [table id] (0: luma or grayscale, 1: chroma).
+
+STANDARD are the example tables of the JPEG standard. optimize() is the first pass of two-pass encoding: it
+counts the symbols the scan is going to have (DC differences in the writer's MCU order, restarting where the
+writer restarts prediction, and AC run/size symbols) and builds codes for exactly those counts, with the
+all-ones code left unused as DHT requires. MCUs are counted as a parallel stream in the first plane's pool;
+every worker counts into its own histogram, and the histograms are only summed at the end.
+ */
+final class HuffmanTables {
+
+    static final HuffmanTables STANDARD = new HuffmanTables(JFIF.DC_CODES, JFIF.AC_CODES);
+
+    private static final int DC_SYMBOLS = 16;
+    private static final int AC_SYMBOLS = 256;
+    // per table: DC_SYMBOLS DC counts, then AC_SYMBOLS AC counts
+    private static final int TABLE_COUNTS = DC_SYMBOLS + AC_SYMBOLS;
+
+    private final HuffmanCode[] dc;
+    private final HuffmanCode[] ac;
+
+    private HuffmanTables(HuffmanCode[] dc, HuffmanCode[] ac) {
+        this.dc = dc;
+        this.ac = ac;
+    }
+
+    /*
+    Component c is planes[c] sampled h[c] x v[c] and uses table `tables[c]`; `cache` may be null
+     */
+    static HuffmanTables optimize(Frame[] planes, int[] h, int[] v, int[] tables, int mcusX, int mcusY,
+                                  int restartInterval, HuffmanCache cache) {
+        int tableCount = 0;
+        for (int table : tables) {
+            tableCount = Math.max(tableCount, table + 1);
+        }
+        int size = tableCount * TABLE_COUNTS;
+        int[] counts = planes[0].getPool().submit(() -> IntStream.range(0, mcusX * mcusY).parallel()
+                .collect(() -> new Counter(size),
+                        (counter, mcu) -> counter.count(planes, h, v, tables, mcusX, restartInterval, mcu),
+                        Counter::add))
+                .join().counts;
+
+        HuffmanCode[] dc = new HuffmanCode[tableCount];
+        HuffmanCode[] ac = new HuffmanCode[tableCount];
+        for (int t = 0; t < tableCount; t++) {
+            dc[t] = build(Arrays.copyOfRange(counts, t * TABLE_COUNTS, t * TABLE_COUNTS + DC_SYMBOLS), cache);
+            ac[t] = build(Arrays.copyOfRange(counts, t * TABLE_COUNTS + DC_SYMBOLS, (t + 1) * TABLE_COUNTS), cache);
+        }
+        return new HuffmanTables(dc, ac);
+    }
+
+    private static HuffmanCode build(int[] histogram, HuffmanCache cache) {
+        return cache == null ?
+                HuffmanBuilder.buildReserved(histogram, 0, HuffmanBuilder.JPEG_MAX_LENGTH) :
+                cache.get(histogram, 0, HuffmanBuilder.JPEG_MAX_LENGTH);
+    }
+
+    HuffmanCode getDC(int table) {
+        return dc[table];
+    }
+
+    HuffmanCode getAC(int table) {
+        return ac[table];
+    }
+
+    /*
+    One worker's histograms, and room for the RLE entries of the block at hand (blocks an MCU repeats at the
+    plane's edge are shared between MCUs, so their own RLE buffer cannot be used)
+     */
+    private static final class Counter {
+        final int[] counts;
+        final int[] rle = new int[RunLength.MAX_ENTRIES];
+
+        Counter(int size) {
+            counts = new int[size];
+        }
+
+        void count(Frame[] planes, int[] h, int[] v, int[] tables, int mcusX, int restartInterval, int mcu) {
+            int mx = mcu % mcusX;
+            int my = mcu / mcusX;
+            boolean restart = mcu == 0 || restartInterval > 0 && mcu % restartInterval == 0;
+            for (int c = 0; c < planes.length; c++) {
+                int offset = tables[c] * TABLE_COUNTS;
+                int blocks = h[c] * v[c];
+                // the DC predictor of the MCU's first block is the last block of the same component before it
+                int predictor = restart ? 0 : dc(JFIF.block(planes[c], h[c], v[c], (mcu - 1) % mcusX,
+                        (mcu - 1) / mcusX, blocks - 1));
+                for (int k = 0; k < blocks; k++) {
+                    Block block = JFIF.block(planes[c], h[c], v[c], mx, my, k);
+                    int count = RunLength.encode(block.getData(), rle);
+                    int value = RunLength.value(rle[0]);
+                    counts[offset + RunLength.sizeOf(value - predictor)]++;
+                    predictor = value;
+                    for (int i = 1; i < count; i++) {
+                        if (RunLength.size(rle[i]) > JFIF.MAX_AC_SIZE) {
+                            throw new RuntimeException("AC coefficient out of the 8-bit range: " +
+                                    RunLength.value(rle[i]));
+                        }
+                        counts[offset + DC_SYMBOLS + RunLength.symbol(rle[i])]++;
+                    }
+                }
+            }
+        }
+
+        private static int dc(Block block) {
+            return Block.round(block.getData()[0]);
+        }
+
+        void add(Counter other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+        }
+    }
+}
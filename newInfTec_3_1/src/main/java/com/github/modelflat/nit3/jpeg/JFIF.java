@@ -0,0 +1,102 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCode;
+
+/*
+Markers and tables shared by JFIFWriter and JFIFReader.
+
+Entropy coding uses the example tables of the JPEG standard (ITU T.81 Annex K.3), which every baseline codec
+ships: table 0 for luma (and grayscale), table 1 for chroma. They are given the way DHT stores them, as the
+number of codes of each length 1..16 followed by the symbols in code order.
+ */
+final class JFIF {
+
+    static final int SOI = 0xD8;
+    static final int EOI = 0xD9;
+    static final int SOF0 = 0xC0;
+    // extended sequential Huffman: what SOF0 is, but allowing 16-bit quantization tables
+    static final int SOF1 = 0xC1;
+    static final int DHT = 0xC4;
+    static final int SOS = 0xDA;
+    static final int DQT = 0xDB;
+    static final int APP0 = 0xE0;
+    static final int DRI = 0xDD;
+    // RST0..RST7, cycled through between restart intervals
+    static final int RST0 = 0xD0;
+
+    /*
+    Restart index: an APP9 segment before SOS with the offsets of all restart intervals of the scan, relative to
+    its first entropy-coded byte, so that a decoder can go to any interval without scanning the data for RSTn:
+    "RSTIDX\0", count (4 bytes), count offsets (4 bytes each). Only written if it fits into a segment.
+     */
+    static final int INDEX_MARKER = APP0 + 9;
+    static final byte[] INDEX_ID = {'R', 'S', 'T', 'I', 'D', 'X', 0};
+    static final int MAX_INDEXED_SEGMENTS = (0xFFFF - 2 - INDEX_ID.length - 4) / 4;
+
+    // largest magnitude category of an AC coefficient / a DC difference for 8-bit samples
+    static final int MAX_AC_SIZE = 10;
+    static final int MAX_DC_SIZE = 11;
+
+    private static final int[] DC_LUMA_COUNTS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] DC_CHROMA_COUNTS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    private static final int[] DC_SYMBOLS = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+    private static final int[] AC_LUMA_COUNTS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7D};
+    private static final int[] AC_LUMA_SYMBOLS = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xA1, 0x08, 0x23, 0x42, 0xB1, 0xC1, 0x15, 0x52, 0xD1, 0xF0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0A, 0x16, 0x17, 0x18, 0x19, 0x1A, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2A, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3A, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4A, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5A, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6A, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7A, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8A, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9A, 0xA2, 0xA3, 0xA4, 0xA5, 0xA6, 0xA7,
+            0xA8, 0xA9, 0xAA, 0xB2, 0xB3, 0xB4, 0xB5, 0xB6, 0xB7, 0xB8, 0xB9, 0xBA, 0xC2, 0xC3, 0xC4, 0xC5,
+            0xC6, 0xC7, 0xC8, 0xC9, 0xCA, 0xD2, 0xD3, 0xD4, 0xD5, 0xD6, 0xD7, 0xD8, 0xD9, 0xDA, 0xE1, 0xE2,
+            0xE3, 0xE4, 0xE5, 0xE6, 0xE7, 0xE8, 0xE9, 0xEA, 0xF1, 0xF2, 0xF3, 0xF4, 0xF5, 0xF6, 0xF7, 0xF8,
+            0xF9, 0xFA
+    };
+
+    private static final int[] AC_CHROMA_COUNTS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+    private static final int[] AC_CHROMA_SYMBOLS = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xA1, 0xB1, 0xC1, 0x09, 0x23, 0x33, 0x52, 0xF0,
+            0x15, 0x62, 0x72, 0xD1, 0x0A, 0x16, 0x24, 0x34, 0xE1, 0x25, 0xF1, 0x17, 0x18, 0x19, 0x1A, 0x26,
+            0x27, 0x28, 0x29, 0x2A, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3A, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4A, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5A, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6A, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7A, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8A, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9A, 0xA2, 0xA3, 0xA4, 0xA5,
+            0xA6, 0xA7, 0xA8, 0xA9, 0xAA, 0xB2, 0xB3, 0xB4, 0xB5, 0xB6, 0xB7, 0xB8, 0xB9, 0xBA, 0xC2, 0xC3,
+            0xC4, 0xC5, 0xC6, 0xC7, 0xC8, 0xC9, 0xCA, 0xD2, 0xD3, 0xD4, 0xD5, 0xD6, 0xD7, 0xD8, 0xD9, 0xDA,
+            0xE2, 0xE3, 0xE4, 0xE5, 0xE6, 0xE7, 0xE8, 0xE9, 0xEA, 0xF2, 0xF3, 0xF4, 0xF5, 0xF6, 0xF7, 0xF8,
+            0xF9, 0xFA
+    };
+
+    // [table id]
+    static final HuffmanCode[] DC_CODES = {
+            HuffmanCode.fromCounts(DC_LUMA_COUNTS, DC_SYMBOLS),
+            HuffmanCode.fromCounts(DC_CHROMA_COUNTS, DC_SYMBOLS)
+    };
+    static final HuffmanCode[] AC_CODES = {
+            HuffmanCode.fromCounts(AC_LUMA_COUNTS, AC_LUMA_SYMBOLS),
+            HuffmanCode.fromCounts(AC_CHROMA_COUNTS, AC_CHROMA_SYMBOLS)
+    };
+
+    private JFIF() {
+    }
+
+    /*
+    Number of 8x8 blocks needed to cover `samples` samples
+     */
+    static int blocks(int samples) {
+        return (samples + 7) / 8;
+    }
+
+    /*
+    Block k (raster order within the MCU) of a component sampled h x v, in MCU (mx, my) of an interleaved scan.
+    Blocks an MCU has beyond the plane's edge are never shown: the edge ones are repeated.
+     */
+    static Block block(Frame plane, int h, int v, int mx, int my, int k) {
+        return plane.getBlock(Math.min(mx * h + k % h, plane.getBlocksX() - 1),
+                Math.min(my * v + k / h, plane.getBlocksY() - 1));
+    }
+}
@@ -0,0 +1,566 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCode;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanDecoder;
+import com.github.modelflat.nit3.jpeg.io.BitReader;
+import com.github.modelflat.nit3.stats.Instrumentation;
+import com.github.modelflat.nit3.stats.Stage;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*
+Sequential Huffman JPEG decoder (SOF0/SOF1, 8-bit samples, any number of interleaved or single-component
+scans), the counterpart of JFIFWriter. The constructor parses the whole file and leaves quantized coefficients
+in Blocks, which getFrame()/getColorFrame() wrap; decompress() them to get pixels.
+
+Restart intervals (DRI/RSTn) split a scan into segments that decode independently, so they are decoded as a
+parallel stream inside `pool`. Segment positions come from the writer's restart index (see JFIF) when the file
+has a valid one, otherwise from one pass over the data looking for RSTn markers.
+
+With a `region`, only the MCUs covering it are kept, and only the segments holding them are decoded: the
+frames then cover the region grown to whole MCUs (see getRegionX() etc.) rather than the whole image. Without
+restart intervals the whole scan is one segment, which is decoded up to the region's last MCU.
+
+Blocks are dequantized by their QuantizationTable, so only DQT tables of this codebase's 1 + (i + j + 1) * q
+family can be read. Files are read through a memory mapping (read()), or any ByteBuffer, without copying.
+ */
+public class JFIFReader {
+
+    private final ByteBuffer buffer;
+    private final Rectangle region;
+    private final ForkJoinPool pool;
+    // natural order, [table id]
+    private final int[][] quantization = new int[4][];
+    private final HuffmanDecoder[] dcDecoders = new HuffmanDecoder[4];
+    private final HuffmanDecoder[] acDecoders = new HuffmanDecoder[4];
+    private int restartInterval;
+    // offsets of the next scan's segments, from the restart index, if any
+    private int[] index;
+
+    private int width;
+    private int height;
+    private int maxH;
+    private int maxV;
+    // decoded MCUs: [mcuX0, mcuX1) x [mcuY0, mcuY1) of the interleaved MCU grid
+    private int mcuX0;
+    private int mcuY0;
+    private int mcuX1;
+    private int mcuY1;
+    // [component]
+    private int[] ids;
+    private int[] h;
+    private int[] v;
+    private int[] quantizationIds;
+    // size of the component in blocks, whole image
+    private int[] componentBlocksX;
+    private int[] componentBlocksY;
+    // decoded part of the component: first block and size, in blocks
+    private int[] originX;
+    private int[] originY;
+    private int[] blocksX;
+    private int[] blocksY;
+    private Block[][] planes;
+
+    public JFIFReader(ByteBuffer buffer) {
+        this(buffer, null, ForkJoinPool.commonPool());
+    }
+
+    /*
+    `region` (in pixels, may be null for the whole image) is clipped to the image
+     */
+    public JFIFReader(ByteBuffer buffer, Rectangle region, ForkJoinPool pool) {
+        long start = Instrumentation.start();
+        this.buffer = buffer.order(ByteOrder.BIG_ENDIAN);
+        this.region = region;
+        this.pool = pool;
+        if (nextMarker() != JFIF.SOI) {
+            throw new RuntimeException("Not a JPEG file");
+        }
+        for (int marker = nextMarker(); marker != JFIF.EOI; marker = nextMarker()) {
+            int length = buffer.getShort() & 0xFFFF;
+            int end = buffer.position() + length - 2;
+            switch (marker) {
+                case JFIF.DQT:
+                    readDQT(end);
+                    break;
+                case JFIF.DHT:
+                    readDHT(end);
+                    break;
+                case JFIF.SOF0:
+                case JFIF.SOF1:
+                    readSOF();
+                    break;
+                case JFIF.DRI:
+                    restartInterval = buffer.getShort() & 0xFFFF;
+                    break;
+                case JFIF.INDEX_MARKER:
+                    readIndex(end);
+                    break;
+                case JFIF.SOS:
+                    readScan();
+                    // entropy-coded data has no length, readScan() leaves the buffer at the marker after it
+                    continue;
+                default:
+                    // SOF2..SOF15, except DHT, JPG and DAC which share the range
+                    if (marker >= 0xC2 && marker <= 0xCF && marker != 0xC8 && marker != 0xCC) {
+                        throw new RuntimeException(String.format("Unsupported JPEG process, SOF%d", marker - 0xC0));
+                    }
+                    // APPn, COM and anything else not needed
+                    break;
+            }
+            buffer.position(end);
+        }
+        Instrumentation.stop(Stage.JFIF_READ, start);
+    }
+
+    public static JFIFReader read(String fileName) {
+        return read(fileName, null);
+    }
+
+    public static JFIFReader read(String fileName, Rectangle region) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            return new JFIFReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), region,
+                    ForkJoinPool.commonPool());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int getComponentCount() {
+        return planes.length;
+    }
+
+    /*
+    Size of the whole image
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /*
+    Part of the image the frames cover: the region grown to MCU boundaries, or the whole image
+     */
+    public int getRegionX() {
+        return mcuX0 * 8 * maxH;
+    }
+
+    public int getRegionY() {
+        return mcuY0 * 8 * maxV;
+    }
+
+    public int getRegionWidth() {
+        return Math.min(width, mcuX1 * 8 * maxH) - getRegionX();
+    }
+
+    public int getRegionHeight() {
+        return Math.min(height, mcuY1 * 8 * maxV) - getRegionY();
+    }
+
+    public Frame getFrame() {
+        if (planes.length != 1) {
+            throw new RuntimeException("Not a grayscale image: " + planes.length + " components");
+        }
+        return plane(0);
+    }
+
+    public ColorFrame getColorFrame() {
+        if (planes.length != 3) {
+            throw new RuntimeException("Not a YCbCr image: " + planes.length + " components");
+        }
+        for (Subsampling subsampling : Subsampling.values()) {
+            if (h[0] == subsampling.getHorizontal() && v[0] == subsampling.getVertical() &&
+                    h[1] == 1 && v[1] == 1 && h[2] == 1 && v[2] == 1) {
+                return ColorFrame.fromPlanes(getRegionWidth(), getRegionHeight(), subsampling,
+                        plane(0), plane(1), plane(2));
+            }
+        }
+        throw new RuntimeException(String.format("Unsupported sampling: %dx%d, %dx%d, %dx%d",
+                h[0], v[0], h[1], v[1], h[2], v[2]));
+    }
+
+    private Frame plane(int c) {
+        if (planes[c] == null) {
+            throw new RuntimeException("Component " + ids[c] + " has no scan");
+        }
+        return Frame.fromBlocks((getRegionWidth() * h[c] + maxH - 1) / maxH,
+                (getRegionHeight() * v[c] + maxV - 1) / maxV, planes[c]);
+    }
+
+    /*
+    Skips to the next marker and returns its code; fill bytes (0xFF 0xFF) and stuffed zeros are passed over
+     */
+    private int nextMarker() {
+        while (buffer.hasRemaining()) {
+            if ((buffer.get() & 0xFF) != 0xFF) {
+                continue;
+            }
+            int marker = 0xFF;
+            while (marker == 0xFF && buffer.hasRemaining()) {
+                marker = buffer.get() & 0xFF;
+            }
+            if (marker != 0 && marker != 0xFF) {
+                return marker;
+            }
+        }
+        throw new RuntimeException("Unexpected end of JPEG data");
+    }
+
+    private void readDQT(int end) {
+        while (buffer.position() < end) {
+            int spec = buffer.get() & 0xFF;
+            boolean wide = spec >> 4 != 0;
+            int[] table = new int[64];
+            for (int k = 0; k < 64; k++) {
+                table[Zigzag.ORDER[k]] = wide ? buffer.getShort() & 0xFFFF : buffer.get() & 0xFF;
+            }
+            quantization[spec & 0x03] = table;
+        }
+    }
+
+    private void readDHT(int end) {
+        while (buffer.position() < end) {
+            int spec = buffer.get() & 0xFF;
+            int[] counts = new int[16];
+            int total = 0;
+            for (int i = 0; i < 16; i++) {
+                total += counts[i] = buffer.get() & 0xFF;
+            }
+            int[] symbols = new int[total];
+            for (int i = 0; i < total; i++) {
+                symbols[i] = buffer.get() & 0xFF;
+            }
+            HuffmanDecoder decoder = new HuffmanDecoder(HuffmanCode.fromCounts(counts, symbols));
+            if (spec >> 4 == 0) {
+                dcDecoders[spec & 0x03] = decoder;
+            } else {
+                acDecoders[spec & 0x03] = decoder;
+            }
+        }
+    }
+
+    /*
+    Other APP9 segments are ignored
+     */
+    private void readIndex(int end) {
+        byte[] id = new byte[JFIF.INDEX_ID.length];
+        if (end - buffer.position() < id.length + 4) {
+            return;
+        }
+        buffer.get(id);
+        if (!Arrays.equals(id, JFIF.INDEX_ID)) {
+            return;
+        }
+        int count = buffer.getInt();
+        if (count < 0 || count > (end - buffer.position()) / 4) {
+            return;
+        }
+        index = new int[count];
+        for (int i = 0; i < count; i++) {
+            index[i] = buffer.getInt();
+        }
+    }
+
+    private void readSOF() {
+        int precision = buffer.get() & 0xFF;
+        if (precision != 8) {
+            throw new RuntimeException("Unsupported sample precision: " + precision);
+        }
+        height = buffer.getShort() & 0xFFFF;
+        width = buffer.getShort() & 0xFFFF;
+        if (width == 0 || height == 0) {
+            throw new RuntimeException("Image size must be given in SOF");
+        }
+        int n = buffer.get() & 0xFF;
+        ids = new int[n];
+        h = new int[n];
+        v = new int[n];
+        quantizationIds = new int[n];
+        maxH = 1;
+        maxV = 1;
+        for (int c = 0; c < n; c++) {
+            ids[c] = buffer.get() & 0xFF;
+            int sampling = buffer.get() & 0xFF;
+            h[c] = sampling >> 4;
+            v[c] = sampling & 0x0F;
+            quantizationIds[c] = buffer.get() & 0x03;
+            maxH = Math.max(maxH, h[c]);
+            maxV = Math.max(maxV, v[c]);
+        }
+
+        int mcuWidth = 8 * maxH;
+        int mcuHeight = 8 * maxV;
+        Rectangle bounds = region == null ?
+                new Rectangle(width, height) : region.intersection(new Rectangle(width, height));
+        if (bounds.isEmpty()) {
+            throw new RuntimeException("Region does not intersect the image: " + region);
+        }
+        mcuX0 = bounds.x / mcuWidth;
+        mcuY0 = bounds.y / mcuHeight;
+        mcuX1 = (bounds.x + bounds.width + mcuWidth - 1) / mcuWidth;
+        mcuY1 = (bounds.y + bounds.height + mcuHeight - 1) / mcuHeight;
+
+        componentBlocksX = new int[n];
+        componentBlocksY = new int[n];
+        originX = new int[n];
+        originY = new int[n];
+        blocksX = new int[n];
+        blocksY = new int[n];
+        planes = new Block[n][];
+        for (int c = 0; c < n; c++) {
+            componentBlocksX[c] = JFIF.blocks((width * h[c] + maxH - 1) / maxH);
+            componentBlocksY[c] = JFIF.blocks((height * v[c] + maxV - 1) / maxV);
+            originX[c] = mcuX0 * h[c];
+            originY[c] = mcuY0 * v[c];
+            blocksX[c] = JFIF.blocks((getRegionWidth() * h[c] + maxH - 1) / maxH);
+            blocksY[c] = JFIF.blocks((getRegionHeight() * v[c] + maxV - 1) / maxV);
+        }
+    }
+
+    private void readScan() {
+        if (planes == null) {
+            throw new RuntimeException("SOS before SOF");
+        }
+        int n = buffer.get() & 0xFF;
+        Scan scan = new Scan(n);
+        for (int i = 0; i < n; i++) {
+            int c = component(buffer.get() & 0xFF);
+            int tables = buffer.get() & 0xFF;
+            scan.components[i] = c;
+            scan.dc[i] = dcDecoders[tables >> 4 & 0x03];
+            scan.ac[i] = acDecoders[tables & 0x03];
+            if (scan.dc[i] == null || scan.ac[i] == null) {
+                throw new RuntimeException("Scan refers to an undefined Huffman table");
+            }
+            // a single-component scan is not interleaved: its MCU is one block, whatever the sampling
+            scan.h[i] = n == 1 ? 1 : h[c];
+            scan.v[i] = n == 1 ? 1 : v[c];
+            createPlane(c);
+        }
+        if ((buffer.get() & 0xFF) != 0 || (buffer.get() & 0xFF) != 63 || buffer.get() != 0) {
+            throw new RuntimeException("Progressive scans are not supported");
+        }
+        if (n == 1) {
+            int c = scan.components[0];
+            scan.mcusX = componentBlocksX[c];
+            scan.mcusY = componentBlocksY[c];
+            scan.neededX0 = originX[c];
+            scan.neededY0 = originY[c];
+            scan.neededX1 = originX[c] + blocksX[c];
+            scan.neededY1 = originY[c] + blocksY[c];
+        } else {
+            scan.mcusX = JFIF.blocks((width + maxH - 1) / maxH);
+            scan.mcusY = JFIF.blocks((height + maxV - 1) / maxV);
+            scan.neededX0 = mcuX0;
+            scan.neededY0 = mcuY0;
+            scan.neededX1 = mcuX1;
+            scan.neededY1 = mcuY1;
+        }
+        int mcus = scan.mcusX * scan.mcusY;
+        int interval = restartInterval == 0 ? mcus : restartInterval;
+
+        int start = buffer.position();
+        int[] segments = findSegments(start, (mcus + interval - 1) / interval);
+        index = null;
+        int last = (scan.neededY1 - 1) * scan.mcusX + scan.neededX1 - 1;
+        pool.submit(() -> IntStream.range(0, segments.length).parallel()
+                .filter(k -> isNeeded(scan, k * interval, Math.min(mcus, (k + 1) * interval) - 1))
+                .forEach(k -> readSegment(scan, start + segments[k], k * interval,
+                        Math.min(Math.min(mcus, (k + 1) * interval) - 1, last)))).join();
+        buffer.position(findScanEnd(start + segments[segments.length - 1]));
+    }
+
+    /*
+    Whether MCUs first..last (inclusive, raster order) have any the region needs
+     */
+    private static boolean isNeeded(Scan scan, int first, int last) {
+        int firstRow = first / scan.mcusX;
+        int lastRow = last / scan.mcusX;
+        for (int row = Math.max(firstRow, scan.neededY0); row <= Math.min(lastRow, scan.neededY1 - 1); row++) {
+            int from = row == firstRow ? first % scan.mcusX : 0;
+            int to = row == lastRow ? last % scan.mcusX : scan.mcusX - 1;
+            if (to >= scan.neededX0 && from < scan.neededX1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    Offsets (from `start`) of the scan's `count` segments: the restart index if it is there and points at the
+    RSTn markers it should, or else the positions after the RSTn markers found in the data
+     */
+    private int[] findSegments(int start, int count) {
+        if (index != null && index.length == count && index[0] == 0 && isValidIndex(start)) {
+            return index;
+        }
+        int[] segments = new int[count];
+        int found = 1;
+        for (int i = start; i < buffer.limit() - 1 && found < count; i++) {
+            if (buffer.get(i) == (byte) 0xFF) {
+                int marker = buffer.get(i + 1) & 0xFF;
+                if (marker >= JFIF.RST0 && marker <= JFIF.RST0 + 7) {
+                    segments[found++] = i + 2 - start;
+                } else if (marker != 0 && marker != 0xFF) {
+                    break;
+                }
+                i++;
+            }
+        }
+        if (found != count) {
+            throw new RuntimeException(String.format("Expected %d restart intervals, found %d", count, found));
+        }
+        return segments;
+    }
+
+    private boolean isValidIndex(int start) {
+        for (int k = 1; k < index.length; k++) {
+            int position = start + index[k];
+            if (index[k] <= index[k - 1] || position > buffer.limit() || buffer.get(position - 2) != (byte) 0xFF ||
+                    (buffer.get(position - 1) & 0xFF) != JFIF.RST0 + (k - 1) % 8) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+    Position of the first marker at or after `from` that ends entropy-coded data, i.e. is not RSTn
+     */
+    private int findScanEnd(int from) {
+        for (int i = from; i < buffer.limit() - 1; i++) {
+            if (buffer.get(i) == (byte) 0xFF) {
+                int marker = buffer.get(i + 1) & 0xFF;
+                if (marker != 0 && marker != 0xFF && (marker < JFIF.RST0 || marker > JFIF.RST0 + 7)) {
+                    return i;
+                }
+            }
+        }
+        throw new RuntimeException("Unexpected end of JPEG data");
+    }
+
+    /*
+    Decodes MCUs first..last (raster order) from `position` on, keeping the blocks inside the decoded part.
+    Runs concurrently with other segments, so everything mutable is local.
+     */
+    private void readSegment(Scan scan, int position, int first, int last) {
+        ByteBuffer data = buffer.duplicate();
+        data.position(position);
+        BitReader reader = new BitReader(data, true);
+        int[] entries = new int[RunLength.MAX_ENTRIES];
+        int[] predictors = new int[scan.components.length];
+        Block padding = new Block();
+        for (int mcu = first; mcu <= last; mcu++) {
+            int mx = mcu % scan.mcusX;
+            int my = mcu / scan.mcusX;
+            for (int i = 0; i < scan.components.length; i++) {
+                int c = scan.components[i];
+                for (int y = 0; y < scan.v[i]; y++) {
+                    for (int x = 0; x < scan.h[i]; x++) {
+                        int bx = mx * scan.h[i] + x - originX[c];
+                        int by = my * scan.v[i] + y - originY[c];
+                        Block block = bx >= 0 && bx < blocksX[c] && by >= 0 && by < blocksY[c] ?
+                                planes[c][by * blocksX[c] + bx] : padding;
+                        predictors[i] = readBlock(block, predictors[i], scan.dc[i], scan.ac[i], reader, entries);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+    Inverse of JFIFWriter.writeBlock(): returns the block's DC
+     */
+    private static int readBlock(Block block, int predictor, HuffmanDecoder dc, HuffmanDecoder ac,
+                                 BitReader reader, int[] entries) {
+        int size = dc.decode(reader);
+        int value = predictor + RunLength.value(RunLength.entry(size, reader.read(size), size));
+        entries[0] = RunLength.entry(0, value);
+        int count = 1;
+        int k = 1;
+        while (k < 64) {
+            int symbol = ac.decode(reader);
+            size = symbol & 0x0F;
+            if (symbol == RunLength.EOB) {
+                entries[count++] = symbol << 16;
+                break;
+            }
+            k += (symbol >>> 4) + 1;
+            if (k > 64 || (size == 0 && symbol != RunLength.ZRL)) {
+                throw new RuntimeException("Corrupt JPEG data: invalid AC symbol " + symbol);
+            }
+            entries[count++] = RunLength.entry(symbol, reader.read(size), size);
+        }
+        block.decodeRLE(entries, count);
+        return value;
+    }
+
+    private int component(int id) {
+        for (int c = 0; c < ids.length; c++) {
+            if (ids[c] == id) {
+                return c;
+            }
+        }
+        throw new RuntimeException("Scan refers to an undefined component: " + id);
+    }
+
+    /*
+    Blocks of the decoded part of component c, with its q found from its DQT table
+     */
+    private void createPlane(int c) {
+        if (planes[c] != null) {
+            return;
+        }
+        int[] table = quantization[quantizationIds[c]];
+        if (table == null) {
+            throw new RuntimeException("Component " + ids[c] + " refers to an undefined quantization table");
+        }
+        int q = table[0] - 1;
+        if (q < 0 || !Arrays.equals(table, QuantizationTable.of(q).getIntegerMatrix())) {
+            throw new RuntimeException("Quantization table " + quantizationIds[c] +
+                    " is not of the 1 + (i + j + 1) * q form");
+        }
+        planes[c] = new Block[blocksX[c] * blocksY[c]];
+        for (int i = 0; i < planes[c].length; i++) {
+            planes[c][i] = new Block().setQ(q);
+        }
+    }
+
+    /*
+    Per scan: components [i] in scan order with their tables and blocks per MCU, the MCU grid, and the MCUs of
+    it that the decoded part needs, [neededX0, neededX1) x [neededY0, neededY1)
+     */
+    private static final class Scan {
+        final int[] components;
+        final HuffmanDecoder[] dc;
+        final HuffmanDecoder[] ac;
+        final int[] h;
+        final int[] v;
+        int mcusX;
+        int mcusY;
+        int neededX0;
+        int neededY0;
+        int neededX1;
+        int neededY1;
+
+        Scan(int n) {
+            components = new int[n];
+            dc = new HuffmanDecoder[n];
+            ac = new HuffmanDecoder[n];
+            h = new int[n];
+            v = new int[n];
+        }
+    }
+}
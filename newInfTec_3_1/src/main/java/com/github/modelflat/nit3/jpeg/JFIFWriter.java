@@ -0,0 +1,385 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCache;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCode;
+import com.github.modelflat.nit3.jpeg.io.BitWriter;
+import com.github.modelflat.nit3.stats.Instrumentation;
+import com.github.modelflat.nit3.stats.Stage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+Baseline JFIF encoder (SOI, APP0, DQT, SOF0, DHT, SOS, EOI) for compressed Frames, written as grayscale, and
+ColorFrames, written as interleaved YCbCr with the ColorFrame's subsampling. Blocks must hold quantized
+coefficients (compress() or compressFixed() has run), and all blocks of a plane must share q: the plane's
+QuantizationTable becomes its DQT. The coefficients are coded with the JFIF standard Huffman tables, or, by
+writeOptimized(), with tables built for the image in a first pass over it (see HuffmanTables), optionally
+taken from a HuffmanCache shared by the frames of a stream.
+
+Quantization tables with entries above 255 (q > 16) need 16-bit DQT entries, which baseline does not allow;
+such files are marked SOF1 (extended sequential) instead, which decoders treat the same way.
+
+With a restart interval of Ri MCUs, the scan is cut into segments of Ri MCUs separated by RSTn markers, and
+Huffman coding and DC prediction start over in each one; an APP9 restart index (see JFIF) lists where every
+segment begins. JFIFReader decodes such segments in parallel, and only those a region of interest needs.
+
+Everything is put straight into a ByteBuffer, entropy-coded data through a stuffing BitWriter, and save()
+hands a (direct) buffer to a FileChannel as is: no byte[] is involved on the way to the file.
+ */
+public final class JFIFWriter {
+
+    // worst case per block: a 16-bit code and 11 bits for DC, and for each of 63 ACs, all doubled by stuffing
+    private static final int MAX_BLOCK_BYTES = 2 * ((16 + 11 + 63 * (16 + JFIF.MAX_AC_SIZE) + 7) / 8);
+    private static final int MAX_HEADER_BYTES = 2048;
+    // RSTn and the byte its flush() may pad with (stuffed), per MCU; the index of at most 64K
+    private static final int MAX_RESTART_BYTES = 4;
+    private static final int MAX_INDEX_BYTES = 2 + 0xFFFF;
+
+    private JFIFWriter() {
+    }
+
+    public static int maxSize(Frame frame) {
+        return MAX_HEADER_BYTES + MAX_INDEX_BYTES + (MAX_BLOCK_BYTES + MAX_RESTART_BYTES) * frame.getBlockCount();
+    }
+
+    /*
+    Also counts the blocks that interleaving pads luma with
+     */
+    public static int maxSize(ColorFrame frame) {
+        Subsampling subsampling = frame.getSubsampling();
+        int h = subsampling.getHorizontal();
+        int v = subsampling.getVertical();
+        int mcus = JFIF.blocks((frame.getWidth() + h - 1) / h) * JFIF.blocks((frame.getHeight() + v - 1) / v);
+        return MAX_HEADER_BYTES + MAX_INDEX_BYTES + (MAX_BLOCK_BYTES * (h * v + 2) + MAX_RESTART_BYTES) * mcus;
+    }
+
+    /*
+    Writes the file at the buffer's position (switching the buffer to big endian), returns the buffer
+     */
+    public static ByteBuffer write(Frame frame, ByteBuffer buffer) {
+        return write(frame, buffer, 0);
+    }
+
+    public static ByteBuffer write(ColorFrame frame, ByteBuffer buffer) {
+        return write(frame, buffer, 0);
+    }
+
+    /*
+    `restartInterval` is in MCUs (a block for grayscale, 8 * h x 8 * v pixels for colour), 0 for none
+     */
+    public static ByteBuffer write(Frame frame, ByteBuffer buffer, int restartInterval) {
+        return write(buffer, frame, restartInterval, false, null);
+    }
+
+    public static ByteBuffer write(ColorFrame frame, ByteBuffer buffer, int restartInterval) {
+        return write(buffer, frame, restartInterval, false, null);
+    }
+
+    /*
+    Two passes: Huffman tables are built for the frame's symbol counts (or taken from `cache`, which may be null),
+    then the frame is written with them
+     */
+    public static ByteBuffer writeOptimized(Frame frame, ByteBuffer buffer, int restartInterval, HuffmanCache cache) {
+        return write(buffer, frame, restartInterval, true, cache);
+    }
+
+    public static ByteBuffer writeOptimized(ColorFrame frame, ByteBuffer buffer, int restartInterval,
+                                            HuffmanCache cache) {
+        return write(buffer, frame, restartInterval, true, cache);
+    }
+
+    private static ByteBuffer write(ByteBuffer buffer, Frame frame, int restartInterval, boolean optimize,
+                                    HuffmanCache cache) {
+        return write(buffer, frame.getWidth(), frame.getHeight(), new Frame[]{frame}, new int[]{1}, new int[]{1},
+                restartInterval, optimize, cache);
+    }
+
+    private static ByteBuffer write(ByteBuffer buffer, ColorFrame frame, int restartInterval, boolean optimize,
+                                    HuffmanCache cache) {
+        Subsampling subsampling = frame.getSubsampling();
+        return write(buffer, frame.getWidth(), frame.getHeight(),
+                new Frame[]{frame.getLuma(), frame.getCb(), frame.getCr()},
+                new int[]{subsampling.getHorizontal(), 1, 1}, new int[]{subsampling.getVertical(), 1, 1},
+                restartInterval, optimize, cache);
+    }
+
+    public static void save(Frame frame, String fileName) {
+        ByteBuffer data = write(frame, ByteBuffer.allocateDirect(maxSize(frame)));
+        data.flip();
+        save(data, fileName);
+    }
+
+    public static void save(ColorFrame frame, String fileName) {
+        ByteBuffer data = write(frame, ByteBuffer.allocateDirect(maxSize(frame)));
+        data.flip();
+        save(data, fileName);
+    }
+
+    /*
+    Writes the remaining bytes of `data` (e.g. write()'s result, flipped) to a file
+     */
+    public static void save(ByteBuffer data, String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+    Component c is planes[c] sampled h[c] x v[c]; the first one uses tables 0, the others tables 1
+     */
+    private static ByteBuffer write(ByteBuffer buffer, int width, int height, Frame[] planes, int[] h, int[] v,
+                                    int restartInterval, boolean optimize, HuffmanCache cache) {
+        if (width > 0xFFFF || height > 0xFFFF) {
+            throw new RuntimeException(String.format("Image is too large for JPEG: %dx%d", width, height));
+        }
+        if (restartInterval < 0 || restartInterval > 0xFFFF) {
+            throw new RuntimeException("Restart interval must be in [0, 65535]: " + restartInterval);
+        }
+        long startTime = Instrumentation.start();
+        int startPosition = buffer.position();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        int n = planes.length;
+        int tableCount = Math.min(n, 2);
+        int[] q = new int[n];
+        for (int c = 0; c < n; c++) {
+            q[c] = planes[c].getBlock(0, 0).getQ();
+        }
+        // luma/grayscale q, and chroma q
+        QuantizationTable[] tables = new QuantizationTable[tableCount];
+        for (int c = 0; c < n; c++) {
+            tables[table(c)] = QuantizationTable.of(q[c]);
+        }
+        if (n == 3 && q[1] != q[2]) {
+            throw new RuntimeException("Cb and Cr planes must have the same q");
+        }
+
+        int maxH = 1;
+        int maxV = 1;
+        for (int c = 0; c < n; c++) {
+            maxH = Math.max(maxH, h[c]);
+            maxV = Math.max(maxV, v[c]);
+        }
+        int mcusX = JFIF.blocks((width + maxH - 1) / maxH);
+        int mcusY = JFIF.blocks((height + maxV - 1) / maxV);
+        HuffmanTables huffmanTables = HuffmanTables.STANDARD;
+        if (optimize) {
+            int[] componentTables = new int[n];
+            for (int c = 0; c < n; c++) {
+                componentTables[c] = table(c);
+            }
+            huffmanTables = HuffmanTables.optimize(planes, h, v, componentTables, mcusX, mcusY, restartInterval, cache);
+        }
+
+        putMarker(buffer, JFIF.SOI);
+        putApp0(buffer);
+        boolean extended = false;
+        for (int t = 0; t < tableCount; t++) {
+            extended |= putDQT(buffer, t, tables[t].getIntegerMatrix());
+        }
+        putSOF(buffer, extended ? JFIF.SOF1 : JFIF.SOF0, width, height, h, v);
+        for (int t = 0; t < tableCount; t++) {
+            putDHT(buffer, 0, t, huffmanTables.getDC(t));
+            putDHT(buffer, 1, t, huffmanTables.getAC(t));
+        }
+        int[] segments = null;
+        int indexPosition = -1;
+        if (restartInterval > 0) {
+            putDRI(buffer, restartInterval);
+            int count = (mcusX * mcusY + restartInterval - 1) / restartInterval;
+            if (count <= JFIF.MAX_INDEXED_SEGMENTS) {
+                segments = new int[count];
+                indexPosition = putIndex(buffer, count);
+            }
+        }
+        putSOS(buffer, n);
+        int start = buffer.position();
+        writeScan(buffer, mcusX, mcusY, planes, h, v, q, huffmanTables, restartInterval, segments);
+        if (segments != null) {
+            for (int k = 0; k < segments.length; k++) {
+                buffer.putInt(indexPosition + 4 * k, segments[k] - start);
+            }
+        }
+        putMarker(buffer, JFIF.EOI);
+        Instrumentation.addBytesOut(buffer.position() - startPosition);
+        Instrumentation.stop(Stage.JFIF_WRITE, startTime);
+        return buffer;
+    }
+
+    /*
+    With a restart interval, `segments` (if not null) gets the buffer position each segment starts at
+     */
+    private static void writeScan(ByteBuffer buffer, int mcusX, int mcusY, Frame[] planes, int[] h, int[] v,
+                                  int[] q, HuffmanTables tables, int restartInterval, int[] segments) {
+        int[] predictors = new int[planes.length];
+        BitWriter writer = new BitWriter(buffer, true);
+        int segment = 0;
+        for (int my = 0; my < mcusY; my++) {
+            for (int mx = 0; mx < mcusX; mx++) {
+                int mcu = my * mcusX + mx;
+                if (restartInterval > 0 && mcu % restartInterval == 0) {
+                    if (mcu > 0) {
+                        writer.flush();
+                        putMarker(buffer, JFIF.RST0 + (segment - 1) % 8);
+                        Arrays.fill(predictors, 0);
+                    }
+                    if (segments != null) {
+                        segments[segment] = buffer.position();
+                    }
+                    segment++;
+                }
+                for (int c = 0; c < planes.length; c++) {
+                    Frame plane = planes[c];
+                    for (int k = 0; k < h[c] * v[c]; k++) {
+                        Block block = JFIF.block(plane, h[c], v[c], mx, my, k);
+                        if (block.getQ() != q[c]) {
+                            throw new RuntimeException("All blocks of a plane must have the same q");
+                        }
+                        predictors[c] = writeBlock(block, predictors[c],
+                                tables.getDC(table(c)), tables.getAC(table(c)), writer);
+                    }
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    /*
+    DC goes as the difference from the previous block's DC of the component, ACs as the block's RLE entries;
+    returns the block's DC
+     */
+    private static int writeBlock(Block block, int predictor, HuffmanCode dc, HuffmanCode ac, BitWriter writer) {
+        int count = block.encodeRLE();
+        int[] rle = block.getRLE();
+        int value = RunLength.value(rle[0]);
+        int difference = RunLength.entry(0, value - predictor);
+        if (RunLength.size(difference) > JFIF.MAX_DC_SIZE) {
+            throw new RuntimeException("DC coefficient out of the 8-bit range: " + value);
+        }
+        dc.encode(RunLength.symbol(difference), writer);
+        writer.write(RunLength.amplitude(difference), RunLength.size(difference));
+        for (int i = 1; i < count; i++) {
+            int size = RunLength.size(rle[i]);
+            if (size > JFIF.MAX_AC_SIZE) {
+                throw new RuntimeException("AC coefficient out of the 8-bit range: " + RunLength.value(rle[i]));
+            }
+            ac.encode(RunLength.symbol(rle[i]), writer);
+            writer.write(RunLength.amplitude(rle[i]), size);
+        }
+        return value;
+    }
+
+    private static int table(int component) {
+        return component == 0 ? 0 : 1;
+    }
+
+    private static void putMarker(ByteBuffer buffer, int marker) {
+        buffer.put((byte) 0xFF).put((byte) marker);
+    }
+
+    /*
+    JFIF 1.01, no units, 1:1 pixel aspect ratio, no thumbnail
+     */
+    private static void putApp0(ByteBuffer buffer) {
+        putMarker(buffer, JFIF.APP0);
+        buffer.putShort((short) 16)
+                .put("JFIF\0".getBytes(StandardCharsets.US_ASCII))
+                .put((byte) 1).put((byte) 1)
+                .put((byte) 0).putShort((short) 1).putShort((short) 1)
+                .put((byte) 0).put((byte) 0);
+    }
+
+    /*
+    Entries go in zigzag order; returns whether 16-bit entries were needed
+     */
+    private static boolean putDQT(ByteBuffer buffer, int id, int[] matrix) {
+        int max = 0;
+        for (int value : matrix) {
+            max = Math.max(max, value);
+        }
+        if (max > 0xFFFF) {
+            throw new RuntimeException("Quantization table does not fit into DQT, max entry is " + max);
+        }
+        boolean wide = max > 0xFF;
+        putMarker(buffer, JFIF.DQT);
+        buffer.putShort((short) (2 + 1 + 64 * (wide ? 2 : 1)));
+        buffer.put((byte) ((wide ? 1 << 4 : 0) | id));
+        for (int k = 0; k < 64; k++) {
+            if (wide) {
+                buffer.putShort((short) matrix[Zigzag.ORDER[k]]);
+            } else {
+                buffer.put((byte) matrix[Zigzag.ORDER[k]]);
+            }
+        }
+        return wide;
+    }
+
+    private static void putSOF(ByteBuffer buffer, int marker, int width, int height, int[] h, int[] v) {
+        putMarker(buffer, marker);
+        buffer.putShort((short) (8 + 3 * h.length))
+                .put((byte) 8)
+                .putShort((short) height).putShort((short) width)
+                .put((byte) h.length);
+        for (int c = 0; c < h.length; c++) {
+            buffer.put((byte) (c + 1)).put((byte) ((h[c] << 4) | v[c])).put((byte) table(c));
+        }
+    }
+
+    private static void putDHT(ByteBuffer buffer, int tableClass, int id, HuffmanCode code) {
+        if (code.getMaxLength() > 16) {
+            throw new RuntimeException("Huffman code is longer than 16 bits");
+        }
+        int[] symbols = code.getSymbols();
+        int[] counts = code.getCounts();
+        putMarker(buffer, JFIF.DHT);
+        buffer.putShort((short) (2 + 1 + 16 + symbols.length));
+        buffer.put((byte) ((tableClass << 4) | id));
+        for (int length = 1; length <= 16; length++) {
+            buffer.put((byte) counts[length]);
+        }
+        for (int symbol : symbols) {
+            buffer.put((byte) symbol);
+        }
+    }
+
+    private static void putDRI(ByteBuffer buffer, int restartInterval) {
+        putMarker(buffer, JFIF.DRI);
+        buffer.putShort((short) 4).putShort((short) restartInterval);
+    }
+
+    /*
+    Writes the index with `count` zero offsets, returns the position of the first one
+     */
+    private static int putIndex(ByteBuffer buffer, int count) {
+        putMarker(buffer, JFIF.INDEX_MARKER);
+        buffer.putShort((short) (2 + JFIF.INDEX_ID.length + 4 + 4 * count))
+                .put(JFIF.INDEX_ID)
+                .putInt(count);
+        int position = buffer.position();
+        for (int k = 0; k < count; k++) {
+            buffer.putInt(0);
+        }
+        return position;
+    }
+
+    private static void putSOS(ByteBuffer buffer, int n) {
+        putMarker(buffer, JFIF.SOS);
+        buffer.putShort((short) (6 + 2 * n)).put((byte) n);
+        for (int c = 0; c < n; c++) {
+            buffer.put((byte) (c + 1)).put((byte) ((table(c) << 4) | table(c)));
+        }
+        // spectral selection 0..63, no successive approximation
+        buffer.put((byte) 0).put((byte) 63).put((byte) 0);
+    }
+}
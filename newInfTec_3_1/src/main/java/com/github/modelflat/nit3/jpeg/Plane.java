@@ -0,0 +1,233 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.dct.DCT;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+/*
+Grayscale image held off the Java heap, for images too large for a Frame: a Frame keeps two float[64] and
+an int[64] per block on the heap (over 3 KB per block with headers), while a Plane only takes the 256 bytes
+of the block's samples in direct or memory-mapped buffers, which the garbage collector never scans or moves.
+
+Samples are floats stored block by block (each 8x8 block is 64 consecutive floats, blocks in row order) in
+chunks of whole block rows of at most 1 GB, since a buffer is int-indexed: the plane itself can be
+larger than 2 GB. Sides are padded to multiples of 8 as in Frame.
+
+Blocks are not objects here: load() copies a block's samples into a Block and store() copies them back.
+forEach() does that for every block with one scratch Block per worker thread, so processing a plane of any
+size allocates nothing per block.
+ */
+public class Plane implements Closeable {
+
+    static final long MAX_CHUNK_BYTES = 1L << 30;
+    private static final int BLOCK_BYTES = 64 * Float.BYTES;
+
+    private final int width;
+    private final int height;
+    private final int blocksX;
+    private final int blocksY;
+    // block rows per chunk
+    private final int chunkRows;
+    private final FloatBuffer[] chunks;
+    // null unless mapped
+    private final FileChannel channel;
+    private final ThreadLocal<Block> scratch = ThreadLocal.withInitial(Block::new);
+    private int q;
+    private DCT dct;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private Plane(int width, int height, FileChannel channel) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new RuntimeException("Invalid plane size: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.blocksX = (width + 7) / 8;
+        this.blocksY = (height + 7) / 8;
+        long rowBytes = (long) blocksX * BLOCK_BYTES;
+        if (rowBytes > MAX_CHUNK_BYTES) {
+            throw new RuntimeException("Plane is too wide: " + width);
+        }
+        this.chunkRows = (int) Math.min(blocksY, MAX_CHUNK_BYTES / rowBytes);
+        this.chunks = new FloatBuffer[(blocksY + chunkRows - 1) / chunkRows];
+        this.channel = channel;
+        for (int i = 0; i < chunks.length; i++) {
+            long size = Math.min(chunkRows, blocksY - (long) i * chunkRows) * rowBytes;
+            ByteBuffer bytes = channel == null ? ByteBuffer.allocateDirect((int) size) :
+                    channel.map(FileChannel.MapMode.READ_WRITE, i * chunkRows * rowBytes, size);
+            chunks[i] = bytes.order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    }
+
+    /*
+    In direct buffers, i.e. native memory counted against -XX:MaxDirectMemorySize. It is released once the
+    plane is collected (close() does nothing for it, as Java 8 has no way to free a direct buffer explicitly).
+     */
+    public static Plane allocate(int width, int height) {
+        try {
+            return new Plane(width, height, null);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+    In `file`, created or resized to fit and mapped read-write: the OS pages samples in and out, so the plane
+    can be larger than memory. Samples already in the file are kept (in this class's layout), and close()
+    leaves them there.
+     */
+    public static Plane map(Path file, int width, int height) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            return new Plane(width, height, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+    Copies the samples of block (bx, by) into `block`, returns it
+     */
+    public Block load(int bx, int by, Block block) {
+        FloatBuffer chunk = chunks[by / chunkRows];
+        int offset = ((by % chunkRows) * blocksX + bx) * 64;
+        float[] data = block.getData();
+        for (int i = 0; i < 64; i++) {
+            data[i] = chunk.get(offset + i);
+        }
+        return block;
+    }
+
+    public Plane store(int bx, int by, Block block) {
+        FloatBuffer chunk = chunks[by / chunkRows];
+        int offset = ((by % chunkRows) * blocksX + bx) * 64;
+        float[] data = block.getData();
+        for (int i = 0; i < 64; i++) {
+            chunk.put(offset + i, data[i]);
+        }
+        return this;
+    }
+
+    /*
+    Sets row y (0 <= y < height) from `row`'s first width samples, padding as Frame does: the last sample
+    fills the columns up to a multiple of 8 and the last row fills the rows below it
+     */
+    public Plane setRow(int y, float[] row) {
+        int last = y == height - 1 ? blocksY * 8 - 1 : y;
+        for (int line = y; line <= last; line++) {
+            FloatBuffer chunk = chunks[line / 8 / chunkRows];
+            int offset = ((line / 8) % chunkRows) * blocksX * 64 + (line % 8) * 8;
+            for (int x = 0; x < blocksX * 8; x++) {
+                chunk.put(offset + (x / 8) * 64 + x % 8, row[Math.min(x, width - 1)]);
+            }
+        }
+        return this;
+    }
+
+    /*
+    Copies row y into the first width samples of `row`, returns it
+     */
+    public float[] getRow(int y, float[] row) {
+        FloatBuffer chunk = chunks[y / 8 / chunkRows];
+        int offset = ((y / 8) % chunkRows) * blocksX * 64 + (y % 8) * 8;
+        for (int x = 0; x < width; x++) {
+            row[x] = chunk.get(offset + (x / 8) * 64 + x % 8);
+        }
+        return row;
+    }
+
+    /*
+    Loads every block into the worker's scratch Block (set to this plane's q and DCT), runs `action` on it and
+    stores it back; block rows run in parallel inside `pool`
+     */
+    public Plane forEach(Consumer<Block> action) {
+        sum(block -> {
+            action.accept(block);
+            return 0;
+        });
+        return this;
+    }
+
+    /*
+    forEach() with a result per block, e.g. a coded size; returns their sum
+     */
+    public long sum(ToIntFunction<Block> action) {
+        return pool.submit(() -> IntStream.range(0, blocksY).parallel().mapToLong(by -> {
+            Block block = scratch.get().setQ(q);
+            if (dct != null) {
+                block.setDCT(dct);
+            }
+            long sum = 0;
+            for (int bx = 0; bx < blocksX; bx++) {
+                sum += action.applyAsInt(load(bx, by, block));
+                store(bx, by, block);
+            }
+            return sum;
+        }).sum()).join();
+    }
+
+    public Plane setQ(int q) {
+        this.q = q;
+        return this;
+    }
+
+    /*
+    null for the default engine of the selected kernels
+     */
+    public Plane setDCT(DCT dct) {
+        this.dct = dct;
+        return this;
+    }
+
+    public Plane setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBlocksX() {
+        return blocksX;
+    }
+
+    public int getBlocksY() {
+        return blocksY;
+    }
+
+    public long getBlockCount() {
+        return (long) blocksX * blocksY;
+    }
+
+    /*
+    Off-heap bytes taken by the samples
+     */
+    public long getSize() {
+        return getBlockCount() * BLOCK_BYTES;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
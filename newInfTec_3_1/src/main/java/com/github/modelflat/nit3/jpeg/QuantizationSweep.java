@@ -0,0 +1,148 @@
+package com.github.modelflat.nit3.jpeg;
+
+import com.github.modelflat.nit3.jpeg.dct.DCT;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/*
+Rate/quality search over q for one frame. The level-shifted DCT of every block is computed once, by the
+constructor; evaluating a q then only quantizes the cached coefficients (through QuantizationTable's
+reciprocals) and, for the PSNR, decodes them. Results are the same as those of compressing a copy of the
+frame with that q.
+
+Sizes are measured like Frame.computeHuffmanSize(); PSNR is over the frame's pixels, padding excluded.
+ */
+public class QuantizationSweep {
+
+    public static final class Result {
+
+        private final int q;
+        private final int size;
+        private final double psnr;
+
+        Result(int q, int size, double psnr) {
+            this.q = q;
+            this.size = size;
+            this.psnr = psnr;
+        }
+
+        public int getQ() {
+            return q;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        // dB, infinite for a lossless result
+        public double getPSNR() {
+            return psnr;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int blocksX;
+    private final float[][] samples;
+    private final float[][] coefficients;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Block> work;
+
+    public QuantizationSweep(Frame frame) {
+        width = frame.getWidth();
+        height = frame.getHeight();
+        blocksX = frame.getBlocksX();
+        samples = new float[frame.getBlockCount()][];
+        coefficients = new float[frame.getBlockCount()][64];
+        pool = frame.getPool();
+        DCT dct = frame.getBlock(0, 0).getDCT();
+        work = ThreadLocal.withInitial(() -> new Block().setDCT(dct));
+        pool.submit(() -> IntStream.range(0, samples.length).parallel().forEach(i -> {
+            Block block = frame.getBlock(i % blocksX, i / blocksX);
+            samples[i] = Arrays.copyOf(block.getData(), 64);
+            block.transform(coefficients[i]);
+        })).join();
+    }
+
+    public Result evaluate(int q) {
+        return new Result(q, computeSize(q), computePSNR(q));
+    }
+
+    public Result[] evaluate(int... qs) {
+        Result[] results = new Result[qs.length];
+        for (int i = 0; i < qs.length; i++) {
+            results[i] = evaluate(qs[i]);
+        }
+        return results;
+    }
+
+    public int computeSize(int q) {
+        QuantizationTable table = QuantizationTable.of(q);
+        return (int) sum(i -> work.get().quantize(coefficients[i], table).computeHuffmanSize());
+    }
+
+    public double computePSNR(int q) {
+        QuantizationTable table = QuantizationTable.of(q);
+        double mse = sum(i -> squaredError(i, table)) / ((double) width * height);
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+    }
+
+    /*
+    Lowest q in [0, maxQ] (so the best quality) whose output is at most targetSize bytes, or maxQ if none is.
+    Binary search: assumes that size does not grow with q, which holds up to a few bytes of noise from the
+    per-block Huffman codes.
+     */
+    public Result searchSize(int targetSize, int maxQ) {
+        int low = 0;
+        int high = maxQ;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (computeSize(middle) <= targetSize) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return evaluate(low);
+    }
+
+    /*
+    Highest q in [0, maxQ] (so the smallest output) with a PSNR of at least targetPSNR, or 0 if none has.
+    Binary search: assumes that PSNR does not grow with q.
+     */
+    public Result searchPSNR(double targetPSNR, int maxQ) {
+        int low = 0;
+        int high = maxQ;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (computePSNR(middle) >= targetPSNR) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return evaluate(low);
+    }
+
+    private double squaredError(int index, QuantizationTable table) {
+        float[] restored = work.get().quantize(coefficients[index], table).decompress().getData();
+        float[] source = samples[index];
+        int rows = Math.min(8, height - index / blocksX * 8);
+        int columns = Math.min(8, width - index % blocksX * 8);
+        double error = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                double difference = restored[i * 8 + j] - source[i * 8 + j];
+                error += difference * difference;
+            }
+        }
+        return error;
+    }
+
+    private double sum(IntToDoubleFunction perBlock) {
+        return pool.submit(() -> IntStream.range(0, samples.length).parallel().mapToDouble(perBlock).sum()).join();
+    }
+}
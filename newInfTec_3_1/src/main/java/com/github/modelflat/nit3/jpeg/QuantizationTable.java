@@ -0,0 +1,99 @@
+package com.github.modelflat.nit3.jpeg;
+
+/*
+Quantization matrix for a given q, 1 + (i + j + 1) * q, together with its reciprocals and the fixed-point
+divisors of the integer path. Tables are immutable and shared: of() caches the ones for q in [0, CACHED).
+ */
+public final class QuantizationTable {
+
+    private static final int CACHED = 256;
+    // racy but benign: tables only have final fields, so a lost update just means one extra instance
+    private static final QuantizationTable[] CACHE = new QuantizationTable[CACHED];
+
+    private final int q;
+    private final float[] matrix = new float[64];
+    private final float[] reciprocal = new float[64];
+    private final int[] integerMatrix = new int[64];
+    // IntegerDCT output is scaled by 8: divisor = 8 * matrix, multiplier = ceil(2^32 / divisor)
+    private final int[] divisor = new int[64];
+    private final long[] multiplier = new long[64];
+    // magnitudes below this use the multiplier (0 if some divisor is too large for it)
+    private final int multiplierLimit;
+
+    private QuantizationTable(int q) {
+        this.q = q;
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                matrix[i * 8 + j] = 1 + (i + j + 1) * q;
+                reciprocal[i * 8 + j] = 1 / matrix[i * 8 + j];
+                integerMatrix[i * 8 + j] = 1 + (i + j + 1) * q;
+                divisor[i * 8 + j] = 8 * integerMatrix[i * 8 + j];
+                if (divisor[i * 8 + j] > 0) {
+                    multiplier[i * 8 + j] = ((1L << 32) + divisor[i * 8 + j] - 1) / divisor[i * 8 + j];
+                }
+            }
+        }
+        // the largest divisor is the last one
+        multiplierLimit = divisor[63] < 1 << 15 ? 1 << 16 : 0;
+    }
+
+    public static QuantizationTable of(int q) {
+        if (q < 0 || q >= CACHED) {
+            return new QuantizationTable(q);
+        }
+        QuantizationTable table = CACHE[q];
+        if (table == null) {
+            CACHE[q] = table = new QuantizationTable(q);
+        }
+        return table;
+    }
+
+    /*
+    out = round(in / matrix) exactly as Block.quantize() computes it, but with a multiplication by the
+    reciprocal. The product is within 2^-21 (relative) of the quotient, so it can only round differently when
+    it lies that close to a half-integer (or is too large for that margin to be below one ulp); only then is
+    the division done.
+     */
+    public void quantize(float[] in, float[] out) {
+        for (int i = 0; i < 64; i++) {
+            float scaled = in[i] * reciprocal[i];
+            int rounded = (int) (scaled + Math.copySign(0.5f, scaled));
+            float magnitude = Math.abs(scaled);
+            if (Math.abs(Math.abs(scaled - rounded) - 0.5f) <= magnitude * 0x1p-20f || magnitude >= 0x1p22f) {
+                rounded = Block.round(in[i] / matrix[i]);
+            }
+            out[i] = rounded;
+        }
+    }
+
+    /*
+    Quantizes IntegerDCT.forward() output: out = in / (8 * matrix), rounded half away from zero like the float
+    path. The division is a multiplication by the rounded-up reciprocal and a shift, which is exact as long as
+    (|in| + divisor / 2) * divisor < 2^32: that holds for |in| + divisor / 2 < 2^16 (every 8-bit block) when all
+    divisors are below 2^15 (q < 273), anything else is divided. The sign is handled without branches.
+     */
+    public void quantize(int[] in, float[] out) {
+        if (divisor[0] <= 0) {
+            throw new RuntimeException("Fixed-point quantization needs a positive matrix, q = " + q);
+        }
+        for (int i = 0; i < 64; i++) {
+            int sign = in[i] >> 31;
+            int magnitude = ((in[i] ^ sign) - sign) + (divisor[i] >> 1);
+            int quotient = magnitude < multiplierLimit ?
+                    (int) ((magnitude * multiplier[i]) >>> 32) : magnitude / divisor[i];
+            out[i] = (quotient ^ sign) - sign;
+        }
+    }
+
+    public int getQ() {
+        return q;
+    }
+
+    float[] getMatrix() {
+        return matrix;
+    }
+
+    int[] getIntegerMatrix() {
+        return integerMatrix;
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.modelflat.nit3.jpeg;
+
+/*
+JPEG-style run-length coding of a quantized block, in zigzag order.
+
+The first entry codes the DC coefficient as its size category alone. Every following entry is an AC
+symbol (run << 4) | size: `run` zero coefficients followed by a non-zero one of `size` bits. Runs longer
+than 15 are split with ZRL (16 zeros), and trailing zeros are replaced by a single EOB.
+
+Each entry is packed into one int as (symbol << 16) | amplitude, where amplitude holds the `size`-bit
+JPEG representation of the value (negative values stored as value - 1 in the low bits).
+ */
+public final class RunLength {
+
+    public static final int EOB = 0x00;
+    public static final int ZRL = 0xF0;
+
+    // at most one DC entry and 63 AC entries per block
+    public static final int MAX_ENTRIES = 64;
+
+    private RunLength() {
+    }
+
+    /*
+    Encodes 64 row-major values (rounded to integers) into `out`, returns the number of entries written
+     */
+    public static int encode(float[] block, int[] out) {
+        int count = 0;
+        out[count++] = entry(0, Block.round(block[0]));
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = Block.round(block[Zigzag.ORDER[k]]);
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                out[count++] = ZRL << 16;
+                run -= 16;
+            }
+            out[count++] = entry(run, value);
+            run = 0;
+        }
+        if (run > 0) {
+            out[count++] = EOB << 16;
+        }
+        return count;
+    }
+
+    /*
+    Inverse of encode(): fills all 64 row-major values of `block` from `count` entries
+     */
+    public static void decode(int[] in, int count, float[] block) {
+        block[0] = value(in[0]);
+        int k = 1;
+        for (int i = 1; i < count; i++) {
+            int symbol = symbol(in[i]);
+            if (symbol == EOB) {
+                break;
+            }
+            for (int zeros = symbol >>> 4; zeros > 0; zeros--) {
+                block[Zigzag.ORDER[k++]] = 0;
+            }
+            // for ZRL this is the 16th zero
+            block[Zigzag.ORDER[k++]] = value(in[i]);
+        }
+        while (k < 64) {
+            block[Zigzag.ORDER[k++]] = 0;
+        }
+    }
+
+    public static int entry(int run, int value) {
+        int size = sizeOf(value);
+        int amplitude = value >= 0 ? value : value + (1 << size) - 1;
+        return (((run << 4) | size) << 16) | amplitude;
+    }
+
+    public static int entry(int symbol, int amplitude, int size) {
+        return (symbol << 16) | (amplitude & ((1 << size) - 1));
+    }
+
+    public static int symbol(int entry) {
+        return entry >>> 16;
+    }
+
+    public static int size(int entry) {
+        return (entry >>> 16) & 0x0F;
+    }
+
+    public static int amplitude(int entry) {
+        return entry & 0xFFFF;
+    }
+
+    public static int value(int entry) {
+        int size = size(entry);
+        int amplitude = amplitude(entry);
+        if (size == 0) {
+            return 0;
+        }
+        return amplitude < 1 << (size - 1) ? amplitude - (1 << size) + 1 : amplitude;
+    }
+
+    /*
+    Number of bits in |value| (JPEG's magnitude category), 0 for 0
+     */
+    public static int sizeOf(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.modelflat.nit3.jpeg;
+
+/*
+Chroma sampling of a ColorFrame: how many luma samples one Cb/Cr sample covers horizontally and vertically
+ */
+public enum Subsampling {
+    // no subsampling, 3 samples per pixel
+    CHROMA_444(1, 1),
+    // half horizontal resolution, 2 samples per pixel
+    CHROMA_422(2, 1),
+    // half resolution both ways, 1.5 samples per pixel
+    CHROMA_420(2, 2);
+
+    private final int horizontal;
+    private final int vertical;
+
+    Subsampling(int horizontal, int vertical) {
+        this.horizontal = horizontal;
+        this.vertical = vertical;
+    }
+
+    public int getHorizontal() {
+        return horizontal;
+    }
+
+    public int getVertical() {
+        return vertical;
+    }
+}
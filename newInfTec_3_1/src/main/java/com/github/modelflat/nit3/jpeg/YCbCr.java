@@ -0,0 +1,87 @@
+package com.github.modelflat.nit3.jpeg;
+
+/*
+Table-driven JFIF colour conversion (the scheme of libjpeg's jccolor.c/jdcolor.c): every product of a
+coefficient and an 8-bit value is looked up in a 256-entry table of 16-bit fixed-point numbers, so converting
+a pixel takes a few loads and adds and no multiplication at all.
+
+Y  =  0.29900 R + 0.58700 G + 0.11400 B
+Cb = -0.16874 R - 0.33126 G + 0.50000 B + 128
+Cr =  0.50000 R - 0.41869 G - 0.08131 B + 128
+
+The encoder tables carry the +128 and the rounding half, so a Cb/Cr sum over n = 2^k pixels shifted right by
+16 + k is already the rounded average of those pixels: subsampling takes no separate pass and no extra
+rounding. The decoder tables are the inverse transform, clamped through RANGE.
+ */
+final class YCbCr {
+
+    static final int SCALE_BITS = 16;
+    private static final int ONE_HALF = 1 << (SCALE_BITS - 1);
+    private static final int CBCR_OFFSET = 128 << SCALE_BITS;
+
+    static final int[] R_Y = new int[256];
+    static final int[] G_Y = new int[256];
+    static final int[] B_Y = new int[256];
+    static final int[] R_CB = new int[256];
+    static final int[] G_CB = new int[256];
+    // also R_CR: both coefficients are 0.5
+    static final int[] B_CB = new int[256];
+    static final int[] G_CR = new int[256];
+    static final int[] B_CR = new int[256];
+
+    // red/blue offsets in samples, green offset before descaling
+    static final int[] CR_R = new int[256];
+    static final int[] CB_B = new int[256];
+    static final int[] CR_G = new int[256];
+    static final int[] CB_G = new int[256];
+
+    /*
+    RANGE[x + RANGE_OFFSET] is x clamped to [0, 255], for every x a luma sample plus a chroma offset can give
+     */
+    static final int RANGE_OFFSET = 256;
+    static final int[] RANGE = new int[3 * 256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            R_Y[i] = fix(0.29900) * i;
+            G_Y[i] = fix(0.58700) * i;
+            B_Y[i] = fix(0.11400) * i + ONE_HALF;
+            R_CB[i] = -fix(0.16874) * i;
+            G_CB[i] = -fix(0.33126) * i;
+            B_CB[i] = fix(0.50000) * i + CBCR_OFFSET + ONE_HALF - 1;
+            G_CR[i] = -fix(0.41869) * i;
+            B_CR[i] = -fix(0.08131) * i;
+
+            int x = i - 128;
+            CR_R[i] = (fix(1.40200) * x + ONE_HALF) >> SCALE_BITS;
+            CB_B[i] = (fix(1.77200) * x + ONE_HALF) >> SCALE_BITS;
+            CR_G[i] = -fix(0.71414) * x;
+            CB_G[i] = -fix(0.34414) * x + ONE_HALF;
+        }
+        for (int i = 0; i < RANGE.length; i++) {
+            RANGE[i] = Math.min(255, Math.max(0, i - RANGE_OFFSET));
+        }
+    }
+
+    private YCbCr() {
+    }
+
+    static int luma(int r, int g, int b) {
+        return (R_Y[r] + G_Y[g] + B_Y[b]) >> SCALE_BITS;
+    }
+
+    /*
+    Cb before descaling: sum over the pixels of a subsampling group, then shift by SCALE_BITS + log2(group)
+     */
+    static int cb(int r, int g, int b) {
+        return R_CB[r] + G_CB[g] + B_CB[b];
+    }
+
+    static int cr(int r, int g, int b) {
+        return B_CB[r] + G_CR[g] + B_CR[b];
+    }
+
+    private static int fix(double x) {
+        return (int) (x * (1L << SCALE_BITS) + 0.5);
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.modelflat.nit3.jpeg.dct;
+
+/*
+Arai-Agui-Nakajima fast DCT (the factorization used by libjpeg's jfdctflt/jidctflt): 5 multiplications and
+29 additions per 1D transform. The AAN outputs come out scaled by 8 * s(u) * s(v), s(0) = 1 and
+s(k) = sqrt(2) * cos(k pi / 16); the scale is removed after the forward transform and folded into the
+input of the inverse one.
+ */
+class AANDCT implements DCT {
+
+    // DESCALE[u * 8 + v] = 1 / (8 * s(u) * s(v)), PRESCALE[u * 8 + v] = s(u) * s(v) / 8
+    // (these, the constants and the 1D passes below are shared with VectorAANDCT from src/vector)
+    static final float[] DESCALE = new float[64];
+    static final float[] PRESCALE = new float[64];
+
+    static {
+        double[] s = new double[8];
+        s[0] = 1;
+        for (int k = 1; k < 8; k++) {
+            s[k] = Math.sqrt(2) * Math.cos(k * Math.PI / 16);
+        }
+        for (int u = 0; u < 8; u++) {
+            for (int v = 0; v < 8; v++) {
+                DESCALE[u * 8 + v] = (float) (1 / (8 * s[u] * s[v]));
+                PRESCALE[u * 8 + v] = (float) (s[u] * s[v] / 8);
+            }
+        }
+    }
+
+    static final float R2 = 0.707106781f;  // cos(4 pi / 16)
+    static final float C6 = 0.382683433f;  // cos(6 pi / 16)
+    static final float C2mC6 = 0.541196100f;  // cos(2 pi / 16) - cos(6 pi / 16)
+    static final float C2pC6 = 1.306562965f;  // cos(2 pi / 16) + cos(6 pi / 16)
+
+    static final float S2 = 1.414213562f;
+    static final float I1 = 1.847759065f;
+    static final float I2 = 1.082392200f;
+    static final float I3 = 2.613125930f;
+
+    @Override
+    public void forward(float[] in, float[] out) {
+        System.arraycopy(in, 0, out, 0, 64);
+        for (int i = 0; i < 64; i += 8) {
+            forward1D(out, i, 1);
+        }
+        for (int i = 0; i < 8; i++) {
+            forward1D(out, i, 8);
+        }
+        for (int i = 0; i < 64; i++) {
+            out[i] *= DESCALE[i];
+        }
+    }
+
+    @Override
+    public void inverse(float[] in, float[] out) {
+        for (int i = 0; i < 64; i++) {
+            out[i] = in[i] * PRESCALE[i];
+        }
+        for (int i = 0; i < 64; i += 8) {
+            inverse1D(out, i, 1);
+        }
+        for (int i = 0; i < 8; i++) {
+            inverse1D(out, i, 8);
+        }
+    }
+
+    static void forward1D(float[] d, int o, int s) {
+        float tmp0 = d[o] + d[o + 7 * s];
+        float tmp7 = d[o] - d[o + 7 * s];
+        float tmp1 = d[o + s] + d[o + 6 * s];
+        float tmp6 = d[o + s] - d[o + 6 * s];
+        float tmp2 = d[o + 2 * s] + d[o + 5 * s];
+        float tmp5 = d[o + 2 * s] - d[o + 5 * s];
+        float tmp3 = d[o + 3 * s] + d[o + 4 * s];
+        float tmp4 = d[o + 3 * s] - d[o + 4 * s];
+
+        // even part
+        float tmp10 = tmp0 + tmp3;
+        float tmp13 = tmp0 - tmp3;
+        float tmp11 = tmp1 + tmp2;
+        float tmp12 = tmp1 - tmp2;
+
+        d[o] = tmp10 + tmp11;
+        d[o + 4 * s] = tmp10 - tmp11;
+
+        float z1 = (tmp12 + tmp13) * R2;
+        d[o + 2 * s] = tmp13 + z1;
+        d[o + 6 * s] = tmp13 - z1;
+
+        // odd part
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+
+        float z5 = (tmp10 - tmp12) * C6;
+        float z2 = C2mC6 * tmp10 + z5;
+        float z4 = C2pC6 * tmp12 + z5;
+        float z3 = tmp11 * R2;
+
+        float z11 = tmp7 + z3;
+        float z13 = tmp7 - z3;
+
+        d[o + 5 * s] = z13 + z2;
+        d[o + 3 * s] = z13 - z2;
+        d[o + s] = z11 + z4;
+        d[o + 7 * s] = z11 - z4;
+    }
+
+    static void inverse1D(float[] d, int o, int s) {
+        // even part
+        float tmp0 = d[o];
+        float tmp1 = d[o + 2 * s];
+        float tmp2 = d[o + 4 * s];
+        float tmp3 = d[o + 6 * s];
+
+        float tmp10 = tmp0 + tmp2;
+        float tmp11 = tmp0 - tmp2;
+        float tmp13 = tmp1 + tmp3;
+        float tmp12 = (tmp1 - tmp3) * S2 - tmp13;
+
+        tmp0 = tmp10 + tmp13;
+        tmp3 = tmp10 - tmp13;
+        tmp1 = tmp11 + tmp12;
+        tmp2 = tmp11 - tmp12;
+
+        // odd part
+        float tmp4 = d[o + s];
+        float tmp5 = d[o + 3 * s];
+        float tmp6 = d[o + 5 * s];
+        float tmp7 = d[o + 7 * s];
+
+        float z13 = tmp6 + tmp5;
+        float z10 = tmp6 - tmp5;
+        float z11 = tmp4 + tmp7;
+        float z12 = tmp4 - tmp7;
+
+        tmp7 = z11 + z13;
+        tmp11 = (z11 - z13) * S2;
+
+        float z5 = (z10 + z12) * I1;
+        tmp10 = z5 - z12 * I2;
+        tmp12 = z5 - z10 * I3;
+
+        tmp6 = tmp12 - tmp7;
+        tmp5 = tmp11 - tmp6;
+        tmp4 = tmp10 - tmp5;
+
+        d[o] = tmp0 + tmp7;
+        d[o + 7 * s] = tmp0 - tmp7;
+        d[o + s] = tmp1 + tmp6;
+        d[o + 6 * s] = tmp1 - tmp6;
+        d[o + 2 * s] = tmp2 + tmp5;
+        d[o + 5 * s] = tmp2 - tmp5;
+        d[o + 3 * s] = tmp3 + tmp4;
+        d[o + 4 * s] = tmp3 - tmp4;
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.modelflat.nit3.jpeg.dct;
+
+/*
+8x8 two-dimensional DCT-II and its inverse, on row-major float[64] blocks:
+
+    F(u, v) = c(u) * c(v) / 4 * sum(x, y) f(x, y) * cos((2x + 1)u pi / 16) * cos((2y + 1)v pi / 16)
+
+where c(0) = 1 / sqrt(2) and c(k) = 1 otherwise.
+
+Implementations must be stateless (so one instance can be shared between threads), must not modify
+`in`, and are not required to support `in == out`.
+ */
+public interface DCT {
+
+    void forward(float[] in, float[] out);
+
+    void inverse(float[] in, float[] out);
+
+}
@@ -0,0 +1,73 @@
+package com.github.modelflat.nit3.jpeg.dct;
+
+import java.util.Random;
+
+public enum DCTType {
+
+    REFERENCE(new ReferenceDCT()),
+    SEPARABLE(new SeparableDCT()),
+    AAN(new AANDCT());
+
+    /*
+    Maximum absolute difference from REFERENCE allowed per coefficient (forward) or per sample (inverse),
+    for inputs in the level-shifted 8-bit range [-128, 127]. Coefficients there are bounded by 1024 in
+    magnitude, so this is well above float rounding noise and well below anything quantization could see.
+     */
+    public static final float TOLERANCE = 1e-2f;
+
+    private final DCT dct;
+
+    DCTType(DCT dct) {
+        this.dct = dct;
+    }
+
+    public DCT get() {
+        return dct;
+    }
+
+    public static DCTType fastest() {
+        return AAN;
+    }
+
+    /*
+    Runs forward and inverse transforms of this engine and REFERENCE over random level-shifted blocks and
+    returns the largest absolute difference seen.
+     */
+    public float maxError(int blocks) {
+        Random random = new Random(42);
+        DCT reference = REFERENCE.get();
+        float[] input = new float[64];
+        float[] expected = new float[64];
+        float[] actual = new float[64];
+        float maxError = 0;
+        for (int b = 0; b < blocks; b++) {
+            for (int i = 0; i < 64; i++) {
+                input[i] = random.nextInt(256) - 128;
+            }
+            reference.forward(input, expected);
+            dct.forward(input, actual);
+            maxError = Math.max(maxError, maxDifference(expected, actual));
+            reference.inverse(expected, input);
+            dct.inverse(expected, actual);
+            maxError = Math.max(maxError, maxDifference(input, actual));
+        }
+        return maxError;
+    }
+
+    public DCTType verify() {
+        float error = maxError(1000);
+        if (error > TOLERANCE) {
+            throw new RuntimeException(String.format(
+                    "DCT engine %s deviates from reference by %f (tolerance %f)", this, error, TOLERANCE));
+        }
+        return this;
+    }
+
+    private static float maxDifference(float[] a, float[] b) {
+        float max = 0;
+        for (int i = 0; i < 64; i++) {
+            max = Math.max(max, Math.abs(a[i] - b[i]));
+        }
+        return max;
+    }
+}
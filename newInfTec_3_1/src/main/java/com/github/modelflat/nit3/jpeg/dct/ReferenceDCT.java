@@ -0,0 +1,61 @@
+package com.github.modelflat.nit3.jpeg.dct;
+
+/*
+Direct O(n^4) evaluation of the DCT formula, with all cosines taken from a precomputed table.
+ */
+class ReferenceDCT implements DCT {
+
+    // COS[k * 8 + x] = cos((2x + 1) * k * pi / 16)
+    private static final float[] COS = new float[64];
+    // SCALE[u * 8 + v] = c(u) * c(v) / 4
+    private static final float[] SCALE = new float[64];
+
+    static {
+        for (int k = 0; k < 8; k++) {
+            for (int x = 0; x < 8; x++) {
+                COS[k * 8 + x] = (float) Math.cos((2 * x + 1) * k * Math.PI / 16);
+            }
+        }
+        for (int u = 0; u < 8; u++) {
+            for (int v = 0; v < 8; v++) {
+                SCALE[u * 8 + v] = (float) (c(u) * c(v) / 4);
+            }
+        }
+    }
+
+    @Override
+    public void forward(float[] in, float[] out) {
+        for (int u = 0; u < 8; u++) {
+            for (int v = 0; v < 8; v++) {
+                float sum = 0;
+                for (int x = 0; x < 8; x++) {
+                    float cu = COS[u * 8 + x];
+                    for (int y = 0; y < 8; y++) {
+                        sum += in[x * 8 + y] * cu * COS[v * 8 + y];
+                    }
+                }
+                out[u * 8 + v] = sum * SCALE[u * 8 + v];
+            }
+        }
+    }
+
+    @Override
+    public void inverse(float[] in, float[] out) {
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                float sum = 0;
+                for (int u = 0; u < 8; u++) {
+                    float cu = COS[u * 8 + x];
+                    for (int v = 0; v < 8; v++) {
+                        sum += SCALE[u * 8 + v] * in[u * 8 + v] * cu * COS[v * 8 + y];
+                    }
+                }
+                out[x * 8 + y] = sum;
+            }
+        }
+    }
+
+    private static double c(int k) {
+        return k == 0 ? 1 / Math.sqrt(2) : 1;
+    }
+}
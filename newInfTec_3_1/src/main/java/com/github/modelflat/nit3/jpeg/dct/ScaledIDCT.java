@@ -0,0 +1,68 @@
+package com.github.modelflat.nit3.jpeg.dct;
+
+/*
+Inverse DCT of an 8x8 block straight to size x size samples (size = 1, 2 or 4), as libjpeg's reduced IDCTs
+do: only the size x size lowest frequencies are used, through the size-point inverse with the 8-point scale
+
+    f(i, j) = sum(u, v < size) c(u) * c(v) / 4 * F(u, v) * cos((2i + 1)u pi / 2size) * cos((2j + 1)v pi / 2size)
+
+so each output sample is about the mean of the (8 / size) x (8 / size) pixels it stands for; for size = 1 it
+is F(0, 0) / 8 exactly, the mean of the block.
+ */
+public final class ScaledIDCT {
+
+    // C[size][u * size + i] = c(u) / 2 * cos((2i + 1) * u * pi / 2size)
+    private static final float[][] C = new float[5][];
+
+    static {
+        for (int size = 1; size <= 4; size *= 2) {
+            C[size] = new float[size * size];
+            for (int u = 0; u < size; u++) {
+                double cu = u == 0 ? 1 / Math.sqrt(2) : 1;
+                for (int i = 0; i < size; i++) {
+                    C[size][u * size + i] = (float) (cu / 2 * Math.cos((2 * i + 1) * u * Math.PI / (2 * size)));
+                }
+            }
+        }
+    }
+
+    private ScaledIDCT() {
+    }
+
+    public static boolean isSupported(int size) {
+        return size == 1 || size == 2 || size == 4;
+    }
+
+    /*
+    `in` is a row-major 8x8 block of which only the top-left size x size coefficients are read; the result
+    is the top-left size x size of row-major 8x8 `out`, whose rows 4 to 7 are used as workspace. `in` is read
+    before the result is written, so it may be `out`.
+     */
+    public static void inverse(float[] in, int size, float[] out) {
+        if (size == 1) {
+            out[0] = in[0] / 8;
+            return;
+        }
+        float[] c = C[size];
+        // rows: out[4 + u][j] = sum(v) in[u][v] * C[v][j]
+        for (int u = 0; u < size; u++) {
+            for (int j = 0; j < size; j++) {
+                float sum = 0;
+                for (int v = 0; v < size; v++) {
+                    sum += in[u * 8 + v] * c[v * size + j];
+                }
+                out[(4 + u) * 8 + j] = sum;
+            }
+        }
+        // columns: out[i][j] = sum(u) C[u][i] * out[4 + u][j]
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                float sum = 0;
+                for (int u = 0; u < size; u++) {
+                    sum += c[u * size + i] * out[(4 + u) * 8 + j];
+                }
+                out[i * 8 + j] = sum;
+            }
+        }
+    }
+}
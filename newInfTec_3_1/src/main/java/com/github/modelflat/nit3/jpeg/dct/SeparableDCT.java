@@ -0,0 +1,75 @@
+package com.github.modelflat.nit3.jpeg.dct;
+
+/*
+Separable O(n^3) DCT: F = C * f * C^T, i.e. eight 1D transforms over rows followed by eight over columns.
+ */
+class SeparableDCT implements DCT {
+
+    // C[u * 8 + x] = c(u) / 2 * cos((2x + 1) * u * pi / 16)
+    private static final float[] C = new float[64];
+
+    static {
+        for (int u = 0; u < 8; u++) {
+            double cu = u == 0 ? 1 / Math.sqrt(2) : 1;
+            for (int x = 0; x < 8; x++) {
+                C[u * 8 + x] = (float) (cu / 2 * Math.cos((2 * x + 1) * u * Math.PI / 16));
+            }
+        }
+    }
+
+    @Override
+    public void forward(float[] in, float[] out) {
+        // rows: out[x][v] = sum(y) in[x][y] * C[v][y]
+        for (int x = 0; x < 8; x++) {
+            for (int v = 0; v < 8; v++) {
+                float sum = 0;
+                for (int y = 0; y < 8; y++) {
+                    sum += in[x * 8 + y] * C[v * 8 + y];
+                }
+                out[x * 8 + v] = sum;
+            }
+        }
+        // columns, in place: out[u][v] = sum(x) C[u][x] * out[x][v]
+        for (int v = 0; v < 8; v++) {
+            column(out, v);
+        }
+    }
+
+    @Override
+    public void inverse(float[] in, float[] out) {
+        // rows: out[u][y] = sum(v) in[u][v] * C[v][y]
+        for (int u = 0; u < 8; u++) {
+            for (int y = 0; y < 8; y++) {
+                float sum = 0;
+                for (int v = 0; v < 8; v++) {
+                    sum += in[u * 8 + v] * C[v * 8 + y];
+                }
+                out[u * 8 + y] = sum;
+            }
+        }
+        // columns, in place: out[x][y] = sum(u) C[u][x] * out[u][y]
+        for (int y = 0; y < 8; y++) {
+            inverseColumn(out, y);
+        }
+    }
+
+    // the column is kept in locals so that the pass can run in place without a scratch array
+    private static void column(float[] m, int v) {
+        float f0 = m[v], f1 = m[8 + v], f2 = m[16 + v], f3 = m[24 + v],
+              f4 = m[32 + v], f5 = m[40 + v], f6 = m[48 + v], f7 = m[56 + v];
+        for (int u = 0; u < 8; u++) {
+            int r = u * 8;
+            m[r + v] = C[r] * f0 + C[r + 1] * f1 + C[r + 2] * f2 + C[r + 3] * f3 +
+                       C[r + 4] * f4 + C[r + 5] * f5 + C[r + 6] * f6 + C[r + 7] * f7;
+        }
+    }
+
+    private static void inverseColumn(float[] m, int y) {
+        float f0 = m[y], f1 = m[8 + y], f2 = m[16 + y], f3 = m[24 + y],
+              f4 = m[32 + y], f5 = m[40 + y], f6 = m[48 + y], f7 = m[56 + y];
+        for (int x = 0; x < 8; x++) {
+            m[x * 8 + y] = C[x] * f0 + C[8 + x] * f1 + C[16 + x] * f2 + C[24 + x] * f3 +
+                           C[32 + x] * f4 + C[40 + x] * f5 + C[48 + x] * f6 + C[56 + x] * f7;
+        }
+    }
+}
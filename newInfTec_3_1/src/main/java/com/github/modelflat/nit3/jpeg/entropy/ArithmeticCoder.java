@@ -0,0 +1,177 @@
+package com.github.modelflat.nit3.jpeg.entropy;
+
+import com.github.modelflat.nit3.jpeg.Block;
+import com.github.modelflat.nit3.jpeg.RunLength;
+
+import java.nio.ByteBuffer;
+
+/*
+Context-adaptive binary arithmetic coding of quantized blocks, binarized the way JPEG's arithmetic mode
+(T.81 Annex F) does it, over RangeEncoder instead of the QM coder. Per block, in zigzag order:
+
+ - the DC coefficient: a zero bin, then for a non-zero value its sign and magnitude;
+ - before each AC position k that may hold a non-zero coefficient, an end-of-block bin (context k: set if
+   every coefficient from k on is zero), then a zero bin per zero coefficient up to the next non-zero one
+   (context k again), then that coefficient's sign and magnitude.
+
+A magnitude m of size category s (RunLength.sizeOf()) is s - 1 in unary (a context per bin position, the
+last one omitted at MAX_SIZE), then the s - 1 bits of m below its leading 1 as bypass bins. AC magnitudes
+have separate contexts for the low and high frequencies. Probabilities adapt over the whole stream, so no
+table precedes it, and they learn e.g. how often a position is the last non-zero one, which Huffman's
+run/size symbols cannot express.
+ */
+public class ArithmeticCoder implements EntropyCoder {
+
+    // 4-bit size field of RunLength
+    static final int MAX_SIZE = 15;
+    // AC positions below this use the low-frequency magnitude contexts
+    static final int LOW_FREQUENCIES = 6;
+
+    private static final int DC_ZERO = 0;
+    private static final int DC_SIGN = 1;
+    private static final int DC_SIZE = 2;
+    private static final int AC_END = DC_SIZE + MAX_SIZE;
+    private static final int AC_ZERO = AC_END + 64;
+    private static final int AC_SIGN = AC_ZERO + 64;
+    private static final int AC_SIZE = AC_SIGN + 1;
+    private static final int CONTEXTS = AC_SIZE + 2 * MAX_SIZE;
+
+    /*
+    Worst case per block: the DC and 63 ACs with every bin, a context-coded bin taking at most
+    log2(2048 / 31) < 7 bits (31 / 2048 being the lowest probability adaptation reaches)
+     */
+    static final int MAX_BLOCK_BITS = 7 * (1 + 1 + MAX_SIZE + 63 * (2 + 1 + MAX_SIZE)) +
+            64 * (MAX_SIZE - 1);
+
+    @Override
+    public Encoder newEncoder(ByteBuffer buffer) {
+        RangeEncoder encoder = new RangeEncoder(buffer);
+        int[] contexts = RangeEncoder.newContexts(CONTEXTS);
+        int[] coefficients = new int[64];
+        return new Encoder() {
+            @Override
+            public Encoder encode(Block block) {
+                int last = toCoefficients(block, coefficients);
+                int dc = coefficients[0];
+                encoder.encode(contexts, DC_ZERO, dc == 0 ? 0 : 1);
+                if (dc != 0) {
+                    encodeValue(encoder, contexts, DC_SIGN, DC_SIZE, dc);
+                }
+                int k = 1;
+                while (k < 64) {
+                    encoder.encode(contexts, AC_END + k, k > last ? 1 : 0);
+                    if (k > last) {
+                        break;
+                    }
+                    while (coefficients[k] == 0) {
+                        encoder.encode(contexts, AC_ZERO + k, 0);
+                        k++;
+                    }
+                    encoder.encode(contexts, AC_ZERO + k, 1);
+                    encodeValue(encoder, contexts, AC_SIGN, acSizeContext(k), coefficients[k]);
+                    k++;
+                }
+                return this;
+            }
+
+            @Override
+            public ByteBuffer flush() {
+                return encoder.flush();
+            }
+        };
+    }
+
+    @Override
+    public Decoder newDecoder(ByteBuffer buffer) {
+        RangeDecoder decoder = new RangeDecoder(buffer);
+        int[] contexts = RangeEncoder.newContexts(CONTEXTS);
+        int[] entries = new int[RunLength.MAX_ENTRIES];
+        return block -> {
+            int dc = decoder.decode(contexts, DC_ZERO) == 0 ? 0 : decodeValue(decoder, contexts, DC_SIGN, DC_SIZE);
+            entries[0] = RunLength.entry(0, dc);
+            int count = 1;
+            int k = 1;
+            while (k < 64) {
+                if (decoder.decode(contexts, AC_END + k) != 0) {
+                    entries[count++] = RunLength.EOB << 16;
+                    break;
+                }
+                int run = 0;
+                while (decoder.decode(contexts, AC_ZERO + k) == 0) {
+                    if (++k == 64) {
+                        throw new RuntimeException("Invalid arithmetic-coded block: no coefficient after zeros");
+                    }
+                    run++;
+                }
+                for (; run > 15; run -= 16) {
+                    entries[count++] = RunLength.ZRL << 16;
+                }
+                entries[count++] = RunLength.entry(run, decodeValue(decoder, contexts, AC_SIGN, acSizeContext(k)));
+                k++;
+            }
+            return block.decodeRLE(entries, count);
+        };
+    }
+
+    @Override
+    public int maxSize(int blocks) {
+        return EntropyCoderType.ARITHMETIC.maxSize(blocks);
+    }
+
+    private static int acSizeContext(int k) {
+        return AC_SIZE + (k < LOW_FREQUENCIES ? 0 : MAX_SIZE);
+    }
+
+    /*
+    Zigzag-ordered values of the block's run-length entries, returns the position of the last non-zero one
+    (0 if there is none)
+     */
+    private static int toCoefficients(Block block, int[] coefficients) {
+        int count = block.encodeRLE();
+        int[] rle = block.getRLE();
+        coefficients[0] = RunLength.value(rle[0]);
+        int k = 1;
+        int last = 0;
+        for (int i = 1; i < count; i++) {
+            int symbol = RunLength.symbol(rle[i]);
+            if (symbol == RunLength.EOB) {
+                break;
+            }
+            for (int zeros = symbol >>> 4; zeros > 0; zeros--) {
+                coefficients[k++] = 0;
+            }
+            coefficients[k] = RunLength.value(rle[i]);
+            if (coefficients[k] != 0) {
+                last = k;
+            }
+            k++;
+        }
+        while (k < 64) {
+            coefficients[k++] = 0;
+        }
+        return last;
+    }
+
+    private static void encodeValue(RangeEncoder encoder, int[] contexts, int sign, int size, int value) {
+        encoder.encode(contexts, sign, value < 0 ? 1 : 0);
+        int magnitude = Math.abs(value);
+        int bits = RunLength.sizeOf(magnitude) - 1;
+        for (int i = 0; i < bits; i++) {
+            encoder.encode(contexts, size + i, 1);
+        }
+        if (bits < MAX_SIZE - 1) {
+            encoder.encode(contexts, size + bits, 0);
+        }
+        encoder.encodeBypass(magnitude, bits);
+    }
+
+    private static int decodeValue(RangeDecoder decoder, int[] contexts, int sign, int size) {
+        boolean negative = decoder.decode(contexts, sign) != 0;
+        int bits = 0;
+        while (bits < MAX_SIZE - 1 && decoder.decode(contexts, size + bits) != 0) {
+            bits++;
+        }
+        int magnitude = 1 << bits | decoder.decodeBypass(bits);
+        return negative ? -magnitude : magnitude;
+    }
+}
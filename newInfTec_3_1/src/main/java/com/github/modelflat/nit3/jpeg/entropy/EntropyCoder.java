@@ -0,0 +1,48 @@
+package com.github.modelflat.nit3.jpeg.entropy;
+
+import com.github.modelflat.nit3.jpeg.Block;
+
+import java.nio.ByteBuffer;
+
+/*
+Lossless coding of quantized blocks (their run-length entries, see RunLength) into a byte stream.
+
+A coder describes a stream format; its encoders and decoders hold the state of one stream (bit buffers,
+adaptive contexts), so blocks must be decoded in the order they were encoded, and neither is thread-safe.
+Coders themselves are immutable and can be shared.
+ */
+public interface EntropyCoder {
+
+    /*
+    Starts a stream at the buffer's position
+     */
+    Encoder newEncoder(ByteBuffer buffer);
+
+    /*
+    Reads a stream written by newEncoder() from the buffer's position
+     */
+    Decoder newDecoder(ByteBuffer buffer);
+
+    /*
+    Upper bound of the bytes a stream of `blocks` blocks takes, flush() included
+     */
+    int maxSize(int blocks);
+
+    interface Encoder {
+
+        Encoder encode(Block block);
+
+        /*
+        Writes out everything still buffered; the buffer is left positioned after the stream
+         */
+        ByteBuffer flush();
+    }
+
+    interface Decoder {
+
+        /*
+        Replaces the quantized coefficients of `block` with the next block of the stream
+         */
+        Block decode(Block block);
+    }
+}
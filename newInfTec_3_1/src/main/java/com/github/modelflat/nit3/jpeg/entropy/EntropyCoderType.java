@@ -0,0 +1,23 @@
+package com.github.modelflat.nit3.jpeg.entropy;
+
+public enum EntropyCoderType {
+    // run/size symbols with a Huffman code fitted to the data, sent ahead of it (HuffmanCoder)
+    HUFFMAN(HuffmanCoder.MAX_BLOCK_BITS, 0),
+    // context-adaptive binary arithmetic coding, no table (ArithmeticCoder)
+    ARITHMETIC(ArithmeticCoder.MAX_BLOCK_BITS, RangeEncoder.FLUSH_BYTES);
+
+    private final int maxBlockBits;
+    private final int flushBytes;
+
+    EntropyCoderType(int maxBlockBits, int flushBytes) {
+        this.maxBlockBits = maxBlockBits;
+        this.flushBytes = flushBytes;
+    }
+
+    /*
+    Upper bound of the bytes a stream of `blocks` blocks takes with coders of this type (see EntropyCoder)
+     */
+    public int maxSize(int blocks) {
+        return (int) (((long) maxBlockBits * blocks + 7) / 8) + flushBytes;
+    }
+}
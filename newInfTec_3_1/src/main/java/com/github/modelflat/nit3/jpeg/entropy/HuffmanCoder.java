@@ -0,0 +1,62 @@
+package com.github.modelflat.nit3.jpeg.entropy;
+
+import com.github.modelflat.nit3.jpeg.Block;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCode;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanDecoder;
+import com.github.modelflat.nit3.jpeg.io.BitReader;
+import com.github.modelflat.nit3.jpeg.io.BitWriter;
+
+import java.nio.ByteBuffer;
+
+/*
+Block.writeHuffman() / readHuffman() with one code for all blocks, without byte stuffing. The code is not
+part of the stream: both sides must know it (see ResidualCoder for one written ahead of the stream).
+ */
+public class HuffmanCoder implements EntropyCoder {
+
+    // a 16-bit code and the amplitude bits of the DC and each of 63 ACs (as JFIFWriter, unstuffed)
+    static final int MAX_BLOCK_BITS = 16 + 15 + 63 * (16 + 15);
+
+    private final HuffmanCode code;
+    private final HuffmanDecoder decoder;
+
+    public HuffmanCoder(HuffmanCode code) {
+        this.code = code;
+        this.decoder = new HuffmanDecoder(code);
+    }
+
+    @Override
+    public Encoder newEncoder(ByteBuffer buffer) {
+        BitWriter writer = new BitWriter(buffer);
+        return new Encoder() {
+            @Override
+            public Encoder encode(Block block) {
+                block.writeHuffman(code, writer);
+                return this;
+            }
+
+            @Override
+            public ByteBuffer flush() {
+                return writer.flush();
+            }
+        };
+    }
+
+    /*
+    The reader buffers up to 8 bytes ahead, so the buffer's position after decoding is not the stream's end
+     */
+    @Override
+    public Decoder newDecoder(ByteBuffer buffer) {
+        BitReader reader = new BitReader(buffer);
+        return block -> block.readHuffman(decoder, reader);
+    }
+
+    @Override
+    public int maxSize(int blocks) {
+        return EntropyCoderType.HUFFMAN.maxSize(blocks);
+    }
+
+    public HuffmanCode getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.modelflat.nit3.jpeg.entropy;
+
+import java.nio.ByteBuffer;
+
+import static com.github.modelflat.nit3.jpeg.entropy.RangeEncoder.*;
+
+/*
+Inverse of RangeEncoder: `code` is the offset of the encoder's value inside the current interval, so every
+bin is a comparison against the bound of its context. Reads exactly the bytes the encoder wrote (zeros past
+the end of the buffer).
+ */
+final class RangeDecoder {
+
+    private final ByteBuffer buffer;
+    private long range = MASK;
+    private long code;
+
+    RangeDecoder(ByteBuffer buffer) {
+        this.buffer = buffer;
+        for (int i = 0; i < FLUSH_BYTES; i++) {
+            code = (code << 8 | next()) & MASK;
+        }
+    }
+
+    int decode(int[] contexts, int context) {
+        int probability = contexts[context];
+        long bound = (range >>> PROBABILITY_BITS) * probability;
+        int bin;
+        if (code < bound) {
+            range = bound;
+            contexts[context] = probability + ((ONE - probability) >>> ADAPTATION_SHIFT);
+            bin = 0;
+        } else {
+            code -= bound;
+            range -= bound;
+            contexts[context] = probability - (probability >>> ADAPTATION_SHIFT);
+            bin = 1;
+        }
+        normalize();
+        return bin;
+    }
+
+    int decodeBypass(int count) {
+        int bits = 0;
+        for (int i = 0; i < count; i++) {
+            range >>>= 1;
+            int bin = code >= range ? 1 : 0;
+            code -= range & -bin;
+            bits = bits << 1 | bin;
+            normalize();
+        }
+        return bits;
+    }
+
+    private void normalize() {
+        while (range < TOP) {
+            range <<= 8;
+            code = (code << 8 | next()) & MASK;
+        }
+    }
+
+    private int next() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : 0;
+    }
+}
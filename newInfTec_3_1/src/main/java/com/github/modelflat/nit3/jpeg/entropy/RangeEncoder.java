@@ -0,0 +1,97 @@
+package com.github.modelflat.nit3.jpeg.entropy;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+Adaptive binary range coder (the LZMA flavour of arithmetic coding): the interval [low, low + range) is
+narrowed by every bin in proportion to its context's probability, and renormalized a byte at a time once
+range drops below 2^24, so the bytes leave the coder as soon as they are settled.
+
+`low` lives in a long: its bit 32 catches the carry an addition may propagate into bytes already shifted out.
+The last byte shifted out and a run of 0xFF bytes after it are held back (`cache`, `pending`) until it is
+known whether that carry comes, then written with it.
+
+A context is an int holding the 11-bit probability of a 0 bin, moved towards every bin coded with it by
+1/32 of the distance; bypass bins are coded at probability 1/2 without a context.
+ */
+final class RangeEncoder {
+
+    static final int PROBABILITY_BITS = 11;
+    static final int ONE = 1 << PROBABILITY_BITS;
+    static final int ADAPTATION_SHIFT = 5;
+    static final long TOP = 1L << 24;
+    static final long MASK = 0xFFFFFFFFL;
+    // bytes flush() adds to the coded bins; the decoder reads as many ahead
+    static final int FLUSH_BYTES = 5;
+
+    private final ByteBuffer buffer;
+    private long low;
+    private long range = MASK;
+    private int cache;
+    private long pending = 1;
+
+    RangeEncoder(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    static int[] newContexts(int count) {
+        int[] contexts = new int[count];
+        Arrays.fill(contexts, ONE / 2);
+        return contexts;
+    }
+
+    void encode(int[] contexts, int context, int bin) {
+        int probability = contexts[context];
+        long bound = (range >>> PROBABILITY_BITS) * probability;
+        if (bin == 0) {
+            range = bound;
+            contexts[context] = probability + ((ONE - probability) >>> ADAPTATION_SHIFT);
+        } else {
+            low += bound;
+            range -= bound;
+            contexts[context] = probability - (probability >>> ADAPTATION_SHIFT);
+        }
+        while (range < TOP) {
+            range <<= 8;
+            shiftLow();
+        }
+    }
+
+    /*
+    The lowest `count` bits of `bits`, most significant first
+     */
+    void encodeBypass(int bits, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            range >>>= 1;
+            if ((bits >>> i & 1) != 0) {
+                low += range;
+            }
+            while (range < TOP) {
+                range <<= 8;
+                shiftLow();
+            }
+        }
+    }
+
+    ByteBuffer flush() {
+        for (int i = 0; i < FLUSH_BYTES; i++) {
+            shiftLow();
+        }
+        return buffer;
+    }
+
+    private void shiftLow() {
+        if (low < 0xFF000000L || low > MASK) {
+            int carry = (int) (low >>> 32);
+            int next = cache;
+            do {
+                buffer.put((byte) (next + carry));
+                next = 0xFF;
+            } while (--pending != 0);
+            cache = (int) (low >>> 24) & 0xFF;
+        }
+        pending++;
+        low = (low & 0x00FFFFFFL) << 8;
+    }
+}
@@ -1,5 +1,9 @@
 package com.github.modelflat.nit3.jpeg.huffman;
 
+import com.github.modelflat.nit3.stats.Instrumentation;
+import com.github.modelflat.nit3.stats.Stage;
+
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.PriorityQueue;
@@ -9,8 +13,10 @@ public class Huffman {
     private HuffmanTree tree;
     private Map<Integer, Integer> alphabet;
     private Map<Integer, Integer> sizes;
+    private HuffmanCode code;
 
     public Huffman(Map<Integer, Integer> alphabet) {
+        long start = Instrumentation.start();
         PriorityQueue<HuffmanTree> trees = new PriorityQueue<>();
 
         for (int key : alphabet.keySet()) {
@@ -23,6 +29,7 @@ public class Huffman {
         this.alphabet = alphabet;
         sizes = new HashMap<>(alphabet.keySet().size());
         tree = trees.poll();
+        Instrumentation.stop(Stage.HUFFMAN_BUILD, start);
     }
 
     public int getSizeFor(int symbol) {
@@ -54,6 +61,36 @@ public class Huffman {
         return count - 1;
 }
 
+    /*
+    Canonical code with the lengths of this tree. A single-symbol alphabet gets a 1-bit code, since a
+    0-bit one cannot be written to a stream.
+     */
+    public HuffmanCode getCode() {
+        if (code == null) {
+            int[] symbols = new int[alphabet.size()];
+            int[] lengths = new int[alphabet.size()];
+            int count = collectLengths(tree, 0, symbols, lengths, 0);
+            if (count == 1) {
+                lengths[0] = 1;
+            }
+            code = new HuffmanCode(Arrays.copyOf(symbols, count), Arrays.copyOf(lengths, count));
+        }
+        return code;
+    }
+
+    private int collectLengths(HuffmanTree next, int depth, int[] symbols, int[] lengths, int count) {
+        if (next instanceof HuffmanLeaf) {
+            if (next.frequency > 0) {
+                symbols[count] = ((HuffmanLeaf) next).getValue();
+                lengths[count] = depth;
+                count++;
+            }
+            return count;
+        }
+        count = collectLengths(((HuffmanNode) next).getLeft(), depth + 1, symbols, lengths, count);
+        return collectLengths(((HuffmanNode) next).getRight(), depth + 1, symbols, lengths, count);
+    }
+
     public void printSizes() {
         for (int i : alphabet.keySet()) {
             if (alphabet.get(i) > 0) {
@@ -0,0 +1,219 @@
+package com.github.modelflat.nit3.jpeg.huffman;
+
+import com.github.modelflat.nit3.stats.Instrumentation;
+import com.github.modelflat.nit3.stats.Stage;
+
+import java.util.Arrays;
+
+/*
+Builds Huffman code lengths straight from an int[] histogram, without trees or boxing.
+
+Unrestricted lengths come from Moffat and Katajainen's in-place algorithm: one sort of the frequencies and
+a linear pass over them, O(n log n) overall. If the longest code exceeds the requested limit, lengths are
+recomputed with package-merge, which yields the optimal code among those with no code longer than the
+limit in O(n * limit).
+ */
+public final class HuffmanBuilder {
+
+    // baseline JPEG (DHT can only describe codes of 1..16 bits)
+    public static final int JPEG_MAX_LENGTH = 16;
+
+    private HuffmanBuilder() {
+    }
+
+    /*
+    histogram[i] is the frequency of symbol firstSymbol + i; symbols with zero frequency get no code
+     */
+    public static HuffmanCode build(int[] histogram, int firstSymbol, int maxLength) {
+        long start = Instrumentation.start();
+        HuffmanCode code = fromLengths(computeLengths(histogram, maxLength), firstSymbol);
+        Instrumentation.stop(Stage.HUFFMAN_BUILD, start);
+        return code;
+    }
+
+    /*
+    Like build(), but without a code made of 1-bits only, which JPEG reserves (libjpeg's trick): a dummy symbol
+    of frequency 1 takes part in the construction and is dropped afterwards. That leaves the Kraft sum below 1,
+    so canonical codes, being assigned in ascending order, stop short of the all-ones one.
+     */
+    public static HuffmanCode buildReserved(int[] histogram, int firstSymbol, int maxLength) {
+        long start = Instrumentation.start();
+        int[] extended = Arrays.copyOf(histogram, histogram.length + 1);
+        extended[histogram.length] = 1;
+        int[] lengths = computeLengths(extended, maxLength);
+        HuffmanCode code = fromLengths(Arrays.copyOf(lengths, histogram.length), firstSymbol);
+        Instrumentation.stop(Stage.HUFFMAN_BUILD, start);
+        return code;
+    }
+
+    private static HuffmanCode fromLengths(int[] lengths, int firstSymbol) {
+        int used = 0;
+        for (int length : lengths) {
+            if (length != 0) {
+                used++;
+            }
+        }
+        if (used == 0) {
+            throw new RuntimeException("Empty histogram");
+        }
+        int[] symbols = new int[used];
+        int[] codeLengths = new int[used];
+        for (int i = 0, j = 0; i < lengths.length; i++) {
+            if (lengths[i] != 0) {
+                symbols[j] = firstSymbol + i;
+                codeLengths[j++] = lengths[i];
+            }
+        }
+        return new HuffmanCode(symbols, codeLengths);
+    }
+
+    /*
+    Returns code lengths indexed like the histogram (0 where the frequency is 0). A lone symbol gets a 1-bit
+    code.
+     */
+    public static int[] computeLengths(int[] histogram, int maxLength) {
+        if (maxLength < 1 || maxLength > HuffmanCode.MAX_LENGTH) {
+            throw new RuntimeException("Invalid code length limit: " + maxLength);
+        }
+        // (frequency, index) pairs packed into longs so that one primitive sort orders them by frequency
+        long[] order = new long[histogram.length];
+        int n = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] < 0) {
+                throw new RuntimeException("Negative frequency for symbol index " + i);
+            }
+            if (histogram[i] > 0) {
+                order[n++] = ((long) histogram[i] << 32) | i;
+            }
+        }
+        int[] lengths = new int[histogram.length];
+        if (n == 0) {
+            return lengths;
+        }
+        if (n == 1) {
+            lengths[(int) order[0]] = 1;
+            return lengths;
+        }
+        if (n > 1L << maxLength) {
+            throw new RuntimeException(String.format("%d symbols do not fit into %d-bit codes", n, maxLength));
+        }
+        order = Arrays.copyOf(order, n);
+        Arrays.sort(order);
+
+        long[] weights = new long[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = order[i] >>> 32;
+        }
+        int[] sortedLengths = minimumRedundancy(weights);
+        if (sortedLengths[0] > maxLength) {
+            sortedLengths = packageMerge(weights, maxLength);
+        }
+        for (int i = 0; i < n; i++) {
+            lengths[(int) order[i]] = sortedLengths[i];
+        }
+        return lengths;
+    }
+
+    /*
+    Moffat-Katajainen: weights ascending, n >= 2; returns lengths aligned with weights (so non-increasing)
+     */
+    private static int[] minimumRedundancy(long[] weights) {
+        int n = weights.length;
+        long[] a = Arrays.copyOf(weights, n);
+
+        // first pass: build the tree over `a`, internal nodes store their weight, then their parent index
+        int leaf = 2;
+        int root = 0;
+        a[0] += a[1];
+        for (int next = 1; next < n - 1; next++) {
+            if (leaf >= n || a[root] < a[leaf]) {
+                a[next] = a[root];
+                a[root++] = next;
+            } else {
+                a[next] = a[leaf++];
+            }
+            if (leaf >= n || (root < next && a[root] < a[leaf])) {
+                a[next] += a[root];
+                a[root++] = next;
+            } else {
+                a[next] += a[leaf++];
+            }
+        }
+
+        // second pass: parent indices -> internal node depths
+        a[n - 2] = 0;
+        for (int next = n - 3; next >= 0; next--) {
+            a[next] = a[(int) a[next]] + 1;
+        }
+
+        // third pass: internal node depths -> leaf depths
+        int available = 1;
+        int used = 0;
+        int depth = 0;
+        root = n - 2;
+        int next = n - 1;
+        while (available > 0) {
+            while (root >= 0 && a[root] == depth) {
+                used++;
+                root--;
+            }
+            while (available > used) {
+                a[next--] = depth;
+                available--;
+            }
+            available = 2 * used;
+            depth++;
+            used = 0;
+        }
+
+        int[] lengths = new int[n];
+        for (int i = 0; i < n; i++) {
+            lengths[i] = (int) a[i];
+        }
+        return lengths;
+    }
+
+    /*
+    Package-merge: weights ascending, n <= 2^limit. Level l holds the leaves merged with pairs ("packages") of
+    level l - 1 items; the 2n - 2 cheapest items of the last level define the code, each leaf inside them
+    (directly or within a package) adding one bit to its length. Since both leaves and packages are merged
+    in ascending order, only the number of leaves within each selected prefix needs to be kept.
+     */
+    private static int[] packageMerge(long[] weights, int limit) {
+        int n = weights.length;
+        // leavesBefore[l][k]: how many of the first k items of level l are leaves
+        int[][] leavesBefore = new int[limit][];
+        long[] previous = weights;
+        for (int level = 1; level < limit; level++) {
+            int packages = previous.length / 2;
+            long[] current = new long[n + packages];
+            int[] leaves = new int[n + packages + 1];
+            int i = 0;
+            int p = 0;
+            for (int k = 0; k < current.length; k++) {
+                long packageWeight = p < packages ? previous[2 * p] + previous[2 * p + 1] : Long.MAX_VALUE;
+                if (i < n && weights[i] <= packageWeight) {
+                    current[k] = weights[i++];
+                } else {
+                    current[k] = packageWeight;
+                    p++;
+                }
+                leaves[k + 1] = i;
+            }
+            leavesBefore[level] = leaves;
+            previous = current;
+        }
+
+        int[] lengths = new int[n];
+        int selected = 2 * n - 2;
+        for (int level = limit - 1; level >= 0 && selected > 0; level--) {
+            int leaves = level == 0 ? selected : leavesBefore[level][selected];
+            for (int i = 0; i < leaves; i++) {
+                lengths[i]++;
+            }
+            selected = 2 * (selected - leaves);
+        }
+        // lengths were counted per ascending weight, so they are already non-increasing
+        return lengths;
+    }
+}
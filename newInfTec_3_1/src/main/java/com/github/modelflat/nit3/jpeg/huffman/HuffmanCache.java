@@ -0,0 +1,99 @@
+package com.github.modelflat.nit3.jpeg.huffman;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+Codes from HuffmanBuilder.buildReserved(), looked up by a signature of their histogram: which symbols occur, and
+the rounded log2 of each one's probability. Huffman gives a symbol a length close to -log2(p), so histograms
+with the same signature would get (nearly) the same code, and a stream of similar frames builds its tables
+once. A cached code always fits the histogram it is returned for, as the set of symbols is part of the key;
+it just may be a little worse than the code built for that histogram.
+
+Least recently used codes are evicted beyond `capacity`; access is synchronized.
+ */
+public class HuffmanCache {
+
+    // probabilities are rounded as multiples of 2^-SCALE_BITS, so rarer symbols share one bucket
+    private static final int SCALE_BITS = 24;
+
+    private final Map<Signature, HuffmanCode> codes;
+    private long hits;
+    private long misses;
+
+    public HuffmanCache(int capacity) {
+        this.codes = new LinkedHashMap<Signature, HuffmanCode>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Signature, HuffmanCode> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public HuffmanCode get(int[] histogram, int firstSymbol, int maxLength) {
+        Signature signature = new Signature(histogram, firstSymbol, maxLength);
+        synchronized (this) {
+            HuffmanCode code = codes.get(signature);
+            if (code != null) {
+                hits++;
+                return code;
+            }
+            misses++;
+        }
+        // built outside the lock: at worst, two threads build the same code
+        HuffmanCode code = HuffmanBuilder.buildReserved(histogram, firstSymbol, maxLength);
+        synchronized (this) {
+            codes.put(signature, code);
+        }
+        return code;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static final class Signature {
+        private final byte[] buckets;
+        private final int firstSymbol;
+        private final int maxLength;
+        private final int hash;
+
+        Signature(int[] histogram, int firstSymbol, int maxLength) {
+            long total = 0;
+            for (int frequency : histogram) {
+                total += frequency;
+            }
+            buckets = new byte[histogram.length];
+            for (int i = 0; i < histogram.length; i++) {
+                if (histogram[i] > 0) {
+                    // 1 + floor(log2(p * 2^SCALE_BITS)), at least 1 for any symbol that occurs
+                    long scaled = (((long) histogram[i] << SCALE_BITS) / total) | 1;
+                    buckets[i] = (byte) (64 - Long.numberOfLeadingZeros(scaled));
+                }
+            }
+            this.firstSymbol = firstSymbol;
+            this.maxLength = maxLength;
+            this.hash = 31 * (31 * Arrays.hashCode(buckets) + firstSymbol) + maxLength;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Signature)) {
+                return false;
+            }
+            Signature other = (Signature) o;
+            return firstSymbol == other.firstSymbol && maxLength == other.maxLength &&
+                    Arrays.equals(buckets, other.buckets);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.modelflat.nit3.jpeg.huffman;
+
+import com.github.modelflat.nit3.jpeg.io.BitWriter;
+
+import java.util.Arrays;
+
+/*
+Canonical Huffman code: only the code length of every symbol is kept from the tree, and codes are assigned
+in (length, symbol) order (or in the given order within a length, see fromCounts()), each one being the
+previous one plus one, shifted left when the length grows (the scheme JPEG's DHT segments use). This makes a
+code fully described by `counts` and `symbols` below.
+
+Symbols are arbitrary ints; per-symbol lookups go through arrays indexed by `symbol - minSymbol`.
+ */
+public class HuffmanCode {
+
+    public static final int MAX_LENGTH = 32;
+
+    // symbols in code order, and how many codes there are of each length (counts[0] is unused)
+    private final int[] symbols;
+    private final int[] counts = new int[MAX_LENGTH + 1];
+
+    private final int minSymbol;
+    private final int[] codeOf;
+    private final int[] lengthOf;
+
+    /*
+    lengths[i] is the code length of symbols[i]; symbols must be distinct and lengths must satisfy Kraft's
+    inequality (which every Huffman tree does)
+     */
+    public HuffmanCode(int[] symbols, int[] lengths) {
+        this(symbols, lengths, false);
+    }
+
+    /*
+    Code as a DHT segment describes it: counts[i] codes of length i + 1, assigned to `symbols` in the order
+    given (which DHT does not require to be ascending within a length)
+     */
+    public static HuffmanCode fromCounts(int[] counts, int[] symbols) {
+        int[] lengths = new int[symbols.length];
+        int index = 0;
+        for (int i = 0; i < counts.length; i++) {
+            for (int j = 0; j < counts[i]; j++) {
+                if (index == symbols.length) {
+                    throw new RuntimeException("Huffman table has more codes than symbols");
+                }
+                lengths[index++] = i + 1;
+            }
+        }
+        if (index != symbols.length) {
+            throw new RuntimeException("Huffman table has more symbols than codes");
+        }
+        return new HuffmanCode(symbols, lengths, true);
+    }
+
+    private HuffmanCode(int[] symbols, int[] lengths, boolean keepOrder) {
+        if (symbols.length != lengths.length || symbols.length == 0) {
+            throw new RuntimeException("Invalid Huffman code description");
+        }
+        long[] order = new long[symbols.length];
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < symbols.length; i++) {
+            if (lengths[i] < 1 || lengths[i] > MAX_LENGTH) {
+                throw new RuntimeException("Invalid Huffman code length: " + lengths[i]);
+            }
+            order[i] = ((long) lengths[i] << 32) | (keepOrder ? i : symbols[i] & 0xFFFFFFFFL);
+            min = Math.min(min, symbols[i]);
+            max = Math.max(max, symbols[i]);
+        }
+        Arrays.sort(order);
+
+        this.symbols = new int[symbols.length];
+        this.minSymbol = min;
+        this.codeOf = new int[max - min + 1];
+        this.lengthOf = new int[max - min + 1];
+
+        int code = 0;
+        int previousLength = (int) (order[0] >>> 32);
+        for (int i = 0; i < order.length; i++) {
+            int length = (int) (order[i] >>> 32);
+            int symbol = keepOrder ? symbols[(int) order[i]] : (int) order[i];
+            code <<= length - previousLength;
+            previousLength = length;
+            if (length < MAX_LENGTH && code >>> length != 0) {
+                throw new RuntimeException("Huffman code lengths violate Kraft's inequality");
+            }
+            this.symbols[i] = symbol;
+            counts[length]++;
+            codeOf[symbol - min] = code;
+            lengthOf[symbol - min] = length;
+            code++;
+        }
+    }
+
+    public void encode(int symbol, BitWriter writer) {
+        int index = symbol - minSymbol;
+        writer.write(codeOf[index], lengthOf[index]);
+    }
+
+    public boolean contains(int symbol) {
+        int index = symbol - minSymbol;
+        return index >= 0 && index < lengthOf.length && lengthOf[index] != 0;
+    }
+
+    public int getLength(int symbol) {
+        return lengthOf[symbol - minSymbol];
+    }
+
+    public int getCode(int symbol) {
+        return codeOf[symbol - minSymbol];
+    }
+
+    public int[] getSymbols() {
+        return symbols;
+    }
+
+    public int[] getCounts() {
+        return counts;
+    }
+
+    public int getMaxLength() {
+        int length = MAX_LENGTH;
+        while (counts[length] == 0) {
+            length--;
+        }
+        return length;
+    }
+}
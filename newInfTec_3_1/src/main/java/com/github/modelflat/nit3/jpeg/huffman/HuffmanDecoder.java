@@ -0,0 +1,68 @@
+package com.github.modelflat.nit3.jpeg.huffman;
+
+import com.github.modelflat.nit3.jpeg.io.BitReader;
+
+/*
+Table-driven decoder for a HuffmanCode. The next LOOKAHEAD bits index a table holding the symbol and length
+of every code not longer than LOOKAHEAD, so most symbols take one peek and one lookup. Longer codes fall
+back to the canonical max-code search (as in libjpeg's jdhuff), one comparison per extra bit of length.
+ */
+public class HuffmanDecoder {
+
+    static final int LOOKAHEAD = 9;
+
+    private final int[] lookupSymbol = new int[1 << LOOKAHEAD];
+    private final int[] lookupLength = new int[1 << LOOKAHEAD];
+
+    private final int[] symbols;
+    private final int maxLength;
+    // for every length: largest code of that length (-1 if none), smallest one, and index of its symbol
+    private final long[] maxCode = new long[HuffmanCode.MAX_LENGTH + 1];
+    private final long[] minCode = new long[HuffmanCode.MAX_LENGTH + 1];
+    private final int[] valuePointer = new int[HuffmanCode.MAX_LENGTH + 1];
+
+    public HuffmanDecoder(HuffmanCode code) {
+        symbols = code.getSymbols();
+        maxLength = code.getMaxLength();
+        int[] counts = code.getCounts();
+
+        long next = 0;
+        int index = 0;
+        for (int length = 1; length <= HuffmanCode.MAX_LENGTH; length++) {
+            if (counts[length] == 0) {
+                maxCode[length] = -1;
+            } else {
+                valuePointer[length] = index;
+                minCode[length] = next;
+                for (int i = 0; i < counts[length]; i++, index++, next++) {
+                    if (length <= LOOKAHEAD) {
+                        int shift = LOOKAHEAD - length;
+                        for (int entry = (int) next << shift; entry < (int) (next + 1) << shift; entry++) {
+                            lookupSymbol[entry] = symbols[index];
+                            lookupLength[entry] = length;
+                        }
+                    }
+                }
+                maxCode[length] = next - 1;
+            }
+            next <<= 1;
+        }
+    }
+
+    public int decode(BitReader reader) {
+        int look = reader.peek(LOOKAHEAD);
+        int length = lookupLength[look];
+        if (length != 0) {
+            reader.skip(length);
+            return lookupSymbol[look];
+        }
+        for (length = LOOKAHEAD + 1; length <= maxLength; length++) {
+            long code = reader.peek(length) & 0xFFFFFFFFL;
+            if (code <= maxCode[length]) {
+                reader.skip(length);
+                return symbols[valuePointer[length] + (int) (code - minCode[length])];
+            }
+        }
+        throw new RuntimeException("Invalid Huffman code in stream");
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.modelflat.nit3.jpeg.io;
+
+import java.nio.ByteBuffer;
+
+/*
+MSB-first bit reader over a 64-bit accumulator, topped up to at least 57 bits whenever a peek asks for more
+than is buffered. Reading past the end of the buffer yields 1-bits, matching BitWriter's padding.
+
+With `stuffing` (JPEG entropy-coded data) the 0x00 after an 0xFF byte is dropped, and any other 0xFF xx pair
+is a marker, which ends the data: the buffer is left positioned at the marker, and 1-bits are read instead.
+ */
+public class BitReader {
+
+    private final ByteBuffer buffer;
+    private final boolean stuffing;
+    private long accumulator;
+    private int count;
+    private boolean marker;
+
+    public BitReader(ByteBuffer buffer) {
+        this(buffer, false);
+    }
+
+    public BitReader(ByteBuffer buffer, boolean stuffing) {
+        this.buffer = buffer;
+        this.stuffing = stuffing;
+    }
+
+    /*
+    Returns the next `length` bits without consuming them, 0 < length <= 32
+     */
+    public int peek(int length) {
+        if (count < length) {
+            fill();
+        }
+        return (int) (accumulator >>> (count - length)) & (int) ((1L << length) - 1);
+    }
+
+    public void skip(int length) {
+        count -= length;
+    }
+
+    public int read(int length) {
+        int bits = peek(length);
+        count -= length;
+        return bits;
+    }
+
+    private void fill() {
+        while (count <= 56) {
+            int next = 0xFF;
+            if (!marker && buffer.hasRemaining()) {
+                next = buffer.get() & 0xFF;
+                if (stuffing && next == 0xFF) {
+                    if (buffer.hasRemaining() && buffer.get(buffer.position()) == 0) {
+                        buffer.get();
+                    } else {
+                        buffer.position(buffer.position() - 1);
+                        marker = true;
+                    }
+                }
+            }
+            accumulator = (accumulator << 8) | next;
+            count += 8;
+        }
+    }
+
+    /*
+    True once a marker has been reached (stuffing mode only)
+     */
+    public boolean isAtMarker() {
+        return marker;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+}
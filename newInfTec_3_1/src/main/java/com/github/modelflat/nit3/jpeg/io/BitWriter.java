@@ -0,0 +1,80 @@
+package com.github.modelflat.nit3.jpeg.io;
+
+import java.nio.ByteBuffer;
+
+/*
+MSB-first bit writer. Bits are collected in a 64-bit accumulator and go to the buffer 32 at a time, so the
+buffer is touched once per four bytes rather than once per code.
+
+With `stuffing`, every 0xFF byte written is followed by a 0x00, as JPEG entropy-coded data requires. Words
+without an 0xFF byte (found with one bit trick) still go out with a single putInt().
+ */
+public class BitWriter {
+
+    private final ByteBuffer buffer;
+    private final boolean stuffing;
+    private final int start;
+    private long accumulator;
+    private int count;
+
+    public BitWriter(ByteBuffer buffer) {
+        this(buffer, false);
+    }
+
+    public BitWriter(ByteBuffer buffer, boolean stuffing) {
+        this.buffer = buffer;
+        this.stuffing = stuffing;
+        this.start = buffer.position();
+    }
+
+    /*
+    Writes the lowest `length` bits of `bits`, 0 <= length <= 32
+     */
+    public void write(int bits, int length) {
+        accumulator = (accumulator << length) | (bits & ((1L << length) - 1));
+        count += length;
+        if (count >= 32) {
+            count -= 32;
+            int word = (int) (accumulator >>> count);
+            // a byte of the word is 0xFF iff that byte of ~word is zero
+            if (stuffing && ((~word - 0x01010101) & word & 0x80808080) != 0) {
+                for (int shift = 24; shift >= 0; shift -= 8) {
+                    put((byte) (word >>> shift));
+                }
+            } else {
+                buffer.putInt(word);
+            }
+        }
+    }
+
+    /*
+    Pads the last partial byte with 1-bits (as JPEG does) and writes out everything still in the accumulator
+     */
+    public ByteBuffer flush() {
+        int padding = (8 - count % 8) % 8;
+        write((1 << padding) - 1, padding);
+        while (count > 0) {
+            count -= 8;
+            put((byte) (accumulator >>> count));
+        }
+        return buffer;
+    }
+
+    private void put(byte value) {
+        buffer.put(value);
+        if (stuffing && value == (byte) 0xFF) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    /*
+    Includes stuffed bytes
+     */
+    public long getBitsWritten() {
+        return (buffer.position() - start) * 8L + count;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.modelflat.nit3.kernels;
+
+import com.github.modelflat.nit3.jpeg.dct.DCT;
+
+/*
+Element-wise block kernels of the codec (on row-major float[64] blocks) and the 8x8 motion search SAD.
+
+Every implementation must produce results bit-identical to ScalarKernels; get() returns the fastest one
+available in the running JVM that passes that check.
+ */
+public interface Kernels {
+
+    // out = a + b
+    void add(float[] a, float[] b, float[] out);
+
+    // out = a - b
+    void subtract(float[] a, float[] b, float[] out);
+
+    // out = in + offset
+    void shift(float[] in, float offset, float[] out);
+
+    // out = in * factors
+    void multiply(float[] in, float[] factors, float[] out);
+
+    // out = in / matrix, rounded half away from zero
+    void quantize(float[] in, float[] matrix, float[] out);
+
+    // out = in truncated towards zero
+    void truncate(float[] in, float[] out);
+
+    // out = in + 128, clamped to [0, 255] when it rounds outside of that range
+    void restore(float[] in, float[] out);
+
+    // AAN DCT, same results as DCTType.AAN
+    DCT getDCT();
+
+    /*
+    SAD of the 8x8 block at (x, y) of `current` and the one at (x + dx, y + dy) of `reference`; may stop early
+    (returning a value >= limit) once a row ends above `limit`
+     */
+    float sad(float[][] current, float[][] reference, int x, int y, int dx, int dy, float limit);
+
+    static Kernels get() {
+        return Selection.SELECTED;
+    }
+}
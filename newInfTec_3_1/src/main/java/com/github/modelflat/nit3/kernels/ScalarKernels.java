@@ -0,0 +1,86 @@
+package com.github.modelflat.nit3.kernels;
+
+import com.github.modelflat.nit3.jpeg.dct.DCT;
+import com.github.modelflat.nit3.jpeg.dct.DCTType;
+
+public class ScalarKernels implements Kernels {
+
+    @Override
+    public void add(float[] a, float[] b, float[] out) {
+        for (int i = 0; i < 64; i++) {
+            out[i] = a[i] + b[i];
+        }
+    }
+
+    @Override
+    public void subtract(float[] a, float[] b, float[] out) {
+        for (int i = 0; i < 64; i++) {
+            out[i] = a[i] - b[i];
+        }
+    }
+
+    @Override
+    public void shift(float[] in, float offset, float[] out) {
+        for (int i = 0; i < 64; i++) {
+            out[i] = in[i] + offset;
+        }
+    }
+
+    @Override
+    public void multiply(float[] in, float[] factors, float[] out) {
+        for (int i = 0; i < 64; i++) {
+            out[i] = in[i] * factors[i];
+        }
+    }
+
+    @Override
+    public void quantize(float[] in, float[] matrix, float[] out) {
+        for (int i = 0; i < 64; i++) {
+            out[i] = round(in[i] / matrix[i]);
+        }
+    }
+
+    @Override
+    public void truncate(float[] in, float[] out) {
+        for (int i = 0; i < 64; i++) {
+            out[i] = (int) in[i];
+        }
+    }
+
+    @Override
+    public void restore(float[] in, float[] out) {
+        for (int i = 0; i < 64; i++) {
+            float value = in[i] + 128;
+            int rounded = round(value);
+            out[i] = rounded < 0 ? 0 : rounded > 255 ? 255 : value;
+        }
+    }
+
+    @Override
+    public DCT getDCT() {
+        return DCTType.AAN.get();
+    }
+
+    @Override
+    public float sad(float[][] current, float[][] reference, int x, int y, int dx, int dy, float limit) {
+        float sum = 0;
+        for (int i = 0; i < 8; i++) {
+            float[] c = current[y + i];
+            float[] r = reference[y + dy + i];
+            for (int j = 0; j < 8; j++) {
+                sum += Math.abs(c[x + j] - r[x + dx + j]);
+            }
+            if (sum >= limit) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    static int round(float x) {
+        if (x < 0) {
+            return -Math.round(-x);
+        }
+        return Math.round(x);
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.modelflat.nit3.kernels;
+
+import java.util.Random;
+
+/*
+Picks the Kernels implementation once per JVM. The Vector API one (built from src/vector only on JDK 16+) is
+used when its class loads, the jdk.incubator.vector module is present (--add-modules jdk.incubator.vector)
+and it reproduces ScalarKernels bit for bit on random inputs; otherwise, or with -Dnit3.kernels=scalar,
+the scalar kernels are used.
+ */
+final class Selection {
+
+    private static final String VECTOR_KERNELS = "com.github.modelflat.nit3.kernels.VectorKernels";
+
+    static final Kernels SELECTED = select();
+
+    private Selection() {
+    }
+
+    private static Kernels select() {
+        ScalarKernels scalar = new ScalarKernels();
+        if ("scalar".equals(System.getProperty("nit3.kernels"))) {
+            return scalar;
+        }
+        Kernels candidate;
+        try {
+            candidate = Class.forName(VECTOR_KERNELS).asSubclass(Kernels.class).getDeclaredConstructor().newInstance();
+        } catch (Exception | LinkageError e) {
+            return scalar;
+        }
+        return isIdentical(scalar, candidate) ? candidate : scalar;
+    }
+
+    static boolean isIdentical(Kernels expected, Kernels actual) {
+        Random random = new Random(42);
+        float[] a = new float[64];
+        float[] b = new float[64];
+        float[] matrix = new float[64];
+        float[] x = new float[64];
+        float[] y = new float[64];
+        for (int iteration = 0; iteration < 1000; iteration++) {
+            for (int i = 0; i < 64; i++) {
+                // integral samples, fractional coefficients and exact halves, with both signs
+                a[i] = iteration % 3 == 0 ? random.nextInt(512) - 256 :
+                        iteration % 3 == 1 ? (random.nextFloat() - 0.5f) * 2048 : (random.nextInt(64) - 32) / 2f;
+                b[i] = random.nextInt(256);
+                matrix[i] = 1 + random.nextInt(64);
+            }
+            expected.add(a, b, x);
+            actual.add(a, b, y);
+            if (!same(x, y)) {
+                return false;
+            }
+            expected.subtract(a, b, x);
+            actual.subtract(a, b, y);
+            if (!same(x, y)) {
+                return false;
+            }
+            expected.shift(a, -128, x);
+            actual.shift(a, -128, y);
+            if (!same(x, y)) {
+                return false;
+            }
+            expected.multiply(a, matrix, x);
+            actual.multiply(a, matrix, y);
+            if (!same(x, y)) {
+                return false;
+            }
+            expected.quantize(a, matrix, x);
+            actual.quantize(a, matrix, y);
+            if (!same(x, y)) {
+                return false;
+            }
+            expected.truncate(a, x);
+            actual.truncate(a, y);
+            if (!same(x, y)) {
+                return false;
+            }
+            expected.restore(a, x);
+            actual.restore(a, y);
+            if (!same(x, y)) {
+                return false;
+            }
+            expected.getDCT().forward(a, x);
+            actual.getDCT().forward(a, y);
+            if (!same(x, y)) {
+                return false;
+            }
+            expected.getDCT().inverse(a, x);
+            actual.getDCT().inverse(a, y);
+            if (!same(x, y)) {
+                return false;
+            }
+        }
+
+        float[][] current = new float[24][24];
+        float[][] reference = new float[24][24];
+        for (int i = 0; i < 24; i++) {
+            for (int j = 0; j < 24; j++) {
+                current[i][j] = random.nextInt(256);
+                reference[i][j] = random.nextInt(1024) / 4f;
+            }
+        }
+        for (int dy = -8; dy <= 8; dy++) {
+            for (int dx = -8; dx <= 8; dx++) {
+                float limit = random.nextBoolean() ? Float.MAX_VALUE : random.nextInt(4096);
+                if (Float.floatToIntBits(expected.sad(current, reference, 8, 8, dx, dy, limit)) !=
+                        Float.floatToIntBits(actual.sad(current, reference, 8, 8, dx, dy, limit))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean same(float[] x, float[] y) {
+        for (int i = 0; i < x.length; i++) {
+            if (Float.floatToIntBits(x[i]) != Float.floatToIntBits(y[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
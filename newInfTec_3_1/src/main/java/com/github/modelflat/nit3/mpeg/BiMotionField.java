@@ -0,0 +1,217 @@
+package com.github.modelflat.nit3.mpeg;
+
+import com.github.modelflat.nit3.jpeg.Block;
+import com.github.modelflat.nit3.jpeg.Frame;
+import com.github.modelflat.nit3.jpeg.io.BitWriter;
+
+import java.util.stream.IntStream;
+
+/*
+Motion of a B-frame: every 8x8 block is predicted from the past reference along its forward vector, from the
+future reference along its backward vector, or from the mean of both (rounded up, as in MPEG), whichever has
+the smallest SAD against the source. Residuals and predictions are built the way MotionField builds them.
+ */
+public class BiMotionField {
+
+    public static final int FORWARD = 1;
+    public static final int BACKWARD = 2;
+    public static final int BIDIRECTIONAL = 3;
+
+    // indexed by mode
+    private static final int[] MODE_CODES = {0, 1, 1, 0};
+
+    private final MotionField forward;
+    private final MotionField backward;
+    private final byte[] modes;
+
+    private BiMotionField(MotionField forward, MotionField backward, byte[] modes) {
+        this.forward = forward;
+        this.backward = backward;
+        this.modes = modes;
+    }
+
+    /*
+    Searches both references with `estimator`, then picks the mode of each block by SAD + lambda * (bits of the
+    mode and vectors), so that two vectors are only sent where they pay off. Rows are decided in parallel inside
+    the current frame's pool.
+     */
+    public static BiMotionField estimate(MotionEstimator estimator, Frame current, Frame past, Frame future,
+                                         float lambda) {
+        MotionField forward = estimator.estimate(current, past);
+        MotionField backward = estimator.estimate(current, future);
+        float[][] currentPlane = current.toPaddedPixels();
+        float[][] pastPlane = past.toPaddedPixels();
+        float[][] futurePlane = future.toPaddedPixels();
+        int blocksX = forward.getBlocksX();
+        byte[] modes = new byte[forward.getVectorCount()];
+        current.getPool().submit(() -> IntStream.range(0, forward.getBlocksY()).parallel().forEach(by -> {
+            MotionVector previousForward = MotionVector.ZERO;
+            MotionVector previousBackward = MotionVector.ZERO;
+            for (int bx = 0; bx < blocksX; bx++) {
+                int x = bx * MotionEstimator.BLOCK_SIZE;
+                int y = by * MotionEstimator.BLOCK_SIZE;
+                MotionVector f = forward.get(bx, by);
+                MotionVector b = backward.get(bx, by);
+                float sad = 0;
+                for (int r = 0; r < 8; r++) {
+                    for (int c = 0; c < 8; c++) {
+                        float predicted = mean(pastPlane[y + f.getDY() + r][x + f.getDX() + c],
+                                futurePlane[y + b.getDY() + r][x + b.getDX() + c]);
+                        sad += Math.abs(currentPlane[y + r][x + c] - predicted);
+                    }
+                }
+                int forwardBits = vectorLength(f, previousForward);
+                int backwardBits = vectorLength(b, previousBackward);
+                float forwardCost = f.getSAD() + lambda * (modeLength(FORWARD) + forwardBits);
+                float backwardCost = b.getSAD() + lambda * (modeLength(BACKWARD) + backwardBits);
+                float cost = sad + lambda * (modeLength(BIDIRECTIONAL) + forwardBits + backwardBits);
+                int mode;
+                if (cost < forwardCost && cost < backwardCost) {
+                    mode = BIDIRECTIONAL;
+                } else {
+                    mode = forwardCost <= backwardCost ? FORWARD : BACKWARD;
+                }
+                modes[by * blocksX + bx] = (byte) mode;
+                if ((mode & FORWARD) != 0) {
+                    previousForward = f;
+                }
+                if ((mode & BACKWARD) != 0) {
+                    previousBackward = b;
+                }
+            }
+        })).join();
+        return new BiMotionField(forward, backward, modes);
+    }
+
+    private static int vectorLength(MotionVector v, MotionVector previous) {
+        return MotionField.expGolombLength(v.getDX() - previous.getDX()) +
+                MotionField.expGolombLength(v.getDY() - previous.getDY());
+    }
+
+    private static float mean(float a, float b) {
+        return (float) Math.floor((a + b + 1) / 2);
+    }
+
+    public Frame residual(Frame current, Frame past, Frame future, int q) {
+        float[][] currentPlane = current.toPaddedPixels();
+        float[][] predictedPlane = predict(past, future).toPaddedPixels();
+        int blocksX = forward.getBlocksX();
+        Block[] blocks = new Block[modes.length];
+        float[] raw = new float[64];
+        for (int i = 0; i < modes.length; i++) {
+            int x = (i % blocksX) * MotionEstimator.BLOCK_SIZE;
+            int y = (i / blocksX) * MotionEstimator.BLOCK_SIZE;
+            for (int r = 0; r < 8; r++) {
+                for (int c = 0; c < 8; c++) {
+                    raw[r * 8 + c] = currentPlane[y + r][x + c] - predictedPlane[y + r][x + c];
+                }
+            }
+            blocks[i] = new Block(raw, q).setDCT(current.getBlock(0, 0).getDCT());
+        }
+        return Frame.fromBlocks(current.getWidth(), current.getHeight(), blocks).setPool(current.getPool());
+    }
+
+    /*
+    Motion-compensated prediction of the frame from both references
+     */
+    public Frame predict(Frame past, Frame future) {
+        float[][] pastPlane = past.toPaddedPixels();
+        float[][] futurePlane = future.toPaddedPixels();
+        int blocksX = forward.getBlocksX();
+        Block[] blocks = new Block[modes.length];
+        float[] raw = new float[64];
+        for (int i = 0; i < modes.length; i++) {
+            int x = (i % blocksX) * MotionEstimator.BLOCK_SIZE;
+            int y = (i / blocksX) * MotionEstimator.BLOCK_SIZE;
+            MotionVector f = forward.get(i % blocksX, i / blocksX);
+            MotionVector b = backward.get(i % blocksX, i / blocksX);
+            for (int r = 0; r < 8; r++) {
+                for (int c = 0; c < 8; c++) {
+                    float fromPast = pastPlane[y + f.getDY() + r][x + f.getDX() + c];
+                    float fromFuture = futurePlane[y + b.getDY() + r][x + b.getDX() + c];
+                    raw[r * 8 + c] = modes[i] == FORWARD ? fromPast :
+                            modes[i] == BACKWARD ? fromFuture : mean(fromPast, fromFuture);
+                }
+            }
+            blocks[i] = new Block(raw, 0);
+        }
+        return Frame.fromBlocks(past.getWidth(), past.getHeight(), blocks).setPool(past.getPool());
+    }
+
+    /*
+    Per block its mode (FORWARD as 1, BACKWARD as 01, BIDIRECTIONAL as 00), then the vectors the mode uses,
+    each predicted by the last vector of the same direction in the row (the first by (0, 0)) and sent as two
+    signed Exp-Golomb codes
+     */
+    public int computeSize() {
+        long bits = 0;
+        int blocksX = forward.getBlocksX();
+        for (int by = 0; by < forward.getBlocksY(); by++) {
+            MotionVector previousForward = MotionVector.ZERO;
+            MotionVector previousBackward = MotionVector.ZERO;
+            for (int bx = 0; bx < blocksX; bx++) {
+                int mode = modes[by * blocksX + bx];
+                bits += modeLength(mode);
+                if ((mode & FORWARD) != 0) {
+                    MotionVector v = forward.get(bx, by);
+                    bits += vectorLength(v, previousForward);
+                    previousForward = v;
+                }
+                if ((mode & BACKWARD) != 0) {
+                    MotionVector v = backward.get(bx, by);
+                    bits += vectorLength(v, previousBackward);
+                    previousBackward = v;
+                }
+            }
+        }
+        return (int) ((bits + 7) / 8);
+    }
+
+    private static int modeLength(int mode) {
+        return mode == FORWARD ? 1 : 2;
+    }
+
+    /*
+    Writes the modes and vectors as computeSize() counts them
+     */
+    public void write(BitWriter writer) {
+        int blocksX = forward.getBlocksX();
+        for (int by = 0; by < forward.getBlocksY(); by++) {
+            MotionVector previousForward = MotionVector.ZERO;
+            MotionVector previousBackward = MotionVector.ZERO;
+            for (int bx = 0; bx < blocksX; bx++) {
+                int mode = modes[by * blocksX + bx];
+                writer.write(MODE_CODES[mode], modeLength(mode));
+                if ((mode & FORWARD) != 0) {
+                    MotionVector v = forward.get(bx, by);
+                    MotionField.writeExpGolomb(v.getDX() - previousForward.getDX(), writer);
+                    MotionField.writeExpGolomb(v.getDY() - previousForward.getDY(), writer);
+                    previousForward = v;
+                }
+                if ((mode & BACKWARD) != 0) {
+                    MotionVector v = backward.get(bx, by);
+                    MotionField.writeExpGolomb(v.getDX() - previousBackward.getDX(), writer);
+                    MotionField.writeExpGolomb(v.getDY() - previousBackward.getDY(), writer);
+                    previousBackward = v;
+                }
+            }
+        }
+    }
+
+    /*
+    Blocks predicted in `mode` (FORWARD, BACKWARD or BIDIRECTIONAL)
+     */
+    public int getModeCount(int mode) {
+        int count = 0;
+        for (byte value : modes) {
+            if (value == mode) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getBlockCount() {
+        return modes.length;
+    }
+}
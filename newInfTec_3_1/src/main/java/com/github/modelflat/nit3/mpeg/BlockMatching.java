@@ -0,0 +1,132 @@
+package com.github.modelflat.nit3.mpeg;
+
+import com.github.modelflat.nit3.kernels.Kernels;
+
+/*
+Block matching primitives. Planes are indexed [y][x]; a candidate (dx, dy) for the block at (x, y) compares it
+with the reference block at (x + dx, y + dy), which must lie inside the reference plane.
+ */
+final class BlockMatching {
+
+    private static final Kernels KERNELS = Kernels.get();
+
+    // large and small diamond search patterns (dx, dy pairs)
+    private static final int[] LARGE_DIAMOND = {0, -2, 1, -1, 2, 0, 1, 1, 0, 2, -1, 1, -2, 0, -1, -1};
+    private static final int[] SMALL_DIAMOND = {0, -1, 1, 0, 0, 1, -1, 0};
+
+    private BlockMatching() {
+    }
+
+    /*
+    Sum of absolute differences, abandoned (returning a value >= limit) as soon as a row ends above `limit`
+     */
+    static float sad(float[][] current, float[][] reference, int x, int y, int dx, int dy, int size, float limit) {
+        if (size == 8) {
+            return KERNELS.sad(current, reference, x, y, dx, dy, limit);
+        }
+        float sum = 0;
+        for (int i = 0; i < size; i++) {
+            float[] c = current[y + i];
+            float[] r = reference[y + dy + i];
+            for (int j = 0; j < size; j++) {
+                sum += Math.abs(c[x + j] - r[x + dx + j]);
+            }
+            if (sum >= limit) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    static boolean inside(float[][] reference, int x, int y, int dx, int dy, int size) {
+        return x + dx >= 0 && y + dy >= 0 &&
+                y + dy + size <= reference.length && x + dx + size <= reference[0].length;
+    }
+
+    /*
+    Exhaustive search of [cx - range, cx + range] x [cy - range, cy + range], starting from (cx, cy) so that the
+    early termination has a good bound from the first candidate on. Candidates stay within `limit` of (0, 0),
+    where (cx, cy) must be too.
+     */
+    static MotionVector fullSearch(float[][] current, float[][] reference, int x, int y, int size,
+                                   int cx, int cy, int range, int limit) {
+        int bestX = cx;
+        int bestY = cy;
+        float best = inside(reference, x, y, cx, cy, size) ?
+                sad(current, reference, x, y, cx, cy, size, Float.MAX_VALUE) : Float.MAX_VALUE;
+        for (int dy = Math.max(-limit, cy - range); dy <= Math.min(limit, cy + range); dy++) {
+            for (int dx = Math.max(-limit, cx - range); dx <= Math.min(limit, cx + range); dx++) {
+                if ((dx == cx && dy == cy) || !inside(reference, x, y, dx, dy, size)) {
+                    continue;
+                }
+                float value = sad(current, reference, x, y, dx, dy, size, best);
+                if (value < best) {
+                    best = value;
+                    bestX = dx;
+                    bestY = dy;
+                }
+            }
+        }
+        return new MotionVector(bestX, bestY, best);
+    }
+
+    /*
+    Diamond search: moves the large diamond until its centre is the best point, then settles with one step of
+    the small diamond. Candidates stay within `range` of (0, 0).
+     */
+    static MotionVector diamondSearch(float[][] current, float[][] reference, int x, int y, int size, int range) {
+        int bestX = 0;
+        int bestY = 0;
+        float best = sad(current, reference, x, y, 0, 0, size, Float.MAX_VALUE);
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            int centreX = bestX;
+            int centreY = bestY;
+            for (int i = 0; i < LARGE_DIAMOND.length; i += 2) {
+                int dx = centreX + LARGE_DIAMOND[i];
+                int dy = centreY + LARGE_DIAMOND[i + 1];
+                if (Math.abs(dx) > range || Math.abs(dy) > range || !inside(reference, x, y, dx, dy, size)) {
+                    continue;
+                }
+                float value = sad(current, reference, x, y, dx, dy, size, best);
+                if (value < best) {
+                    best = value;
+                    bestX = dx;
+                    bestY = dy;
+                    moved = true;
+                }
+            }
+        }
+        int centreX = bestX;
+        int centreY = bestY;
+        for (int i = 0; i < SMALL_DIAMOND.length; i += 2) {
+            int dx = centreX + SMALL_DIAMOND[i];
+            int dy = centreY + SMALL_DIAMOND[i + 1];
+            if (Math.abs(dx) > range || Math.abs(dy) > range || !inside(reference, x, y, dx, dy, size)) {
+                continue;
+            }
+            float value = sad(current, reference, x, y, dx, dy, size, best);
+            if (value < best) {
+                best = value;
+                bestX = dx;
+                bestY = dy;
+            }
+        }
+        return new MotionVector(bestX, bestY, best);
+    }
+
+    /*
+    Halves both dimensions, averaging 2x2 neighbourhoods
+     */
+    static float[][] downsample(float[][] plane) {
+        float[][] result = new float[plane.length / 2][plane[0].length / 2];
+        for (int y = 0; y < result.length; y++) {
+            for (int x = 0; x < result[y].length; x++) {
+                result[y][x] = (plane[2 * y][2 * x] + plane[2 * y][2 * x + 1] +
+                        plane[2 * y + 1][2 * x] + plane[2 * y + 1][2 * x + 1]) / 4;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.modelflat.nit3.mpeg;
+
+import com.github.modelflat.nit3.jpeg.Frame;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*
+Finds one motion vector per 8x8 block of a frame against a reference frame, searching displacements of up to
+`range` pixels in each direction. Blocks are searched in parallel inside `pool`.
+ */
+public class MotionEstimator {
+
+    static final int BLOCK_SIZE = 8;
+    // HIERARCHICAL: a doubled half-resolution vector is even and often 1 to 3 pixels off (averaging blurs the
+    // detail that matching relies on), so +-1 around it misses many odd displacements
+    private static final int REFINE_RANGE = 3;
+
+    private final SearchType type;
+    private final int range;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    public MotionEstimator(SearchType type, int range) {
+        if (range < 0) {
+            throw new RuntimeException("Invalid search range: " + range);
+        }
+        this.type = type;
+        this.range = range;
+    }
+
+    public MotionField estimate(Frame current, Frame reference) {
+        if (current.getWidth() != reference.getWidth() || current.getHeight() != reference.getHeight()) {
+            throw new RuntimeException("Frame size mismatch");
+        }
+        float[][] currentPlane = current.toPaddedPixels();
+        float[][] referencePlane = reference.toPaddedPixels();
+        float[][] coarseCurrent = null;
+        float[][] coarseReference = null;
+        if (type == SearchType.HIERARCHICAL) {
+            coarseCurrent = BlockMatching.downsample(currentPlane);
+            coarseReference = BlockMatching.downsample(referencePlane);
+        }
+        float[][] finalCoarseCurrent = coarseCurrent;
+        float[][] finalCoarseReference = coarseReference;
+
+        int blocksX = current.getBlocksX();
+        MotionVector[] vectors = new MotionVector[current.getBlockCount()];
+        pool.submit(() -> IntStream.range(0, vectors.length).parallel().forEach(i -> {
+            int x = (i % blocksX) * BLOCK_SIZE;
+            int y = (i / blocksX) * BLOCK_SIZE;
+            vectors[i] = search(currentPlane, referencePlane, finalCoarseCurrent, finalCoarseReference, x, y);
+        })).join();
+        return new MotionField(current.getWidth(), current.getHeight(), blocksX, current.getBlocksY(), vectors);
+    }
+
+    private MotionVector search(float[][] current, float[][] reference,
+                                float[][] coarseCurrent, float[][] coarseReference, int x, int y) {
+        switch (type) {
+            case FULL:
+                return BlockMatching.fullSearch(current, reference, x, y, BLOCK_SIZE, 0, 0, range, range);
+            case DIAMOND:
+                return BlockMatching.diamondSearch(current, reference, x, y, BLOCK_SIZE, range);
+            case HIERARCHICAL:
+                // the block's 4x4 at half resolution is too small to match reliably: an 8x8 window centred on
+                // it (moved inside the plane at the edges) is matched instead
+                int size = Math.min(BLOCK_SIZE, Math.min(coarseCurrent.length, coarseCurrent[0].length));
+                int offset = (size - BLOCK_SIZE / 2) / 2;
+                int wx = Math.max(0, Math.min(coarseCurrent[0].length - size, x / 2 - offset));
+                int wy = Math.max(0, Math.min(coarseCurrent.length - size, y / 2 - offset));
+                int coarseRange = range / 2;
+                MotionVector coarse = BlockMatching.fullSearch(coarseCurrent, coarseReference, wx, wy, size, 0, 0,
+                        coarseRange, coarseRange);
+                return BlockMatching.fullSearch(current, reference, x, y, BLOCK_SIZE, coarse.getDX() * 2,
+                        coarse.getDY() * 2, REFINE_RANGE, range);
+            default:
+                throw new RuntimeException("Unknown search type: " + type);
+        }
+    }
+
+    public SearchType getType() {
+        return type;
+    }
+
+    public int getRange() {
+        return range;
+    }
+
+    public MotionEstimator setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+}
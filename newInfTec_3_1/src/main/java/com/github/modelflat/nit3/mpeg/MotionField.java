@@ -0,0 +1,138 @@
+package com.github.modelflat.nit3.mpeg;
+
+import com.github.modelflat.nit3.jpeg.Block;
+import com.github.modelflat.nit3.jpeg.Frame;
+import com.github.modelflat.nit3.jpeg.io.BitWriter;
+
+import java.util.Arrays;
+
+/*
+Motion vectors of every 8x8 block of a frame, row by row. The residual of a block is the block minus the
+reference block its vector points at; residual Blocks go through the usual compress() path.
+ */
+public class MotionField {
+
+    private final int width;
+    private final int height;
+    private final int blocksX;
+    private final int blocksY;
+    private final MotionVector[] vectors;
+
+    MotionField(int width, int height, int blocksX, int blocksY, MotionVector[] vectors) {
+        this.width = width;
+        this.height = height;
+        this.blocksX = blocksX;
+        this.blocksY = blocksY;
+        this.vectors = vectors;
+    }
+
+    /*
+    Field of zero vectors, i.e. plain frame difference
+     */
+    public static MotionField zero(Frame frame) {
+        MotionVector[] vectors = new MotionVector[frame.getBlockCount()];
+        Arrays.fill(vectors, MotionVector.ZERO);
+        return new MotionField(frame.getWidth(), frame.getHeight(), frame.getBlocksX(), frame.getBlocksY(), vectors);
+    }
+
+    public Frame residual(Frame current, Frame reference, int q) {
+        float[][] currentPlane = current.toPaddedPixels();
+        float[][] referencePlane = reference.toPaddedPixels();
+        Block[] blocks = new Block[vectors.length];
+        float[] raw = new float[64];
+        for (int i = 0; i < vectors.length; i++) {
+            int x = (i % blocksX) * MotionEstimator.BLOCK_SIZE;
+            int y = (i / blocksX) * MotionEstimator.BLOCK_SIZE;
+            MotionVector v = vectors[i];
+            for (int r = 0; r < 8; r++) {
+                for (int c = 0; c < 8; c++) {
+                    raw[r * 8 + c] = currentPlane[y + r][x + c] - referencePlane[y + v.getDY() + r][x + v.getDX() + c];
+                }
+            }
+            blocks[i] = new Block(raw, q).setDCT(current.getBlock(0, 0).getDCT());
+        }
+        return Frame.fromBlocks(width, height, blocks).setPool(current.getPool());
+    }
+
+    /*
+    Motion-compensated prediction of the frame from the reference
+     */
+    public Frame predict(Frame reference) {
+        float[][] referencePlane = reference.toPaddedPixels();
+        Block[] blocks = new Block[vectors.length];
+        float[] raw = new float[64];
+        for (int i = 0; i < vectors.length; i++) {
+            int x = (i % blocksX) * MotionEstimator.BLOCK_SIZE;
+            int y = (i / blocksX) * MotionEstimator.BLOCK_SIZE;
+            MotionVector v = vectors[i];
+            for (int r = 0; r < 8; r++) {
+                System.arraycopy(referencePlane[y + v.getDY() + r], x + v.getDX(), raw, r * 8, 8);
+            }
+            blocks[i] = new Block(raw, 0);
+        }
+        return Frame.fromBlocks(width, height, blocks).setPool(reference.getPool());
+    }
+
+    /*
+    Vectors coded as in MPEG: each one predicted by its left neighbour (the first of a row by (0, 0)), the
+    difference sent as two signed Exp-Golomb codes
+     */
+    public int computeSize() {
+        long bits = 0;
+        for (int by = 0; by < blocksY; by++) {
+            int previousX = 0;
+            int previousY = 0;
+            for (int bx = 0; bx < blocksX; bx++) {
+                MotionVector v = get(bx, by);
+                bits += expGolombLength(v.getDX() - previousX) + expGolombLength(v.getDY() - previousY);
+                previousX = v.getDX();
+                previousY = v.getDY();
+            }
+        }
+        return (int) ((bits + 7) / 8);
+    }
+
+    /*
+    Writes the vectors as computeSize() counts them
+     */
+    public void write(BitWriter writer) {
+        for (int by = 0; by < blocksY; by++) {
+            int previousX = 0;
+            int previousY = 0;
+            for (int bx = 0; bx < blocksX; bx++) {
+                MotionVector v = get(bx, by);
+                writeExpGolomb(v.getDX() - previousX, writer);
+                writeExpGolomb(v.getDY() - previousY, writer);
+                previousX = v.getDX();
+                previousY = v.getDY();
+            }
+        }
+    }
+
+    static void writeExpGolomb(int value, BitWriter writer) {
+        int codeNumber = value > 0 ? 2 * value - 1 : -2 * value;
+        // codeNumber + 1 in 2 * floor(log2(codeNumber + 1)) + 1 bits, i.e. after as many zeros as it has bits - 1
+        writer.write(codeNumber + 1, expGolombLength(value));
+    }
+
+    static int expGolombLength(int value) {
+        int codeNumber = value > 0 ? 2 * value - 1 : -2 * value;
+        return 2 * (31 - Integer.numberOfLeadingZeros(codeNumber + 1)) + 1;
+    }
+
+    public MotionVector get(int bx, int by) {
+        return vectors[by * blocksX + bx];
+    }
+
+    public int getBlocksX() {
+        return blocksX;
+    }
+
+    public int getBlocksY() {
+        return blocksY;
+    }
+
+    public int getVectorCount() {
+        return vectors.length;
+    }
+}
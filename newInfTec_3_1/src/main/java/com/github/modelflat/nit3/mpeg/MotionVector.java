@@ -0,0 +1,34 @@
+package com.github.modelflat.nit3.mpeg;
+
+public class MotionVector {
+
+    // zero displacement with no SAD computed for it
+    public static final MotionVector ZERO = new MotionVector(0, 0, Float.MAX_VALUE);
+
+    private final int dx;
+    private final int dy;
+    private final float sad;
+
+    MotionVector(int dx, int dy, float sad) {
+        this.dx = dx;
+        this.dy = dy;
+        this.sad = sad;
+    }
+
+    public int getDX() {
+        return dx;
+    }
+
+    public int getDY() {
+        return dy;
+    }
+
+    public float getSAD() {
+        return sad;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("(%d, %d)", dx, dy);
+    }
+}
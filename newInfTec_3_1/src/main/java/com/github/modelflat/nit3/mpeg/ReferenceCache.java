@@ -0,0 +1,45 @@
+package com.github.modelflat.nit3.mpeg;
+
+import com.github.modelflat.nit3.jpeg.Frame;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+Reconstructed reference frames (what a decoder outputs for them) by display index, at most `capacity` of
+them: putting one more evicts the oldest. Synchronized, as concurrent B-frames look up their references.
+ */
+final class ReferenceCache {
+
+    private final int capacity;
+    private final Map<Integer, Frame> frames;
+
+    ReferenceCache(int capacity) {
+        if (capacity < 1) {
+            throw new RuntimeException("Invalid reference cache capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.frames = new LinkedHashMap<Integer, Frame>(2 * capacity) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Frame> eldest) {
+                return size() > ReferenceCache.this.capacity;
+            }
+        };
+    }
+
+    synchronized void put(int index, Frame frame) {
+        frames.put(index, frame);
+    }
+
+    synchronized Frame get(int index) {
+        Frame frame = frames.get(index);
+        if (frame == null) {
+            throw new RuntimeException("Reference frame " + index + " is not cached");
+        }
+        return frame;
+    }
+
+    synchronized int size() {
+        return frames.size();
+    }
+}
@@ -0,0 +1,224 @@
+package com.github.modelflat.nit3.mpeg;
+
+import com.github.modelflat.nit3.jpeg.Block;
+import com.github.modelflat.nit3.jpeg.Frame;
+import com.github.modelflat.nit3.jpeg.entropy.ArithmeticCoder;
+import com.github.modelflat.nit3.jpeg.entropy.EntropyCoder;
+import com.github.modelflat.nit3.jpeg.entropy.EntropyCoderType;
+import com.github.modelflat.nit3.jpeg.entropy.HuffmanCoder;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanBuilder;
+import com.github.modelflat.nit3.jpeg.huffman.HuffmanCode;
+import com.github.modelflat.nit3.jpeg.io.BitWriter;
+
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/*
+Codes the residual of a P-frame with skipped blocks, like MPEG's not-coded blocks: a block the decoder takes
+as zero, i.e. as its motion-compensated prediction, costs one flag bit and no coefficients.
+
+A block is skipped before the transform when its mean absolute residual is at most `threshold` (a static
+region, found with an early-exit SAD), or after quantization when no coefficient is left; only the others
+are run-length and entropy coded (Huffman or arithmetic, see EntropyCoderType). Residuals are centred on
+zero already, so they are transformed without the level shift of Block.compress(), which would turn a zero
+residual into a DC coefficient.
+
+Blocks are coded in parallel inside the residual frame's pool.
+ */
+public class ResidualCoder {
+
+    // Huffman code description: count, 16 code counts and up to 256 symbols
+    private static final int MAX_TABLE_BYTES = 2 + 16 + 256;
+
+    private final float maxSAD;
+    private final EntropyCoderType entropyCoder;
+
+    public ResidualCoder(float threshold) {
+        this(threshold, EntropyCoderType.HUFFMAN);
+    }
+
+    public ResidualCoder(float threshold, EntropyCoderType entropyCoder) {
+        if (threshold < 0) {
+            throw new RuntimeException("Invalid skip threshold: " + threshold);
+        }
+        this.maxSAD = threshold * 64;
+        this.entropyCoder = entropyCoder;
+    }
+
+    /*
+    Replaces the blocks of `residual` with their quantized coefficients, zero for skipped blocks
+     */
+    public Result code(Frame residual) {
+        int blocksX = residual.getBlocksX();
+        byte[] skipped = new byte[residual.getBlockCount()];
+        int size = residual.getPool().submit(() -> IntStream.range(0, skipped.length).parallel().map(i -> {
+            Block block = residual.getBlock(i % blocksX, i / blocksX);
+            if (block.isStatic(maxSAD)) {
+                block.clear();
+                skipped[i] = Result.STATIC;
+                return 0;
+            }
+            if (block.fdct().quantize().isZero()) {
+                skipped[i] = Result.ZERO;
+                return 0;
+            }
+            return block.computeHuffmanSize();
+        }).sum()).join();
+        return new Result(skipped, size + (skipped.length + 7) / 8);
+    }
+
+    /*
+    Inverse of code(): adds the decoded residual to `prediction`, which becomes the reconstructed frame; skipped
+    blocks leave the prediction as is
+     */
+    public static Frame reconstruct(Frame residual, Result result, Frame prediction) {
+        int blocksX = residual.getBlocksX();
+        residual.getPool().submit(() -> IntStream.range(0, result.skipped.length).parallel().forEach(i -> {
+            if (result.skipped[i] == Result.CODED) {
+                Block predicted = prediction.getBlock(i % blocksX, i / blocksX);
+                residual.getBlock(i % blocksX, i / blocksX).dequantize().idct().sum(predicted, predicted);
+            }
+        })).join();
+        return prediction;
+    }
+
+    /*
+    Writes a coded residual as: with HUFFMAN, the number n of Huffman codes (two bytes, 0 if every block is
+    skipped), how many codes there are of each length 1..16 and their n symbols in code order (as in a DHT
+    segment); then one coded flag bit per block, padded with 1-bits to a byte; then the coded blocks as a stream
+    of the entropy coder (for HUFFMAN, HuffmanCoder with that code, built for this residual).
+     */
+    public ByteBuffer write(Frame residual, Result result, ByteBuffer buffer) {
+        EntropyCoder coder;
+        if (entropyCoder == EntropyCoderType.ARITHMETIC) {
+            coder = new ArithmeticCoder();
+        } else {
+            HuffmanCode code = buildCode(residual, result);
+            if (code == null) {
+                buffer.putShort((short) 0);
+            } else {
+                buffer.putShort((short) code.getSymbols().length);
+                for (int length = 1; length <= HuffmanBuilder.JPEG_MAX_LENGTH; length++) {
+                    buffer.put((byte) code.getCounts()[length]);
+                }
+                for (int symbol : code.getSymbols()) {
+                    buffer.put((byte) symbol);
+                }
+            }
+            coder = code == null ? null : new HuffmanCoder(code);
+        }
+        BitWriter writer = new BitWriter(buffer);
+        for (byte kind : result.skipped) {
+            writer.write(kind == Result.CODED ? 1 : 0, 1);
+        }
+        writer.flush();
+        if (coder == null) {
+            return buffer;
+        }
+        int blocksX = residual.getBlocksX();
+        EntropyCoder.Encoder encoder = coder.newEncoder(buffer);
+        for (int i = 0; i < result.skipped.length; i++) {
+            if (result.skipped[i] == Result.CODED) {
+                encoder.encode(residual.getBlock(i % blocksX, i / blocksX));
+            }
+        }
+        return encoder.flush();
+    }
+
+    /*
+    Code fitted to the coded blocks, null if there are none
+     */
+    private static HuffmanCode buildCode(Frame residual, Result result) {
+        int blocksX = residual.getBlocksX();
+        int[] histogram = residual.getPool().submit(() -> IntStream.range(0, result.skipped.length).parallel()
+                .filter(i -> result.skipped[i] == Result.CODED)
+                .collect(() -> new int[256], (counts, i) -> residual.getBlock(i % blocksX, i / blocksX)
+                        .countSymbols(counts), ResidualCoder::add)).join();
+        for (int count : histogram) {
+            if (count != 0) {
+                return HuffmanBuilder.build(histogram, 0, HuffmanBuilder.JPEG_MAX_LENGTH);
+            }
+        }
+        return null;
+    }
+
+    /*
+    Upper bound of what write() adds to the buffer for `residual`
+     */
+    public int maxSize(Frame residual) {
+        int blocks = residual.getBlockCount();
+        return MAX_TABLE_BYTES + (blocks + 7) / 8 + entropyCoder.maxSize(blocks);
+    }
+
+    private static void add(int[] counts, int[] other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other[i];
+        }
+    }
+
+    public float getThreshold() {
+        return maxSAD / 64;
+    }
+
+    public EntropyCoderType getEntropyCoder() {
+        return entropyCoder;
+    }
+
+    public static final class Result {
+
+        static final byte CODED = 0;
+        static final byte STATIC = 1;
+        static final byte ZERO = 2;
+
+        private final byte[] skipped;
+        private final int size;
+
+        Result(byte[] skipped, int size) {
+            this.skipped = skipped;
+            this.size = size;
+        }
+
+        /*
+        `index` is by * blocksX + bx
+         */
+        public boolean isSkipped(int index) {
+            return skipped[index] != CODED;
+        }
+
+        /*
+        Blocks skipped before the transform
+         */
+        public int getStaticCount() {
+            return count(STATIC);
+        }
+
+        /*
+        Blocks skipped after quantization
+         */
+        public int getZeroCount() {
+            return count(ZERO);
+        }
+
+        public float getSkipRatio() {
+            return (float) (getStaticCount() + getZeroCount()) / skipped.length;
+        }
+
+        /*
+        Coded blocks with per-block Huffman codes (as Frame.computeHuffmanSize()) plus a flag bit per block,
+        whatever entropy coder write() uses
+         */
+        public int getSize() {
+            return size;
+        }
+
+        private int count(byte kind) {
+            int count = 0;
+            for (byte value : skipped) {
+                if (value == kind) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
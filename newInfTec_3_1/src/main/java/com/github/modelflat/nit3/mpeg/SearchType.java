@@ -0,0 +1,10 @@
+package com.github.modelflat.nit3.mpeg;
+
+public enum SearchType {
+    // every candidate in the window
+    FULL,
+    // large/small diamond descent from (0, 0)
+    DIAMOND,
+    // full search of 8x8 windows at half resolution over half the range, then a +-3 full-resolution refinement
+    HIERARCHICAL
+}
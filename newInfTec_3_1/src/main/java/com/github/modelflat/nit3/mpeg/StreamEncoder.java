@@ -0,0 +1,483 @@
+package com.github.modelflat.nit3.mpeg;
+
+import com.github.modelflat.nit3.jpeg.BlockCache;
+import com.github.modelflat.nit3.jpeg.Frame;
+import com.github.modelflat.nit3.jpeg.JFIFWriter;
+import com.github.modelflat.nit3.jpeg.io.BitWriter;
+import com.github.modelflat.nit3.stats.Quality;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/*
+Encodes a clip from a VideoReader as a pipeline of five stages, each on its own thread and connected to the
+next by a queue of `capacity` groups of frames:
+
+    read -> motion estimation -> transform/quantize -> entropy coding -> write
+
+A stage blocks when the next one's queue is full, so at most about 5 + 4 * capacity groups exist at any time,
+whatever the clip's length.
+
+Frames come in GOPs of `gop` frames, the first an I-frame. With `bFrames` > 0, up to that many B-frames
+follow every anchor (I- or P-frame) in display order, predicted from it and from the next anchor of the same
+GOP; frames that have no next anchor in their GOP (the end of a GOP or of the clip) are P-frames instead. The
+read stage keeps B-frames in a reorder buffer until their next anchor is read, then passes on a group in
+coding order: the anchor, then the B-frames before it. P-frames are predicted from the reconstruction of the
+anchor before, kept with the next one in a ReferenceCache of two frames. Vectors are searched against the
+source anchors, so that motion estimation does not wait for reconstructions. Anchors depend on each other and
+are coded one after the other; the B-frames of a group only depend on the two anchors, and are estimated,
+transformed and entropy coded concurrently in `pool`.
+
+The stream is: "NIT3V", width, height, q, gop, bFrames and the residuals' entropy coder (ints, the coder as
+its EntropyCoderType ordinal); then per frame, in coding order, a type byte ('I', 'P' or 'B'), the display
+index and the payload length (ints) and the payload: for I-frames a JFIF file, for P-frames the motion
+vectors (MotionField.write(), padded to a byte), for B-frames the modes and vectors (BiMotionField.write(),
+padded to a byte), either followed by ResidualCoder.write().
+ */
+public class StreamEncoder {
+
+    private static final byte[] MAGIC = {'N', 'I', 'T', '3', 'V'};
+
+    private final int q;
+    private final int gop;
+    private final int bFrames;
+    private final MotionEstimator estimator;
+    private final ResidualCoder coder;
+    private final int capacity;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    // null unless I-frame blocks are to be looked up
+    private BlockCache blockCache;
+
+    public StreamEncoder(int q, int gop, int bFrames, MotionEstimator estimator, ResidualCoder coder,
+                         int capacity) {
+        if (gop < 1 || bFrames < 0 || capacity < 1) {
+            throw new RuntimeException("Invalid GOP length, B-frame count or queue capacity: " + gop + ", " +
+                    bFrames + ", " + capacity);
+        }
+        this.q = q;
+        this.gop = gop;
+        this.bFrames = bFrames;
+        this.estimator = estimator;
+        this.coder = coder;
+        this.capacity = capacity;
+    }
+
+    public StreamEncoder setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /*
+    Compresses I-frames through `cache`, which pays off for screen content, where I-frames repeat most blocks
+    of the previous one; null for none
+     */
+    public StreamEncoder setBlockCache(BlockCache cache) {
+        this.blockCache = cache;
+        return this;
+    }
+
+    public Summary encode(VideoReader reader, OutputStream output) {
+        List<BlockingQueue<Group>> queues = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            queues.add(new ArrayBlockingQueue<>(capacity));
+        }
+        Summary summary = new Summary();
+        DataOutputStream out = new DataOutputStream(output);
+        List<Callable<Void>> stages = Arrays.asList(
+                () -> read(reader, queues.get(0)),
+                new Stage(queues.get(0), queues.get(1), Summary.MOTION) {
+                    private Frame previous;
+
+                    @Override
+                    void process(Group group) {
+                        Task anchor = group.anchor;
+                        if (anchor.type == Task.P) {
+                            anchor.field = estimator.estimate(anchor.frame, previous);
+                        }
+                        Frame past = previous;
+                        forEach(group.bFrames, task -> task.biField =
+                                BiMotionField.estimate(estimator, task.frame, past, anchor.frame, lambda()));
+                        previous = anchor.frame;
+                    }
+                },
+                new Stage(queues.get(1), queues.get(2), Summary.TRANSFORM) {
+                    private final ReferenceCache references = new ReferenceCache(2);
+
+                    @Override
+                    void process(Group group) {
+                        transform(group.anchor, references);
+                        forEach(group.bFrames, task -> transform(task, references));
+                    }
+                },
+                new Stage(queues.get(2), queues.get(3), Summary.ENTROPY) {
+                    @Override
+                    void process(Group group) {
+                        entropy(group.anchor);
+                        forEach(group.bFrames, StreamEncoder.this::entropy);
+                    }
+                },
+                () -> write(queues.get(3), out, reader, summary));
+
+        ExecutorService threads = Executors.newFixedThreadPool(stages.size());
+        CompletionService<Void> completion = new ExecutorCompletionService<>(threads);
+        long start = System.nanoTime();
+        try {
+            for (Callable<Void> stage : stages) {
+                completion.submit(stage);
+            }
+            // a failed stage would leave the others blocked on their queues: stop them all
+            for (int i = 0; i < stages.size(); i++) {
+                completion.take().get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            threads.shutdownNow();
+        }
+        summary.elapsed = System.nanoTime() - start;
+        return summary;
+    }
+
+    private void forEach(List<Task> tasks, Consumer<Task> action) {
+        if (tasks.size() == 1) {
+            action.accept(tasks.get(0));
+        } else if (!tasks.isEmpty()) {
+            pool.submit(() -> tasks.parallelStream().forEach(action)).join();
+        }
+    }
+
+    /*
+    Weight of side information bits against SAD in B-frame mode decisions: the DC quantizer step, as a rough
+    measure of what a bit of residual buys at this q
+     */
+    private float lambda() {
+        return 1 + q;
+    }
+
+    /*
+    Type of the frame at display index `index` in a clip that goes on after it
+     */
+    private char typeOf(int index) {
+        int position = index % gop;
+        if (position == 0) {
+            return Task.I;
+        }
+        if (position % (bFrames + 1) == 0) {
+            return Task.P;
+        }
+        // B-frames need an anchor after them in the same GOP
+        int next = (position / (bFrames + 1) + 1) * (bFrames + 1);
+        return next < gop ? Task.B : Task.P;
+    }
+
+    /*
+    Also the reorder buffer: B-frames wait in `pending` for the anchor after them
+     */
+    private Void read(VideoReader reader, BlockingQueue<Group> out) throws IOException, InterruptedException {
+        List<Task> pending = new ArrayList<>();
+        long pendingTime = 0;
+        int previous = -1;
+        for (int index = 0; ; index++) {
+            long start = System.nanoTime();
+            Frame frame = reader.next();
+            if (frame == null) {
+                break;
+            }
+            Task task = new Task(index, typeOf(index), frame);
+            if (task.type == Task.B) {
+                task.past = previous;
+                pending.add(task);
+                pendingTime += System.nanoTime() - start;
+                continue;
+            }
+            task.past = previous;
+            for (Task b : pending) {
+                b.future = index;
+            }
+            Group group = new Group(task, pending);
+            group.time[Summary.READ] = pendingTime + System.nanoTime() - start;
+            out.put(group);
+            pending = new ArrayList<>();
+            pendingTime = 0;
+            previous = index;
+        }
+        // the clip ended before the anchor these were waiting for
+        for (Task task : pending) {
+            Task anchor = new Task(task.index, Task.P, task.frame);
+            anchor.past = previous;
+            out.put(new Group(anchor, Collections.emptyList()));
+            previous = task.index;
+        }
+        out.put(Group.END);
+        return null;
+    }
+
+    /*
+    Also measures the PSNR of the reconstruction against the source
+     */
+    private void transform(Task task, ReferenceCache references) {
+        Frame source = task.frame;
+        Frame reconstructed;
+        switch (task.type) {
+            case Task.I:
+                // the source frame is still the motion stage's reference
+                task.frame = source.copy().setQ(q);
+                if (blockCache == null) {
+                    task.frame.compress();
+                } else {
+                    task.frame.compress(blockCache);
+                }
+                reconstructed = task.frame.copy().decompress();
+                references.put(task.index, reconstructed);
+                break;
+            case Task.P:
+                Frame reference = references.get(task.past);
+                task.residual = task.field.residual(source, reference, q);
+                task.result = coder.code(task.residual);
+                reconstructed = ResidualCoder.reconstruct(task.residual.copy(), task.result,
+                        task.field.predict(reference));
+                references.put(task.index, reconstructed);
+                task.frame = null;
+                break;
+            default:
+                Frame past = references.get(task.past);
+                Frame future = references.get(task.future);
+                task.residual = task.biField.residual(source, past, future, q);
+                task.result = coder.code(task.residual);
+                reconstructed = ResidualCoder.reconstruct(task.residual.copy(), task.result,
+                        task.biField.predict(past, future));
+                task.frame = null;
+                break;
+        }
+        task.psnr = Quality.psnr(source.toPixels(), reconstructed.toPixels(), pool);
+    }
+
+    private void entropy(Task task) {
+        ByteBuffer buffer;
+        if (task.type == Task.I) {
+            buffer = ByteBuffer.allocate(JFIFWriter.maxSize(task.frame));
+            JFIFWriter.write(task.frame, buffer);
+        } else {
+            int vectorBytes = task.type == Task.P ? task.field.computeSize() : task.biField.computeSize();
+            buffer = ByteBuffer.allocate(vectorBytes + coder.maxSize(task.residual));
+            BitWriter writer = new BitWriter(buffer);
+            if (task.type == Task.P) {
+                task.field.write(writer);
+            } else {
+                task.biField.write(writer);
+            }
+            writer.flush();
+            coder.write(task.residual, task.result, buffer);
+        }
+        task.payload = Arrays.copyOf(buffer.array(), buffer.position());
+        task.frame = null;
+        task.residual = null;
+    }
+
+    private Void write(BlockingQueue<Group> in, DataOutputStream out, VideoReader reader, Summary summary)
+            throws IOException, InterruptedException {
+        out.write(MAGIC);
+        out.writeInt(reader.getWidth());
+        out.writeInt(reader.getHeight());
+        out.writeInt(q);
+        out.writeInt(gop);
+        out.writeInt(bFrames);
+        out.writeInt(coder.getEntropyCoder().ordinal());
+        summary.bytes = MAGIC.length + 24;
+        Group group;
+        while ((group = in.take()) != Group.END) {
+            long start = System.nanoTime();
+            write(group.anchor, out, summary);
+            for (Task task : group.bFrames) {
+                write(task, out, summary);
+            }
+            group.time[Summary.WRITE] = System.nanoTime() - start;
+            summary.add(group);
+        }
+        out.flush();
+        return null;
+    }
+
+    private static void write(Task task, DataOutputStream out, Summary summary) throws IOException {
+        out.writeByte(task.type);
+        out.writeInt(task.index);
+        out.writeInt(task.payload.length);
+        out.write(task.payload);
+        summary.add(task, 9 + task.payload.length);
+    }
+
+    /*
+    Takes groups from `in` until the end marker, which is passed on like the groups
+     */
+    private abstract static class Stage implements Callable<Void> {
+
+        private final BlockingQueue<Group> in;
+        private final BlockingQueue<Group> out;
+        private final int stage;
+
+        Stage(BlockingQueue<Group> in, BlockingQueue<Group> out, int stage) {
+            this.in = in;
+            this.out = out;
+            this.stage = stage;
+        }
+
+        abstract void process(Group group);
+
+        @Override
+        public Void call() throws InterruptedException {
+            Group group;
+            while ((group = in.take()) != Group.END) {
+                long start = System.nanoTime();
+                process(group);
+                group.time[stage] = System.nanoTime() - start;
+                out.put(group);
+            }
+            out.put(Group.END);
+            return null;
+        }
+    }
+
+    /*
+    An anchor and the B-frames coded after it, which come before it in display order
+     */
+    private static final class Group {
+
+        static final Group END = new Group(null, Collections.emptyList());
+
+        final Task anchor;
+        final List<Task> bFrames;
+        final long[] time = new long[Summary.STAGES];
+
+        Group(Task anchor, List<Task> bFrames) {
+            this.anchor = anchor;
+            this.bFrames = bFrames;
+        }
+    }
+
+    /*
+    One frame on its way through the stages; each stage drops what the later ones do not need
+     */
+    private static final class Task {
+
+        static final char I = 'I';
+        static final char P = 'P';
+        static final char B = 'B';
+
+        final int index;
+        final char type;
+        // display indices of the references (-1 if none)
+        int past = -1;
+        int future = -1;
+        Frame frame;
+        MotionField field;
+        BiMotionField biField;
+        Frame residual;
+        ResidualCoder.Result result;
+        double psnr;
+        byte[] payload;
+
+        Task(int index, char type, Frame frame) {
+            this.index = index;
+            this.type = type;
+            this.frame = frame;
+        }
+    }
+
+    public static final class Summary {
+
+        static final int READ = 0;
+        static final int MOTION = 1;
+        static final int TRANSFORM = 2;
+        static final int ENTROPY = 3;
+        static final int WRITE = 4;
+        static final int STAGES = 5;
+
+        private static final String[] NAMES = {"read", "motion", "transform", "entropy", "write"};
+
+        private int frames;
+        private int intraFrames;
+        private int bidirectionalFrames;
+        private long bytes;
+        private double psnrSum;
+        private long elapsed;
+        private final long[] busy = new long[STAGES];
+
+        void add(Task task, int bytes) {
+            frames++;
+            if (task.type == Task.I) {
+                intraFrames++;
+            } else if (task.type == Task.B) {
+                bidirectionalFrames++;
+            }
+            this.bytes += bytes;
+            psnrSum += task.psnr;
+        }
+
+        void add(Group group) {
+            for (int i = 0; i < STAGES; i++) {
+                busy[i] += group.time[i];
+            }
+        }
+
+        public int getFrames() {
+            return frames;
+        }
+
+        public int getIntraFrames() {
+            return intraFrames;
+        }
+
+        public int getBidirectionalFrames() {
+            return bidirectionalFrames;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /*
+        Mean over the frames of the PSNR of each reconstructed frame (dB)
+         */
+        public double getMeanPSNR() {
+            return frames == 0 ? 0 : psnrSum / frames;
+        }
+
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        public static int getStageCount() {
+            return STAGES;
+        }
+
+        public static String getStageName(int stage) {
+            return NAMES[stage];
+        }
+
+        /*
+        Time the stage spent on frames, not waiting on its queues
+         */
+        public long getBusyTime(int stage) {
+            return busy[stage];
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.modelflat.nit3.mpeg;
+
+import com.github.modelflat.nit3.jpeg.Frame;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+Reads the luma planes of a raw video clip one frame at a time, mapping each frame's bytes from the file
+instead of reading them through a stream: only the frame being converted is mapped (and the OS pages it in),
+so memory stays the same however long the clip is.
+
+Two formats are understood:
+ - YUV4MPEG2 (.y4m): a text header line with at least W<width> and H<height> (C<chroma> gives the layout,
+   4:2:0 by default; interlacing and frame rate are ignored), then per frame a FRAME line and the Y, U, V
+   planes;
+ - anything else is raw planar 8-bit 4:2:0 (I420) with the size given by the caller.
+ */
+public class VideoReader implements Closeable {
+
+    private static final String Y4M_MAGIC = "YUV4MPEG2 ";
+    private static final String FRAME_MAGIC = "FRAME";
+    // longest header line accepted, FRAME lines included
+    private static final int MAX_HEADER = 4096;
+
+    private final FileChannel channel;
+    private final boolean y4m;
+    private final int width;
+    private final int height;
+    // Y, U and V bytes of a frame
+    private final long frameBytes;
+    private long position;
+
+    private VideoReader(FileChannel channel, boolean y4m, int width, int height, long frameBytes, long position) {
+        this.channel = channel;
+        this.y4m = y4m;
+        this.width = width;
+        this.height = height;
+        this.frameBytes = frameBytes;
+        this.position = position;
+    }
+
+    /*
+    width and height are only used (and must be positive) for raw files
+     */
+    public static VideoReader open(Path file, int width, int height) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            String header = readLine(channel, 0);
+            if (header == null || !header.startsWith(Y4M_MAGIC)) {
+                if (width <= 0 || height <= 0) {
+                    throw new RuntimeException("Frame size of raw video is not set: " + file);
+                }
+                return new VideoReader(channel, false, width, height, lumaBytes(width, height) +
+                        2L * ((width + 1) / 2) * ((height + 1) / 2), 0);
+            }
+            int w = 0;
+            int h = 0;
+            String chroma = "420";
+            for (String parameter : header.substring(Y4M_MAGIC.length()).split(" ")) {
+                if (parameter.startsWith("W")) {
+                    w = Integer.parseInt(parameter.substring(1));
+                } else if (parameter.startsWith("H")) {
+                    h = Integer.parseInt(parameter.substring(1));
+                } else if (parameter.startsWith("C")) {
+                    chroma = parameter.substring(1);
+                }
+            }
+            if (w <= 0 || h <= 0) {
+                throw new RuntimeException("Invalid YUV4MPEG2 header: " + header);
+            }
+            return new VideoReader(channel, true, w, h, lumaBytes(w, h) + chromaBytes(chroma, w, h),
+                    header.length() + 1);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static long lumaBytes(int width, int height) {
+        return (long) width * height;
+    }
+
+    private static long chromaBytes(String chroma, int width, int height) {
+        if (chroma.startsWith("420")) {
+            return 2L * ((width + 1) / 2) * ((height + 1) / 2);
+        }
+        if (chroma.startsWith("422")) {
+            return 2L * ((width + 1) / 2) * height;
+        }
+        if (chroma.startsWith("444") && !chroma.startsWith("444alpha")) {
+            return 2L * width * height;
+        }
+        if (chroma.startsWith("mono")) {
+            return 0;
+        }
+        throw new RuntimeException("Unsupported YUV4MPEG2 chroma layout: " + chroma);
+    }
+
+    /*
+    Text up to the next '\n' at `position` (without it), or null at the end of the file
+     */
+    private static String readLine(FileChannel channel, long position) throws IOException {
+        long size = Math.min(MAX_HEADER, channel.size() - position);
+        if (size <= 0) {
+            return null;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        byte[] line = new byte[(int) size];
+        for (int i = 0; i < size; i++) {
+            line[i] = buffer.get(i);
+            if (line[i] == '\n') {
+                return new String(line, 0, i, StandardCharsets.US_ASCII);
+            }
+        }
+        return null;
+    }
+
+    /*
+    Luma of the next frame, or null after the last one (a truncated last frame is dropped)
+     */
+    public Frame next() throws IOException {
+        long start = position;
+        if (y4m) {
+            String line = readLine(channel, start);
+            if (line == null) {
+                return null;
+            }
+            if (!line.startsWith(FRAME_MAGIC)) {
+                throw new RuntimeException("Invalid YUV4MPEG2 frame header at " + start + ": " + line);
+            }
+            start += line.length() + 1;
+        }
+        if (start + frameBytes > channel.size()) {
+            return null;
+        }
+        MappedByteBuffer luma = channel.map(FileChannel.MapMode.READ_ONLY, start, lumaBytes(width, height));
+        float[][] pixels = new float[height][width];
+        for (int y = 0; y < height; y++) {
+            float[] row = pixels[y];
+            for (int x = 0; x < width; x++) {
+                row[x] = luma.get() & 0xFF;
+            }
+        }
+        position = start + frameBytes;
+        return new Frame(pixels);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
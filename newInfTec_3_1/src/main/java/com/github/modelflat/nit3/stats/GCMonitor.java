@@ -0,0 +1,108 @@
+package com.github.modelflat.nit3.stats;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+Collects the garbage collections the JVM reports between creation and close(): their count, total and
+longest duration (for stop-the-world collectors, the pauses), and the most heap in use right after one.
+Durations come from the collectors' notifications, which HotSpot sends after each collection.
+ */
+public final class GCMonitor implements AutoCloseable {
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final Set<String> heapPools = new HashSet<>();
+    private final NotificationListener listener = this::handle;
+    private int count;
+    private long totalTime;
+    private long maxTime;
+    private long maxHeapAfter;
+
+    public GCMonitor() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool.getName());
+            }
+        }
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (bean instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) bean;
+                emitter.addNotificationListener(listener, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    private synchronized void handle(Notification notification, Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long duration = info.getGcInfo().getDuration();
+        count++;
+        totalTime += duration;
+        maxTime = Math.max(maxTime, duration);
+        long used = 0;
+        for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+            if (heapPools.contains(pool.getKey())) {
+                used += pool.getValue().getUsed();
+            }
+        }
+        maxHeapAfter = Math.max(maxHeapAfter, used);
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /*
+    Milliseconds
+     */
+    public synchronized long getTotalTime() {
+        return totalTime;
+    }
+
+    /*
+    Milliseconds
+     */
+    public synchronized long getMaxTime() {
+        return maxTime;
+    }
+
+    /*
+    Bytes of all heap pools after the fullest collection (live data, roughly), 0 if there was none
+     */
+    public synchronized long getMaxHeapAfter() {
+        return maxHeapAfter;
+    }
+
+    /*
+    Stops listening; notifications still in flight may be missed, so a short wait before closing helps
+     */
+    @Override
+    public void close() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            } catch (ListenerNotFoundException e) {
+                // not registered: nothing to remove
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.github.modelflat.nit3.stats;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Process-wide instrumentation: a LatencyHistogram per Stage, a bytes-out counter (JFIF bytes written), bytes
+allocated by the JVM's threads since reset(), and quality samples (PSNR/SSIM) reported by the caller.
+
+Stages are timed as
+
+    long start = Instrumentation.start();
+    ...
+    Instrumentation.stop(Stage.X, start);
+
+Disabled (the default), start() and stop() only read a static boolean, so probes can stay in per-block code.
+The flag is a plain field: it is meant to be set before the work it applies to starts (tasks submitted to a
+pool afterwards see it), not flipped while work runs.
+
+Per-second rates are count / time spent in the stage, i.e. per thread; with n busy workers the wall-clock rate
+is up to n times that.
+ */
+public final class Instrumentation {
+
+    private static boolean enabled;
+
+    private static final LatencyHistogram[] STAGES = new LatencyHistogram[Stage.values().length];
+    private static final LongAdder BYTES_OUT = new LongAdder();
+    private static final List<QualitySample> QUALITY = new ArrayList<>();
+    // allocated bytes per thread id at reset()
+    private static final Map<Long, Long> ALLOCATED_BEFORE = new HashMap<>();
+
+    static {
+        for (int i = 0; i < STAGES.length; i++) {
+            STAGES[i] = new LatencyHistogram();
+        }
+    }
+
+    private Instrumentation() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+    Also resets everything recorded so far
+     */
+    public static void setEnabled(boolean enabled) {
+        reset();
+        Instrumentation.enabled = enabled;
+    }
+
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public static void stop(Stage stage, long start) {
+        if (enabled && start != 0) {
+            STAGES[stage.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    public static void addBytesOut(long bytes) {
+        if (enabled) {
+            BYTES_OUT.add(bytes);
+        }
+    }
+
+    public static void recordQuality(String label, double psnr, double ssim) {
+        if (enabled) {
+            synchronized (QUALITY) {
+                QUALITY.add(new QualitySample(label, psnr, ssim));
+            }
+        }
+    }
+
+    public static LatencyHistogram getHistogram(Stage stage) {
+        return STAGES[stage.ordinal()];
+    }
+
+    public static long getBytesOut() {
+        return BYTES_OUT.sum();
+    }
+
+    /*
+    Bytes allocated since reset() by the threads alive now (threads that ended in between are not counted), or
+    -1 if the JVM cannot tell
+     */
+    public static long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean bean = allocationBean();
+        if (bean == null) {
+            return -1;
+        }
+        long[] ids = bean.getAllThreadIds();
+        long[] allocated = bean.getThreadAllocatedBytes(ids);
+        long sum = 0;
+        synchronized (ALLOCATED_BEFORE) {
+            for (int i = 0; i < ids.length; i++) {
+                if (allocated[i] > 0) {
+                    sum += allocated[i] - ALLOCATED_BEFORE.getOrDefault(ids[i], 0L);
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+        boolean supported = allocationBean.isThreadAllocatedMemorySupported() &&
+                allocationBean.isThreadAllocatedMemoryEnabled();
+        return supported ? allocationBean : null;
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : STAGES) {
+            histogram.reset();
+        }
+        BYTES_OUT.reset();
+        synchronized (QUALITY) {
+            QUALITY.clear();
+        }
+        com.sun.management.ThreadMXBean bean = allocationBean();
+        synchronized (ALLOCATED_BEFORE) {
+            ALLOCATED_BEFORE.clear();
+            if (bean != null) {
+                long[] ids = bean.getAllThreadIds();
+                long[] allocated = bean.getThreadAllocatedBytes(ids);
+                for (int i = 0; i < ids.length; i++) {
+                    ALLOCATED_BEFORE.put(ids[i], allocated[i]);
+                }
+            }
+        }
+    }
+
+    public static String toJSON() {
+        StringBuilder json = new StringBuilder("{\n  \"stages\": {");
+        String separator = "\n";
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            json.append(separator).append(String.format(Locale.ROOT,
+                    "    \"%s\": {\"count\": %d, \"totalNs\": %d, \"meanNs\": %.1f, \"p50Ns\": %d, \"p90Ns\": %d, " +
+                            "\"p99Ns\": %d, \"maxNs\": %d, \"perSecond\": %.1f}",
+                    stage, histogram.getCount(), histogram.getTotal(), histogram.getMean(),
+                    histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                    histogram.getValueAtPercentile(99), histogram.getMax(), perSecond(histogram)));
+            separator = ",\n";
+        }
+        json.append(String.format(Locale.ROOT,
+                "\n  },\n  \"bytesOut\": %d,\n  \"allocatedBytes\": %d,\n  \"quality\": [",
+                getBytesOut(), getAllocatedBytes()));
+        separator = "\n";
+        for (QualitySample sample : qualitySamples()) {
+            json.append(separator).append(String.format(Locale.ROOT,
+                    "    {\"label\": \"%s\", \"psnr\": %s, \"ssim\": %.6f}", escape(sample.label),
+                    Double.isInfinite(sample.psnr) ? "null" : String.format(Locale.ROOT, "%.4f", sample.psnr),
+                    sample.ssim));
+            separator = ",\n";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    /*
+    One table: a row per stage, then the counters (in `count`) and quality samples (in `psnr`, `ssim`)
+     */
+    public static String toCSV() {
+        StringBuilder csv = new StringBuilder(
+                "type,name,count,totalNs,meanNs,p50Ns,p90Ns,p99Ns,maxNs,perSecond,psnr,ssim\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            csv.append(String.format(Locale.ROOT, "stage,%s,%d,%d,%.1f,%d,%d,%d,%d,%.1f,,\n", stage,
+                    histogram.getCount(), histogram.getTotal(), histogram.getMean(),
+                    histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                    histogram.getValueAtPercentile(99), histogram.getMax(), perSecond(histogram)));
+        }
+        csv.append("counter,bytesOut,").append(getBytesOut()).append(",,,,,,,,,\n");
+        csv.append("counter,allocatedBytes,").append(getAllocatedBytes()).append(",,,,,,,,,\n");
+        for (QualitySample sample : qualitySamples()) {
+            csv.append(String.format(Locale.ROOT, "quality,\"%s\",,,,,,,,,%.4f,%.6f\n",
+                    sample.label.replace("\"", "\"\""), sample.psnr, sample.ssim));
+        }
+        return csv.toString();
+    }
+
+    /*
+    CSV if the name ends with .csv, JSON otherwise
+     */
+    public static void export(String fileName) {
+        try (PrintStream stream = new PrintStream(fileName, "UTF-8")) {
+            stream.print(fileName.endsWith(".csv") ? toCSV() : toJSON());
+        } catch (FileNotFoundException | UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static double perSecond(LatencyHistogram histogram) {
+        return histogram.getTotal() == 0 ? 0 : histogram.getCount() * 1e9 / histogram.getTotal();
+    }
+
+    private static List<QualitySample> qualitySamples() {
+        synchronized (QUALITY) {
+            return new ArrayList<>(QUALITY);
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static final class QualitySample {
+        final String label;
+        final double psnr;
+        final double ssim;
+
+        QualitySample(String label, double psnr, double ssim) {
+            this.label = label;
+            this.psnr = psnr;
+            this.ssim = ssim;
+        }
+    }
+}
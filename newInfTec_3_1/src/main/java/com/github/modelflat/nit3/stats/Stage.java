@@ -0,0 +1,15 @@
+package com.github.modelflat.nit3.stats;
+
+/*
+Timed stages: per block (COMPRESS, DECOMPRESS, both the float and the fixed-point paths), per code
+(HUFFMAN_BUILD) or per image (the rest)
+ */
+public enum Stage {
+    COMPRESS,
+    DECOMPRESS,
+    HUFFMAN_BUILD,
+    JFIF_WRITE,
+    JFIF_READ,
+    COLOR_CONVERT,
+    COLOR_RESTORE
+}
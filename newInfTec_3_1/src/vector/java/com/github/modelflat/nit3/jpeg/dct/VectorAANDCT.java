@@ -0,0 +1,140 @@
+package com.github.modelflat.nit3.jpeg.dct;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import static com.github.modelflat.nit3.jpeg.dct.AANDCT.*;
+
+/*
+AANDCT with the column pass done on all eight columns at once: a row of the block is one 8-lane vector, so
+the column butterflies are plain lane-wise operations. Row passes stay scalar, as moving them to vectors
+would take two transposes that cost more than they save. Every lane performs the same float operations in
+the same order as AANDCT, so results are bit-identical.
+ */
+public class VectorAANDCT implements DCT {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_256;
+
+    @Override
+    public void forward(float[] in, float[] out) {
+        System.arraycopy(in, 0, out, 0, 64);
+        for (int i = 0; i < 64; i += 8) {
+            forward1D(out, i, 1);
+        }
+        forwardColumns(out);
+        for (int i = 0; i < 64; i += 8) {
+            FloatVector.fromArray(SPECIES, out, i).mul(FloatVector.fromArray(SPECIES, DESCALE, i)).intoArray(out, i);
+        }
+    }
+
+    @Override
+    public void inverse(float[] in, float[] out) {
+        for (int i = 0; i < 64; i += 8) {
+            FloatVector.fromArray(SPECIES, in, i).mul(FloatVector.fromArray(SPECIES, PRESCALE, i)).intoArray(out, i);
+        }
+        for (int i = 0; i < 64; i += 8) {
+            inverse1D(out, i, 1);
+        }
+        inverseColumns(out);
+    }
+
+    private static void forwardColumns(float[] d) {
+        FloatVector d0 = FloatVector.fromArray(SPECIES, d, 0);
+        FloatVector d1 = FloatVector.fromArray(SPECIES, d, 8);
+        FloatVector d2 = FloatVector.fromArray(SPECIES, d, 16);
+        FloatVector d3 = FloatVector.fromArray(SPECIES, d, 24);
+        FloatVector d4 = FloatVector.fromArray(SPECIES, d, 32);
+        FloatVector d5 = FloatVector.fromArray(SPECIES, d, 40);
+        FloatVector d6 = FloatVector.fromArray(SPECIES, d, 48);
+        FloatVector d7 = FloatVector.fromArray(SPECIES, d, 56);
+
+        FloatVector tmp0 = d0.add(d7);
+        FloatVector tmp7 = d0.sub(d7);
+        FloatVector tmp1 = d1.add(d6);
+        FloatVector tmp6 = d1.sub(d6);
+        FloatVector tmp2 = d2.add(d5);
+        FloatVector tmp5 = d2.sub(d5);
+        FloatVector tmp3 = d3.add(d4);
+        FloatVector tmp4 = d3.sub(d4);
+
+        // even part
+        FloatVector tmp10 = tmp0.add(tmp3);
+        FloatVector tmp13 = tmp0.sub(tmp3);
+        FloatVector tmp11 = tmp1.add(tmp2);
+        FloatVector tmp12 = tmp1.sub(tmp2);
+
+        tmp10.add(tmp11).intoArray(d, 0);
+        tmp10.sub(tmp11).intoArray(d, 32);
+
+        FloatVector z1 = tmp12.add(tmp13).mul(R2);
+        tmp13.add(z1).intoArray(d, 16);
+        tmp13.sub(z1).intoArray(d, 48);
+
+        // odd part
+        tmp10 = tmp4.add(tmp5);
+        tmp11 = tmp5.add(tmp6);
+        tmp12 = tmp6.add(tmp7);
+
+        FloatVector z5 = tmp10.sub(tmp12).mul(C6);
+        FloatVector z2 = tmp10.mul(C2mC6).add(z5);
+        FloatVector z4 = tmp12.mul(C2pC6).add(z5);
+        FloatVector z3 = tmp11.mul(R2);
+
+        FloatVector z11 = tmp7.add(z3);
+        FloatVector z13 = tmp7.sub(z3);
+
+        z13.add(z2).intoArray(d, 40);
+        z13.sub(z2).intoArray(d, 24);
+        z11.add(z4).intoArray(d, 8);
+        z11.sub(z4).intoArray(d, 56);
+    }
+
+    private static void inverseColumns(float[] d) {
+        // even part
+        FloatVector tmp0 = FloatVector.fromArray(SPECIES, d, 0);
+        FloatVector tmp1 = FloatVector.fromArray(SPECIES, d, 16);
+        FloatVector tmp2 = FloatVector.fromArray(SPECIES, d, 32);
+        FloatVector tmp3 = FloatVector.fromArray(SPECIES, d, 48);
+
+        FloatVector tmp10 = tmp0.add(tmp2);
+        FloatVector tmp11 = tmp0.sub(tmp2);
+        FloatVector tmp13 = tmp1.add(tmp3);
+        FloatVector tmp12 = tmp1.sub(tmp3).mul(S2).sub(tmp13);
+
+        tmp0 = tmp10.add(tmp13);
+        tmp3 = tmp10.sub(tmp13);
+        tmp1 = tmp11.add(tmp12);
+        tmp2 = tmp11.sub(tmp12);
+
+        // odd part
+        FloatVector tmp4 = FloatVector.fromArray(SPECIES, d, 8);
+        FloatVector tmp5 = FloatVector.fromArray(SPECIES, d, 24);
+        FloatVector tmp6 = FloatVector.fromArray(SPECIES, d, 40);
+        FloatVector tmp7 = FloatVector.fromArray(SPECIES, d, 56);
+
+        FloatVector z13 = tmp6.add(tmp5);
+        FloatVector z10 = tmp6.sub(tmp5);
+        FloatVector z11 = tmp4.add(tmp7);
+        FloatVector z12 = tmp4.sub(tmp7);
+
+        tmp7 = z11.add(z13);
+        tmp11 = z11.sub(z13).mul(S2);
+
+        FloatVector z5 = z10.add(z12).mul(I1);
+        tmp10 = z5.sub(z12.mul(I2));
+        tmp12 = z5.sub(z10.mul(I3));
+
+        tmp6 = tmp12.sub(tmp7);
+        tmp5 = tmp11.sub(tmp6);
+        tmp4 = tmp10.sub(tmp5);
+
+        tmp0.add(tmp7).intoArray(d, 0);
+        tmp0.sub(tmp7).intoArray(d, 56);
+        tmp1.add(tmp6).intoArray(d, 8);
+        tmp1.sub(tmp6).intoArray(d, 48);
+        tmp2.add(tmp5).intoArray(d, 16);
+        tmp2.sub(tmp5).intoArray(d, 40);
+        tmp3.add(tmp4).intoArray(d, 24);
+        tmp3.sub(tmp4).intoArray(d, 32);
+    }
+}
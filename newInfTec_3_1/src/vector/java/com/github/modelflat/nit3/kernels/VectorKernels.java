@@ -0,0 +1,125 @@
+package com.github.modelflat.nit3.kernels;
+
+import com.github.modelflat.nit3.jpeg.dct.DCT;
+import com.github.modelflat.nit3.jpeg.dct.VectorAANDCT;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+Kernels on the incubating Vector API (JDK 16+, --add-modules jdk.incubator.vector), one block row per 8-lane
+vector. Selection checks them against ScalarKernels before use.
+
+SAD sums each row with a lane reduction, which may add in a different order than the scalar loop; results are
+still identical as long as all partial sums are exact, which holds for 8-bit samples and for the quarter-pixel
+values of downsampled planes.
+ */
+public class VectorKernels implements Kernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_256;
+    private static final float TWO_23 = 8388608f;
+    private static final float TWO_31 = 2147483648f;
+
+    private final DCT dct = new VectorAANDCT();
+
+    @Override
+    public void add(float[] a, float[] b, float[] out) {
+        for (int i = 0; i < 64; i += 8) {
+            FloatVector.fromArray(SPECIES, a, i).add(FloatVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+        }
+    }
+
+    @Override
+    public void subtract(float[] a, float[] b, float[] out) {
+        for (int i = 0; i < 64; i += 8) {
+            FloatVector.fromArray(SPECIES, a, i).sub(FloatVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+        }
+    }
+
+    @Override
+    public void shift(float[] in, float offset, float[] out) {
+        for (int i = 0; i < 64; i += 8) {
+            FloatVector.fromArray(SPECIES, in, i).add(offset).intoArray(out, i);
+        }
+    }
+
+    @Override
+    public void multiply(float[] in, float[] factors, float[] out) {
+        for (int i = 0; i < 64; i += 8) {
+            FloatVector.fromArray(SPECIES, in, i).mul(FloatVector.fromArray(SPECIES, factors, i)).intoArray(out, i);
+        }
+    }
+
+    @Override
+    public void quantize(float[] in, float[] matrix, float[] out) {
+        for (int i = 0; i < 64; i += 8) {
+            round(FloatVector.fromArray(SPECIES, in, i).div(FloatVector.fromArray(SPECIES, matrix, i)))
+                    .intoArray(out, i);
+        }
+    }
+
+    @Override
+    public void truncate(float[] in, float[] out) {
+        for (int i = 0; i < 64; i += 8) {
+            truncate(FloatVector.fromArray(SPECIES, in, i)).intoArray(out, i);
+        }
+    }
+
+    @Override
+    public void restore(float[] in, float[] out) {
+        for (int i = 0; i < 64; i += 8) {
+            // round(value) < 0 exactly when value <= -0.5, round(value) > 255 when value >= 255.5
+            FloatVector value = FloatVector.fromArray(SPECIES, in, i).add(128f);
+            value.blend(0f, value.compare(VectorOperators.LE, -0.5f))
+                    .blend(255f, value.compare(VectorOperators.GE, 255.5f))
+                    .intoArray(out, i);
+        }
+    }
+
+    @Override
+    public DCT getDCT() {
+        return dct;
+    }
+
+    @Override
+    public float sad(float[][] current, float[][] reference, int x, int y, int dx, int dy, float limit) {
+        float sum = 0;
+        for (int i = 0; i < 8; i++) {
+            FloatVector c = FloatVector.fromArray(SPECIES, current[y + i], x);
+            FloatVector r = FloatVector.fromArray(SPECIES, reference[y + dy + i], x + dx);
+            sum += c.sub(r).abs().reduceLanes(VectorOperators.ADD);
+            if (sum >= limit) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    // (int) cast, lane-wise (lane conversions are not intrinsified everywhere, so this stays in float)
+    private static FloatVector truncate(FloatVector v) {
+        FloatVector truncated = floor(v.abs()).lanewise(VectorOperators.NEG, v.compare(VectorOperators.LT, 0f));
+        return truncated.add(0f).blend(0f, v.test(VectorOperators.IS_NAN));
+    }
+
+    // ScalarKernels.round(): half away from zero, +0 for zero results
+    private static FloatVector round(FloatVector v) {
+        FloatVector magnitude = v.abs();
+        FloatVector floor = floor(magnitude);
+        VectorMask<Float> up = magnitude.sub(floor).compare(VectorOperators.GE, 0.5f);
+        FloatVector rounded = floor.lanewise(VectorOperators.ADD, 1f, up)
+                .lanewise(VectorOperators.NEG, v.compare(VectorOperators.LT, 0f));
+        return rounded.add(0f).blend(0f, v.test(VectorOperators.IS_NAN));
+    }
+
+    /*
+    Floor of non-negative lanes, saturated at 2^31 like an int conversion. Below 2^23 adding and subtracting
+    2^23 rounds to the nearest integer exactly, which is then corrected downwards; above it every float is
+    already an integer.
+     */
+    private static FloatVector floor(FloatVector a) {
+        FloatVector nearest = a.add(TWO_23).sub(TWO_23);
+        FloatVector floor = nearest.lanewise(VectorOperators.SUB, 1f, nearest.compare(VectorOperators.GT, a));
+        return floor.blend(a.min(TWO_31), a.compare(VectorOperators.GE, TWO_23));
+    }
+}